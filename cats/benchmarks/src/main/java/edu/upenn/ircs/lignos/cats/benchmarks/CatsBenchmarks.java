@@ -0,0 +1,65 @@
+/*
+ Copyright (C) 2013 Constantine Lignos
+
+ This file is a part of CATS.
+
+ CATS is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CATS is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CATS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.upenn.ircs.lignos.cats.benchmarks;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler always on, so every result reports allocation per
+ * operation next to throughput. Takes the usual JMH options, for example a regular expression
+ * selecting benchmarks or -p corpus=path to run on another corpus.
+ */
+public class CatsBenchmarks {
+
+	/**
+	 * @param args JMH command line options
+	 */
+	public static void main(String[] args) throws RunnerException {
+		CommandLineOptions cmdOptions = null;
+		try {
+			cmdOptions = new CommandLineOptions(args);
+		}
+		catch (CommandLineOptionException e) {
+			System.err.println("Error parsing command line: " + e.getMessage());
+			System.exit(64);
+		}
+		if (cmdOptions.shouldHelp()) {
+			try {
+				cmdOptions.showHelp();
+			}
+			catch (IOException e) {
+				// Nothing more to show
+			}
+			return;
+		}
+
+		new Runner(new OptionsBuilder()
+				.parent(cmdOptions)
+				.addProfiler(GCProfiler.class)
+				.build()).run();
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ Copyright (C) 2013 Constantine Lignos
+
+ This file is a part of CATS.
+
+ CATS is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CATS is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CATS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.upenn.ircs.lignos.cats.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.upenn.ircs.lignos.cats.Utterance;
+import edu.upenn.ircs.lignos.cats.counters.SubSeqCounter;
+import edu.upenn.ircs.lignos.cats.metrics.Evaluation;
+import edu.upenn.ircs.lignos.cats.metrics.Result;
+
+/**
+ * Parsing, subsequence counting, and evaluation. Parsing and counting work on the next line or
+ * utterance of the corpus; evaluation scores the whole corpus, as it is only done once a run.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class CorpusBenchmark {
+	private SubSeqCounter counter;
+	private int nextLine;
+	private int nextUtt;
+
+	@Setup(Level.Iteration)
+	public void resetCounter() {
+		// Counting starts from an empty counter each iteration so it grows as in training
+		counter = new SubSeqCounter();
+		nextLine = 0;
+		nextUtt = 0;
+	}
+
+	/**
+	 * Parse one line of the corpus as a gold utterance.
+	 */
+	@Benchmark
+	public Utterance parseUtterance(CorpusState corpus) {
+		String line = corpus.lines.get(nextLine);
+		nextLine = nextLine + 1 == corpus.lines.size() ? 0 : nextLine + 1;
+		return new Utterance(line, true, false);
+	}
+
+	/**
+	 * Count every subsequence of one utterance.
+	 */
+	@Benchmark
+	public void incAllSubSeqs(CorpusState corpus) {
+		Utterance utt = corpus.gold.get(nextUtt);
+		nextUtt = nextUtt + 1 == corpus.gold.size() ? 0 : nextUtt + 1;
+		counter.incAllSubSeqs(utt.getUnits());
+	}
+
+	/**
+	 * Evaluate the boundaries of the trained segmentation of the whole corpus.
+	 */
+	@Benchmark
+	@Warmup(iterations = 3, time = 5)
+	@Measurement(iterations = 5, time = 5)
+	public Result evalUtterances(CorpusState corpus) {
+		return Evaluation.evalUtterances(corpus.gold, corpus.segmented, null, null,
+				Evaluation.EvalMethod.BOUNDARIES);
+	}
+
+
+	/**
+	 * Evaluate the boundaries, word tokens, and word types of the trained segmentation of the
+	 * whole corpus in parallel, as a run does when it writes no per-utterance logs.
+	 */
+	@Benchmark
+	@Warmup(iterations = 3, time = 5)
+	@Measurement(iterations = 5, time = 5)
+	public Result[] evalAllParallel(CorpusState corpus) {
+		return Evaluation.evalAllParallel(corpus.gold, corpus.segmented, corpus.goldLexicon,
+				null, null, null, null, null);
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ Copyright (C) 2013 Constantine Lignos
+
+ This file is a part of CATS.
+
+ CATS is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CATS is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CATS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.upenn.ircs.lignos.cats.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import edu.upenn.ircs.lignos.cats.ExperimentData;
+import edu.upenn.ircs.lignos.cats.Utterance;
+import edu.upenn.ircs.lignos.cats.lexicon.Lexicon;
+import edu.upenn.ircs.lignos.cats.segmenters.BeamSubtractiveSegmenter;
+
+/**
+ * The corpus shared by all benchmarks, loaded once per trial. Besides the gold utterances it
+ * holds the raw lines for parsing and the result of one training pass of the default beam
+ * segmenter, so that benchmarks of testing and evaluation see a realistic lexicon and
+ * segmentation.
+ */
+@State(Scope.Benchmark)
+public class CorpusState {
+	// Default beam size, matching the default properties
+	static final int BEAM_SIZE = 2;
+
+	/** Path of the corpus, relative to the directory the benchmarks are run from. */
+	@Param("../../data/sample_syll_train.txt")
+	public String corpus;
+
+	public List<String> lines;
+	public List<Utterance> gold;
+	public ExperimentData data;
+	// Gold lexicon of the corpus
+	public Lexicon goldLexicon;
+	// Lexicon and segmentation learned by one pass of the default segmenter
+	public Lexicon trainedLexicon;
+	public List<Utterance> segmented;
+
+	@Setup(Level.Trial)
+	public void load() throws IOException {
+		lines = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new FileReader(corpus));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.length() > 0) lines.add(line);
+			}
+		}
+		finally {
+			reader.close();
+		}
+
+		gold = Utterance.loadUtterances(corpus);
+		if (gold == null) {
+			throw new IOException("Could not read corpus " + corpus);
+		}
+		data = ExperimentData.get(gold, null, false, true);
+		goldLexicon = data.goldTrainLexicon;
+
+		trainedLexicon = newLexicon();
+		BeamSubtractiveSegmenter seg = newSegmenter(trainedLexicon);
+		segmented = data.train.segUtterances();
+		for (Utterance utt : segmented) {
+			utt.setBoundaries(seg.segment(utt, true, false));
+			trainedLexicon.tick();
+		}
+	}
+
+	/**
+	 * @return an empty lexicon with the default properties
+	 */
+	static Lexicon newLexicon() {
+		return new Lexicon(false, false, true, false, false, 0.05, 0.0, null);
+	}
+
+	/**
+	 * @return a beam segmenter with the default properties learning into lexicon
+	 */
+	static BeamSubtractiveSegmenter newSegmenter(Lexicon lexicon) {
+		return new BeamSubtractiveSegmenter(false, false, BEAM_SIZE, lexicon, null, false,
+				new Random(0));
+	}
+}
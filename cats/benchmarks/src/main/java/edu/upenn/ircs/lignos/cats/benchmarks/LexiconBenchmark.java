@@ -0,0 +1,132 @@
+/*
+ Copyright (C) 2013 Constantine Lignos
+
+ This file is a part of CATS.
+
+ CATS is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CATS is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CATS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.upenn.ircs.lignos.cats.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import edu.upenn.ircs.lignos.cats.Utterance;
+import edu.upenn.ircs.lignos.cats.lexicon.Lexicon;
+
+/**
+ * Lexicon lookups and updates. Each operation works on the next utterance or word of the
+ * corpus, wrapping around at the end.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class LexiconBenchmark {
+	private List<Utterance> segmented;
+	private Boolean[][] boundaries;
+	private String[][] wordUnits;
+	private Boolean[][] wordStresses;
+	private Lexicon lexicon;
+	private int nextUtt;
+	private int nextWord;
+
+	@Setup(Level.Trial)
+	public void setUp(CorpusState corpus) {
+		segmented = corpus.segmented;
+		boundaries = new Boolean[segmented.size()][];
+		for (int i = 0; i < boundaries.length; i++) {
+			boundaries[i] = segmented.get(i).getBoundariesCopy();
+		}
+
+		// Split the gold utterances into words to reward
+		List<String[]> units = new ArrayList<String[]>();
+		List<Boolean[]> stresses = new ArrayList<Boolean[]>();
+		for (int i = 0; i < corpus.data.train.size(); i++) {
+			Utterance utt = corpus.gold.get(i);
+			int start = 0;
+			for (int end = 1; end <= utt.length; end++) {
+				if (end < utt.length && !utt.isBoundary(end - 1)) continue;
+				units.add(Arrays.copyOfRange(utt.getUnits(), start, end));
+				stresses.add(Arrays.copyOfRange(utt.getStresses(), start, end));
+				start = end;
+			}
+		}
+		wordUnits = units.toArray(new String[units.size()][]);
+		wordStresses = stresses.toArray(new Boolean[stresses.size()][]);
+	}
+
+	@Setup(Level.Iteration)
+	public void resetLexicon() {
+		// Rewarding starts from an empty lexicon each iteration so it grows as in training
+		lexicon = CorpusState.newLexicon();
+		nextUtt = 0;
+		nextWord = 0;
+	}
+
+	private int nextUtt() {
+		int i = nextUtt;
+		nextUtt = i + 1 == segmented.size() ? 0 : i + 1;
+		return i;
+	}
+
+	/**
+	 * Look up the words starting at each position of an utterance in a trained lexicon.
+	 */
+	@Benchmark
+	public void getPrefixWords(CorpusState corpus, Blackhole bh) {
+		Utterance utt = segmented.get(nextUtt());
+		for (int index = 0; index < utt.length; index++) {
+			bh.consume(corpus.trainedLexicon.getPrefixWords(utt, index));
+		}
+	}
+
+	/**
+	 * Reward one gold word.
+	 */
+	@Benchmark
+	public void rewardWord() {
+		int i = nextWord;
+		nextWord = i + 1 == wordUnits.length ? 0 : i + 1;
+		lexicon.rewardWord(wordUnits[i], wordStresses[i]);
+	}
+
+	/**
+	 * Score the words of a segmented utterance in a trained lexicon.
+	 */
+	@Benchmark
+	public double[] utteranceWordsScores(CorpusState corpus) {
+		int i = nextUtt();
+		Utterance utt = segmented.get(i);
+		return corpus.trainedLexicon.utteranceWordsScores(utt.getUnits(), utt.getStresses(),
+				boundaries[i], null);
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ Copyright (C) 2013 Constantine Lignos
+
+ This file is a part of CATS.
+
+ CATS is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CATS is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CATS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.upenn.ircs.lignos.cats.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.upenn.ircs.lignos.cats.Utterance;
+import edu.upenn.ircs.lignos.cats.lexicon.Lexicon;
+import edu.upenn.ircs.lignos.cats.segmenters.BeamSubtractiveSegmenter;
+
+/**
+ * Segmenting one utterance with the default beam segmenter, either while learning or against
+ * an already trained lexicon.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class SegmenterBenchmark {
+	private List<Utterance> input;
+	private Lexicon lexicon;
+	private BeamSubtractiveSegmenter learner;
+	private BeamSubtractiveSegmenter tester;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp(CorpusState corpus) {
+		input = corpus.data.train.segUtterances();
+		tester = CorpusState.newSegmenter(corpus.trainedLexicon);
+	}
+
+	@Setup(Level.Iteration)
+	public void resetLearner() {
+		// Learning starts from an empty lexicon each iteration, as it does in a run
+		lexicon = CorpusState.newLexicon();
+		learner = CorpusState.newSegmenter(lexicon);
+		next = 0;
+	}
+
+	private Utterance nextUtt() {
+		Utterance utt = input.get(next);
+		next = next + 1 == input.size() ? 0 : next + 1;
+		return utt;
+	}
+
+	/**
+	 * Segment an utterance and learn from it, as in training.
+	 */
+	@Benchmark
+	public Boolean[] segmentTrain() {
+		Boolean[] boundaries = learner.segment(nextUtt(), true, false);
+		lexicon.tick();
+		return boundaries;
+	}
+
+	/**
+	 * Segment an utterance with a trained lexicon, as in testing.
+	 */
+	@Benchmark
+	public Boolean[] segmentTest() {
+		return tester.segment(nextUtt(), false, false);
+	}
+}
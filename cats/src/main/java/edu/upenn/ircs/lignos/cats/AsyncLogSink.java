@@ -0,0 +1,393 @@
+/*
+ Copyright (C) 2013 Constantine Lignos
+
+ This file is a part of CATS.
+
+ CATS is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CATS is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CATS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.upenn.ircs.lignos.cats;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * An output stream that collects bytes into large blocks and hands them to a background thread
+ * to be written, so that the writing thread never waits on the disk unless it gets far ahead of
+ * it. At most a fixed number of blocks are queued, and written blocks are reused, which bounds
+ * the memory used. Output can optionally be gzipped, which also happens on the background
+ * thread.
+ * <p>
+ * Through the PrintStream returned by open, a Deferred line passed to println is queued as it
+ * is, and its text is made and encoded on the background thread.
+ */
+public class AsyncLogSink extends OutputStream {
+	private static final int BLOCK_SIZE = 1 << 16;
+	private static final int BLOCK_LINES = 1024;
+	private static final int QUEUE_BLOCKS = 16;
+	// Blocks are queued, being written, or being filled, so no more than this are ever needed
+	private static final int POOL_BLOCKS = QUEUE_BLOCKS + 2;
+	// Marks the end of the queued blocks
+	private static final Block END = new Block(0, 0);
+	// How often a thread waiting on a full queue checks that the writer is still running
+	private static final long WRITER_CHECK_MILLIS = 100;
+	private static final Charset CHARSET = Charset.defaultCharset();
+	private static final String LINE_SEPARATOR = System.lineSeparator();
+	public static final String GZIP_SUFFIX = ".gz";
+
+	private final BlockingQueue<Block> queue;
+	private final BlockingQueue<Block> pool;
+	private final WritableByteChannel channel;
+	private final Thread writer;
+	private Block block;
+	// The first error the writer hit, reported on the next write or close
+	private volatile IOException error;
+	private boolean closed;
+
+
+	/**
+	 * A line whose text is only made, by toString, when the writer gets to it. It must not
+	 * change once it has been printed.
+	 */
+	public interface Deferred {
+	}
+
+
+	/**
+	 * Either bytes or deferred lines to be written, in order. A block holds only one of the
+	 * two at a time.
+	 */
+	private static final class Block {
+		final ByteBuffer bytes;
+		final Object[] lines;
+		int nLines;
+
+		Block(int nBytes, int nLines) {
+			bytes = ByteBuffer.allocate(nBytes);
+			lines = new Object[nLines];
+			this.nLines = 0;
+		}
+
+		boolean isEmpty() {
+			return bytes.position() == 0 && nLines == 0;
+		}
+
+		void clear() {
+			bytes.clear();
+			Arrays.fill(lines, 0, nLines, null);
+			nLines = 0;
+		}
+	}
+
+
+	/**
+	 * Open a sink writing to the given path, replacing anything already there.
+	 * @param path the path to write to
+	 * @param gzip whether to gzip the output
+	 * @throws IOException if the file cannot be opened
+	 */
+	public AsyncLogSink(String path, boolean gzip) throws IOException {
+		FileOutputStream file = new FileOutputStream(path);
+		channel = gzip ? Channels.newChannel(new GZIPOutputStream(file, BLOCK_SIZE)) :
+			file.getChannel();
+		queue = new ArrayBlockingQueue<Block>(QUEUE_BLOCKS);
+		pool = new ArrayBlockingQueue<Block>(POOL_BLOCKS);
+		block = new Block(BLOCK_SIZE, BLOCK_LINES);
+		closed = false;
+
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeBlocks();
+			}
+		}, "Log writer for " + path);
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+
+	/**
+	 * Open a PrintStream that writes through a new sink. If gzip is true, GZIP_SUFFIX is added
+	 * to the path. Deferred lines passed to its println are formatted by the writer. Its close
+	 * throws an UncheckedIOException if anything could not be written.
+	 * @param path the path to write to
+	 * @param gzip whether to gzip the output
+	 * @return a PrintStream for the sink
+	 * @throws IOException if the file cannot be opened
+	 */
+	public static PrintStream open(String path, boolean gzip) throws IOException {
+		String fullPath = gzip ? path + GZIP_SUFFIX : path;
+		return new LogStream(new AsyncLogSink(fullPath, gzip), fullPath);
+	}
+
+
+	@Override
+	public void write(int b) throws IOException {
+		if (block.nLines > 0 || !block.bytes.hasRemaining()) {
+			handOff();
+		}
+		block.bytes.put((byte) b);
+	}
+
+
+	@Override
+	public void write(byte[] bytes, int off, int len) throws IOException {
+		while (len > 0) {
+			if (block.nLines > 0 || !block.bytes.hasRemaining()) {
+				handOff();
+			}
+			int chunk = Math.min(len, block.bytes.remaining());
+			block.bytes.put(bytes, off, chunk);
+			off += chunk;
+			len -= chunk;
+		}
+	}
+
+
+	/**
+	 * Queue a line to be formatted and written by the writer, followed by a line separator.
+	 */
+	void writeLine(Deferred line) throws IOException {
+		if (block.bytes.position() > 0 || block.nLines == block.lines.length) {
+			handOff();
+		}
+		block.lines[block.nLines++] = line;
+	}
+
+
+	/**
+	 * Hand anything collected so far to the writer. This does not wait for it to be written.
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (!block.isEmpty()) {
+			handOff();
+		}
+	}
+
+
+	/**
+	 * Write out everything and wait for the writer to finish. The writer is always stopped
+	 * and the file closed, even if writing failed, and the first error is then thrown.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		IOException flushError = null;
+		try {
+			flush();
+		} catch (IOException e) {
+			flushError = e;
+		}
+		closed = true;
+		try {
+			put(END);
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while closing log.");
+		}
+		if (error != null) {
+			throw error;
+		}
+		if (flushError != null) {
+			throw flushError;
+		}
+	}
+
+
+	private void handOff() throws IOException {
+		if (error != null) {
+			throw error;
+		}
+		if (closed) {
+			throw new IOException("Log is closed.");
+		}
+		block.bytes.flip();
+		try {
+			put(block);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while writing log.");
+		}
+		// Reuse a block the writer is done with if there is one
+		Block next = pool.poll();
+		block = next != null ? next : new Block(BLOCK_SIZE, BLOCK_LINES);
+		if (error != null) {
+			throw error;
+		}
+	}
+
+
+	/**
+	 * Queue a block for the writer, waiting for room unless the writer has stopped, in which
+	 * case nothing would ever make room.
+	 */
+	private void put(Block next) throws InterruptedException {
+		while (!queue.offer(next, WRITER_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+			if (!writer.isAlive()) {
+				if (error == null) error = new IOException("Log writer stopped.");
+				return;
+			}
+		}
+	}
+
+
+	/**
+	 * Write blocks until the end is reached, then close the channel.
+	 */
+	private void writeBlocks() {
+		// Deferred lines are encoded into this before being written
+		ByteBuffer encoded = ByteBuffer.allocate(BLOCK_SIZE);
+		try {
+			while (true) {
+				Block next = queue.take();
+				if (next == END) {
+					break;
+				}
+				// Keep taking blocks after an error so the other thread never blocks
+				if (error == null) {
+					try {
+						if (next.nLines > 0) {
+							writeLines(next, encoded);
+						}
+						else {
+							writeFully(next.bytes);
+						}
+					} catch (IOException e) {
+						error = e;
+					} catch (RuntimeException e) {
+						error = new IOException("Log writer failed.", e);
+					}
+				}
+				next.clear();
+				pool.offer(next);
+			}
+		} catch (InterruptedException e) {
+			error = new InterruptedIOException("Log writer interrupted.");
+		} finally {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				if (error == null) error = e;
+			}
+		}
+	}
+
+
+	private void writeLines(Block lines, ByteBuffer encoded) throws IOException {
+		for (int i = 0; i < lines.nLines; i++) {
+			byte[] text = (String.valueOf(lines.lines[i]) + LINE_SEPARATOR).getBytes(CHARSET);
+			if (text.length > encoded.remaining()) {
+				encoded.flip();
+				writeFully(encoded);
+				encoded.clear();
+			}
+			if (text.length > encoded.remaining()) {
+				writeFully(ByteBuffer.wrap(text));
+			}
+			else {
+				encoded.put(text);
+			}
+		}
+		encoded.flip();
+		writeFully(encoded);
+		encoded.clear();
+	}
+
+
+	private void writeFully(ByteBuffer bytes) throws IOException {
+		while (bytes.hasRemaining()) {
+			channel.write(bytes);
+		}
+	}
+
+
+	/**
+	 * A PrintStream over a sink that hands Deferred lines to it unformatted and reports write
+	 * errors when closed, rather than leaving them to checkError.
+	 */
+	private static final class LogStream extends PrintStream {
+		private final AsyncLogSink sink;
+		private final String path;
+		private boolean streamClosed;
+
+		LogStream(AsyncLogSink sink, String path) {
+			super(sink, false);
+			this.sink = sink;
+			this.path = path;
+			streamClosed = false;
+		}
+
+		@Override
+		public void println(Object x) {
+			if (!(x instanceof Deferred)) {
+				super.println(x);
+				return;
+			}
+			synchronized (this) {
+				try {
+					sink.writeLine((Deferred) x);
+				} catch (InterruptedIOException e) {
+					Thread.currentThread().interrupt();
+				} catch (IOException e) {
+					setError();
+				}
+			}
+		}
+
+		/**
+		 * Close the sink, waiting for everything to be written.
+		 * @throws UncheckedIOException if anything printed could not be written
+		 */
+		@Override
+		public void close() {
+			IOException failure = null;
+			synchronized (this) {
+				if (streamClosed) {
+					return;
+				}
+				streamClosed = true;
+				flush();
+				try {
+					sink.close();
+				} catch (IOException e) {
+					failure = e;
+				}
+			}
+			super.close();
+			if (failure == null && checkError()) {
+				failure = new IOException("Write failed.");
+			}
+			if (failure != null) {
+				throw new UncheckedIOException("Couldn't write " + path, failure);
+			}
+		}
+	}
+}
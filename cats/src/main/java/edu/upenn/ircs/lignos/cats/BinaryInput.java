@@ -0,0 +1,109 @@
+/*
+ Copyright (C) 2013 Constantine Lignos
+
+ This file is a part of CATS.
+
+ CATS is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CATS is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CATS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.upenn.ircs.lignos.cats;
+
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Streams primitive values written by BinaryOutput back from a file through a large buffer.
+ */
+public class BinaryInput {
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer;
+
+	/**
+	 * Open the given path for reading.
+	 * @param path the path to read from
+	 * @throws IOException if the file cannot be opened
+	 */
+	public BinaryInput(String path) throws IOException {
+		channel = new FileInputStream(path).getChannel();
+		buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		// Start with an empty buffer ready for reading
+		buffer.flip();
+	}
+
+	public boolean readBoolean() throws IOException {
+		ensure(1);
+		return buffer.get() != 0;
+	}
+
+	public int readInt() throws IOException {
+		ensure(4);
+		return buffer.getInt();
+	}
+
+	public long readLong() throws IOException {
+		ensure(8);
+		return buffer.getLong();
+	}
+
+	public double readDouble() throws IOException {
+		ensure(8);
+		return buffer.getDouble();
+	}
+
+	/**
+	 * Read a string written by BinaryOutput.writeString.
+	 * @return the string
+	 * @throws IOException if reading fails
+	 */
+	public String readString() throws IOException {
+		byte[] bytes = new byte[readInt()];
+		int read = 0;
+		while (read < bytes.length) {
+			ensure(1);
+			int chunk = Math.min(buffer.remaining(), bytes.length - read);
+			buffer.get(bytes, read, chunk);
+			read += chunk;
+		}
+		return new String(bytes, BinaryOutput.UTF8);
+	}
+
+	/**
+	 * Close the file.
+	 * @throws IOException if closing fails
+	 */
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Make sure the given number of bytes are available in the buffer, reading more if needed.
+	 */
+	private void ensure(int bytes) throws IOException {
+		if (buffer.remaining() >= bytes) {
+			return;
+		}
+		buffer.compact();
+		while (buffer.position() < bytes) {
+			if (channel.read(buffer) == -1) {
+				throw new EOFException("Unexpected end of file.");
+			}
+		}
+		buffer.flip();
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ Copyright (C) 2013 Constantine Lignos
+
+ This file is a part of CATS.
+
+ CATS is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CATS is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CATS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.upenn.ircs.lignos.cats;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Streams primitive values to a file through a large buffer. Values are written big-endian and
+ * can be read back with BinaryInput.
+ */
+public class BinaryOutput {
+	private static final int BUFFER_SIZE = 1 << 16;
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer;
+
+	/**
+	 * Open the given path for writing, replacing anything already there.
+	 * @param path the path to write to
+	 * @throws IOException if the file cannot be opened
+	 */
+	public BinaryOutput(String path) throws IOException {
+		channel = new FileOutputStream(path).getChannel();
+		buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	}
+
+	public void writeBoolean(boolean value) throws IOException {
+		ensure(1);
+		buffer.put((byte) (value ? 1 : 0));
+	}
+
+	public void writeInt(int value) throws IOException {
+		ensure(4);
+		buffer.putInt(value);
+	}
+
+	public void writeLong(long value) throws IOException {
+		ensure(8);
+		buffer.putLong(value);
+	}
+
+	public void writeDouble(double value) throws IOException {
+		ensure(8);
+		buffer.putDouble(value);
+	}
+
+	/**
+	 * Write a string as its length in UTF-8 bytes followed by the bytes.
+	 * @param value the string to write
+	 * @throws IOException if writing fails
+	 */
+	public void writeString(String value) throws IOException {
+		byte[] bytes = value.getBytes(UTF8);
+		writeInt(bytes.length);
+		// Strings may be longer than the buffer, so write them in pieces
+		int written = 0;
+		while (written < bytes.length) {
+			ensure(1);
+			int chunk = Math.min(buffer.remaining(), bytes.length - written);
+			buffer.put(bytes, written, chunk);
+			written += chunk;
+		}
+	}
+
+	/**
+	 * Write out anything buffered and close the file.
+	 * @throws IOException if writing fails
+	 */
+	public void close() throws IOException {
+		try {
+			flush();
+		}
+		finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Make sure there is room for the given number of bytes in the buffer.
+	 */
+	private void ensure(int bytes) throws IOException {
+		if (buffer.remaining() < bytes) {
+			flush();
+		}
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+}
@@ -0,0 +1,379 @@
+/*
+ Copyright (C) 2013 Constantine Lignos
+
+ This file is a part of CATS.
+
+ CATS is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CATS is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CATS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.upenn.ircs.lignos.cats;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Generates synthetic corpora in the input format for scaling tests. A lexicon of random
+ * syllabified words is built first, and utterances are then drawn from it with Zipfian word
+ * frequencies, shorter words being the more frequent ones. Everything is drawn from a single
+ * seeded generator, so the same settings always give the same corpus.
+ */
+public class CorpusGenerator {
+	private static final String OPTION_PREFIX = "--";
+	private static final String SEED_OPTION = "--seed";
+	private static final String TYPES_OPTION = "--types";
+	private static final String ZIPF_OPTION = "--zipf";
+	private static final String MEAN_WORDS_OPTION = "--mean-words";
+	private static final String SYLLABLES_OPTION = "--syllables";
+	private static final String STRESS_INITIAL_OPTION = "--stress-initial";
+	private static final String MONO_STRESS_OPTION = "--mono-stress";
+
+	// Defaults, roughly matching the sample child-directed corpus
+	public static final long DEFAULT_SEED = 0;
+	public static final int DEFAULT_TYPES = 20000;
+	public static final double DEFAULT_ZIPF = 1.0;
+	public static final double DEFAULT_MEAN_WORDS = 4.3;
+	// Relative number of word types with 1, 2, ... syllables
+	public static final double[] DEFAULT_SYLLABLE_WEIGHTS = {0.45, 0.35, 0.15, 0.04, 0.01};
+	public static final double DEFAULT_STRESS_INITIAL = 0.8;
+	public static final double DEFAULT_MONO_STRESS = 0.6;
+
+	// ARPABET segments. Vowels are given a stress digit when used.
+	private static final String[] CONSONANTS = {"B", "CH", "D", "DH", "F", "G", "HH", "JH", "K",
+		"L", "M", "N", "NG", "P", "R", "S", "SH", "T", "TH", "V", "W", "Y", "Z", "ZH"};
+	private static final String[] VOWELS = {"AA", "AE", "AH", "AO", "AW", "AY", "EH", "ER", "EY",
+		"IH", "IY", "OW", "OY", "UH", "UW"};
+	// Relative number of syllables with 0, 1, and 2 consonants in the onset and coda
+	private static final double[] ONSET_WEIGHTS = {0.2, 0.65, 0.15};
+	private static final double[] CODA_WEIGHTS = {0.45, 0.45, 0.1};
+	private static final int MAX_TYPE_ATTEMPTS = 100;
+
+	private final Random rand;
+	private final double meanWords;
+	// Words in order of decreasing frequency, and the number of syllables in each
+	private final String[] words;
+	private final int[] wordSyllables;
+	// Cumulative Zipfian weight of the words up to and including each rank
+	private final double[] cumWeights;
+
+
+	/**
+	 * Build the lexicon of a corpus.
+	 * @param nTypes the number of word types
+	 * @param zipfExponent the exponent s of the frequency distribution, where the word of rank r
+	 * has frequency proportional to 1 / r^s
+	 * @param syllableWeights the relative number of types with 1, 2, ... syllables
+	 * @param stressInitialRate the probability that a word of more than one syllable has
+	 * stress on the first syllable rather than a later one
+	 * @param monoStressRate the probability that a word of one syllable is stressed
+	 * @param meanWords the mean number of words in an utterance, at least 1
+	 * @param seed the seed for all random choices
+	 */
+	public CorpusGenerator(int nTypes, double zipfExponent, double[] syllableWeights,
+			double stressInitialRate, double monoStressRate, double meanWords, long seed) {
+		if (nTypes < 1) {
+			throw new IllegalArgumentException("There must be at least one word type");
+		}
+		if (meanWords < 1) {
+			throw new IllegalArgumentException("Utterances must have at least one word");
+		}
+		rand = new Random(seed);
+		this.meanWords = meanWords;
+
+		// Make distinct words, then rank shorter words as more frequent
+		final List<String> types = new ArrayList<String>(nTypes);
+		final List<Integer> typeSyllables = new ArrayList<Integer>(nTypes);
+		Set<String> seen = new HashSet<String>();
+		while (types.size() < nTypes) {
+			int nSyllables = draw(syllableWeights) + 1;
+			String word = null;
+			for (int attempt = 0; attempt < MAX_TYPE_ATTEMPTS && word == null; attempt++) {
+				String candidate = makeWord(nSyllables, stressInitialRate, monoStressRate);
+				if (seen.add(candidate)) word = candidate;
+			}
+			if (word == null) {
+				throw new IllegalArgumentException("Cannot make " + nTypes +
+						" distinct word types with these syllable weights");
+			}
+			types.add(word);
+			typeSyllables.add(nSyllables);
+		}
+		Integer[] order = new Integer[nTypes];
+		for (int i = 0; i < nTypes; i++) {
+			order[i] = i;
+		}
+		// The sort is stable, so words of the same length keep their random order
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				return typeSyllables.get(o1) - typeSyllables.get(o2);
+			}
+		});
+
+		words = new String[nTypes];
+		wordSyllables = new int[nTypes];
+		cumWeights = new double[nTypes];
+		double total = 0.0;
+		for (int rank = 0; rank < nTypes; rank++) {
+			words[rank] = types.get(order[rank]);
+			wordSyllables[rank] = typeSyllables.get(order[rank]);
+			total += 1.0 / Math.pow(rank + 1, zipfExponent);
+			cumWeights[rank] = total;
+		}
+	}
+
+
+	/**
+	 * @return a generator with the default settings
+	 */
+	public static CorpusGenerator withDefaults() {
+		return new CorpusGenerator(DEFAULT_TYPES, DEFAULT_ZIPF, DEFAULT_SYLLABLE_WEIGHTS,
+				DEFAULT_STRESS_INITIAL, DEFAULT_MONO_STRESS, DEFAULT_MEAN_WORDS, DEFAULT_SEED);
+	}
+
+
+	/**
+	 * @return the word types, most frequent first
+	 */
+	public List<String> getWords() {
+		return Collections.unmodifiableList(Arrays.asList(words));
+	}
+
+
+	/**
+	 * Draw an utterance, appending it to a buffer.
+	 * @param buffer the buffer to append to
+	 * @return the number of syllables in the utterance
+	 */
+	public int appendUtterance(StringBuilder buffer) {
+		int nWords = 1 + poisson(meanWords - 1);
+		int nSyllables = 0;
+		for (int i = 0; i < nWords; i++) {
+			int rank = drawRank();
+			if (i > 0) buffer.append(' ');
+			buffer.append(words[rank]);
+			nSyllables += wordSyllables[rank];
+		}
+		return nSyllables;
+	}
+
+
+	/**
+	 * Write utterances, one per line, until at least the given number of syllables have been
+	 * written.
+	 * @param out where to write
+	 * @param nSyllables the number of syllables to write
+	 * @return the number of utterances written
+	 * @throws IOException if writing fails
+	 */
+	public long write(Writer out, long nSyllables) throws IOException {
+		StringBuilder buffer = new StringBuilder();
+		long written = 0;
+		long nUtterances = 0;
+		while (written < nSyllables) {
+			buffer.setLength(0);
+			written += appendUtterance(buffer);
+			buffer.append('\n');
+			out.append(buffer);
+			nUtterances++;
+		}
+		return nUtterances;
+	}
+
+
+	private String makeWord(int nSyllables, double stressInitialRate, double monoStressRate) {
+		int stressed;
+		if (nSyllables == 1) {
+			stressed = rand.nextDouble() < monoStressRate ? 0 : -1;
+		}
+		else {
+			stressed = rand.nextDouble() < stressInitialRate ? 0 : 1 + rand.nextInt(nSyllables - 1);
+		}
+
+		StringBuilder word = new StringBuilder();
+		for (int syll = 0; syll < nSyllables; syll++) {
+			if (syll > 0) word.append('|');
+			int nOnset = draw(ONSET_WEIGHTS);
+			for (int i = 0; i < nOnset; i++) {
+				word.append(CONSONANTS[rand.nextInt(CONSONANTS.length)]).append('.');
+			}
+			word.append(VOWELS[rand.nextInt(VOWELS.length)]).append(syll == stressed ? '1' : '0');
+			int nCoda = draw(CODA_WEIGHTS);
+			for (int i = 0; i < nCoda; i++) {
+				word.append('.').append(CONSONANTS[rand.nextInt(CONSONANTS.length)]);
+			}
+		}
+		return word.toString();
+	}
+
+
+	/**
+	 * Draw an index with probability proportional to its weight.
+	 */
+	private int draw(double[] weights) {
+		double total = 0.0;
+		for (double weight : weights) {
+			total += weight;
+		}
+		double target = rand.nextDouble() * total;
+		for (int i = 0; i < weights.length - 1; i++) {
+			target -= weights[i];
+			if (target < 0) return i;
+		}
+		return weights.length - 1;
+	}
+
+
+	/**
+	 * Draw the rank of a word from the Zipfian distribution.
+	 */
+	private int drawRank() {
+		double target = rand.nextDouble() * cumWeights[cumWeights.length - 1];
+		int index = Arrays.binarySearch(cumWeights, target);
+		// On a miss, binarySearch returns -(insertion point) - 1
+		return index >= 0 ? index : Math.min(-index - 1, cumWeights.length - 1);
+	}
+
+
+	/**
+	 * Draw from a Poisson distribution by multiplying uniforms, which is fast for the small
+	 * means of utterance lengths.
+	 */
+	private int poisson(double mean) {
+		double limit = Math.exp(-mean);
+		double product = rand.nextDouble();
+		int n = 0;
+		while (product > limit) {
+			product *= rand.nextDouble();
+			n++;
+		}
+		return n;
+	}
+
+
+	/**
+	 * @param args Command line arguments
+	 */
+	public static void main(String[] args) {
+		long seed = DEFAULT_SEED;
+		int nTypes = DEFAULT_TYPES;
+		double zipf = DEFAULT_ZIPF;
+		double meanWords = DEFAULT_MEAN_WORDS;
+		double[] syllableWeights = DEFAULT_SYLLABLE_WEIGHTS;
+		double stressInitial = DEFAULT_STRESS_INITIAL;
+		double monoStress = DEFAULT_MONO_STRESS;
+
+		int argStart = 0;
+		try {
+			while (argStart < args.length && args[argStart].startsWith(OPTION_PREFIX)) {
+				if (argStart + 1 >= args.length) usage();
+				String option = args[argStart];
+				String value = args[argStart + 1];
+				if (option.equals(SEED_OPTION)) {
+					seed = Long.parseLong(value);
+				}
+				else if (option.equals(TYPES_OPTION)) {
+					nTypes = Integer.parseInt(value);
+				}
+				else if (option.equals(ZIPF_OPTION)) {
+					zipf = Double.parseDouble(value);
+				}
+				else if (option.equals(MEAN_WORDS_OPTION)) {
+					meanWords = Double.parseDouble(value);
+				}
+				else if (option.equals(SYLLABLES_OPTION)) {
+					String[] weights = value.split(",");
+					syllableWeights = new double[weights.length];
+					for (int i = 0; i < weights.length; i++) {
+						syllableWeights[i] = Double.parseDouble(weights[i]);
+					}
+				}
+				else if (option.equals(STRESS_INITIAL_OPTION)) {
+					stressInitial = Double.parseDouble(value);
+				}
+				else if (option.equals(MONO_STRESS_OPTION)) {
+					monoStress = Double.parseDouble(value);
+				}
+				else {
+					usage();
+				}
+				argStart += 2;
+			}
+		}
+		catch (NumberFormatException e) {
+			System.err.println("Bad number: " + e.getMessage());
+			usage();
+		}
+		if (args.length - argStart != 2) {
+			usage();
+		}
+		String outPath = args[argStart];
+		long nSyllables = 0;
+		try {
+			nSyllables = (long) Double.parseDouble(args[argStart + 1]);
+		}
+		catch (NumberFormatException e) {
+			usage();
+		}
+
+		long startTime = System.currentTimeMillis();
+		CorpusGenerator generator = null;
+		try {
+			generator = new CorpusGenerator(nTypes, zipf, syllableWeights, stressInitial,
+					monoStress, meanWords, seed);
+		}
+		catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.exit(64);
+		}
+		try {
+			Writer out = new BufferedWriter(new FileWriter(outPath), 1 << 16);
+			long nUtterances;
+			try {
+				nUtterances = generator.write(out, nSyllables);
+			}
+			finally {
+				out.close();
+			}
+			long endTime = System.currentTimeMillis() - startTime;
+			System.out.println("Wrote " + nUtterances + " utterances to " + outPath + " in " +
+					endTime / 1000F + " seconds.");
+		}
+		catch (IOException e) {
+			System.err.println("Couldn't write corpus " + outPath + ": " + e.getMessage());
+			System.exit(1);
+		}
+	}
+
+
+	private static void usage() {
+		System.err.println("Usage: CorpusGenerator [--seed N] [--types N] [--zipf S] " +
+				"[--mean-words N] [--syllables w1,w2,...] [--stress-initial P] " +
+				"[--mono-stress P] output_file n_syllables");
+		System.err.println("Writes utterances until there are at least n_syllables syllables, " +
+				"for example 1e8. --syllables gives the relative number of word types with " +
+				"1, 2, ... syllables, --stress-initial the chance a longer word is stressed on " +
+				"its first syllable, and --mono-stress the chance a one-syllable word is stressed.");
+		System.exit(64);
+	}
+}
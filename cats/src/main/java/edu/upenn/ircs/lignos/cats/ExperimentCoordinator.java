@@ -0,0 +1,646 @@
+/*
+ Copyright (C) 2013 Constantine Lignos
+
+ This file is a part of CATS.
+
+ CATS is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CATS is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CATS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.upenn.ircs.lignos.cats;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Runs the conditions of an experiment on separate worker JVMs, each with its own heap, so that
+ * large machines can be used without one giant heap. The coordinator hands out one condition at
+ * a time to each connected ExperimentWorker over a socket and writes the rows they send back to
+ * the results CSV. If a worker dies while running a condition, the condition is given to another
+ * worker. Workers can be started by the coordinator on the local host or by hand on other hosts
+ * that can see the same files. Workers send a heartbeat while they run, so one that stops
+ * responding is treated as dead, and if no worker is left for a while the conditions still
+ * waiting are given up on.
+ */
+public class ExperimentCoordinator {
+	// Protocol shared with ExperimentWorker
+	public static final String PROTOCOL = "CATS experiment 2";
+	public static final int MSG_DONE = 0;
+	public static final int MSG_TASK = 1;
+	public static final int MSG_RESULT = 2;
+	public static final int MSG_FAILED = 3;
+	public static final int MSG_HEARTBEAT = 4;
+	static final long HEARTBEAT_MILLIS = 5000;
+	// A worker that sends nothing for this long is treated as dead
+	private static final int READ_TIMEOUT_MILLIS = (int) (6 * HEARTBEAT_MILLIS);
+	// How often to check for live workers while waiting for one to connect
+	private static final int ACCEPT_CHECK_MILLIS = 1000;
+
+	private static final String OPTION_PREFIX = "--";
+	private static final String SWEEP_OPTION = "--sweep";
+	private static final String RESUME_OPTION = "--resume";
+	private static final String SPAWN_OPTION = "--spawn";
+	private static final String WORKER_HEAP_OPTION = "--worker-heap";
+	private static final String BIND_OPTION = "--bind";
+	private static final String PORT_OPTION = "--port";
+	private static final String WORKER_WAIT_OPTION = "--worker-wait";
+	private static final String DEFAULT_BIND = "127.0.0.1";
+	private static final int DEFAULT_WORKER_WAIT_SECONDS = 60;
+	// Share of host memory given to local workers, leaving the rest to the OS, page cache,
+	// and the workers' own memory outside the heap
+	private static final double WORKER_MEMORY_FRACTION = 0.55;
+	private static final int MIN_WORKER_HEAP_MB = 256;
+	// Largest heap that still uses compressed object pointers
+	private static final int MAX_WORKER_HEAP_MB = 31 * 1024;
+	// Times a condition may be lost to a dying worker before it is given up on
+	public static final int MAX_ATTEMPTS = 3;
+
+	private final String trainPath;
+	private final String testPath;
+	private final ResultsFile results;
+	// How long to wait with no worker running or connected before giving up
+	private final long workerWaitMillis;
+	// Conditions waiting for a worker, most expensive first
+	private final LinkedList<Task> pending;
+	// Conditions pending or running
+	private int nUnfinished;
+	// Worker processes started by the coordinator that are still running
+	private int nRunning;
+	// Workers currently connected
+	private int nConnected;
+	// When a worker was last seen running or connected
+	private long lastWorkerMillis;
+	// Whether the row of a finished condition could not be written
+	private boolean writeFailed;
+	private ServerSocket server;
+
+
+	/**
+	 * A condition to be run by a worker.
+	 */
+	public static class Task {
+		final String name;
+		final String outBase;
+		final Properties props;
+		final double cost;
+		int attempts;
+
+		public Task(String name, String outBase, Properties props) {
+			this.name = name;
+			this.outBase = outBase;
+			this.props = props;
+			cost = Segment.estimateCost(props);
+			attempts = 0;
+		}
+	}
+
+
+	/**
+	 * @param trainPath path of the training file, which workers load themselves
+	 * @param testPath path of the testing file or none
+	 * @param tasks the conditions to run
+	 * @param results file to write the row of each condition to
+	 * @param workerWaitMillis how long to wait with no worker running or connected before
+	 * giving up on the conditions still waiting
+	 */
+	public ExperimentCoordinator(String trainPath, String testPath, List<Task> tasks,
+			ResultsFile results, long workerWaitMillis) {
+		this.trainPath = trainPath;
+		this.testPath = testPath;
+		this.results = results;
+		this.workerWaitMillis = workerWaitMillis;
+		pending = new LinkedList<Task>(tasks);
+		Collections.sort(pending, new Comparator<Task>() {
+			@Override
+			public int compare(Task o1, Task o2) {
+				return Double.compare(o2.cost, o1.cost);
+			}
+		});
+		nUnfinished = pending.size();
+	}
+
+
+	/**
+	 * Hand out conditions to workers connecting to the server until every condition has
+	 * finished or been given up on, then close the server.
+	 * @param server the socket workers connect to
+	 * @throws IOException if the server cannot be set up to wait for workers
+	 */
+	public void serve(ServerSocket server) throws IOException {
+		server.setSoTimeout((int) Math.max(1, Math.min(ACCEPT_CHECK_MILLIS, workerWaitMillis)));
+		synchronized (this) {
+			this.server = server;
+			lastWorkerMillis = System.currentTimeMillis();
+			if (nUnfinished == 0) {
+				closeServer();
+			}
+		}
+
+		List<Thread> handlers = new ArrayList<Thread>();
+		while (!server.isClosed()) {
+			final Socket socket;
+			try {
+				socket = server.accept();
+			}
+			catch (SocketTimeoutException e) {
+				giveUpIfNoWorkers();
+				continue;
+			}
+			catch (IOException e) {
+				// Closed once everything is finished
+				break;
+			}
+			connected();
+			Thread handler = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					handle(socket);
+				}
+			}, "Worker connection " + socket.getRemoteSocketAddress());
+			handler.setDaemon(true);
+			handler.start();
+			handlers.add(handler);
+		}
+
+		// Let every worker know it can exit
+		try {
+			for (Thread handler : handlers) {
+				handler.join();
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+
+	/**
+	 * @return whether any conditions are pending or running
+	 */
+	public synchronized boolean hasUnfinished() {
+		return nUnfinished > 0;
+	}
+
+
+	/**
+	 * Feed conditions to one worker until none are left or the worker dies.
+	 */
+	private void handle(Socket socket) {
+		Task task = null;
+		String worker = socket.getRemoteSocketAddress().toString();
+		try {
+			socket.setKeepAlive(true);
+			socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+			DataInputStream in = new DataInputStream(
+					new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(socket.getOutputStream()));
+			out.writeUTF(PROTOCOL);
+			out.writeUTF(trainPath);
+			out.writeUTF(testPath);
+			out.flush();
+
+			while ((task = take()) != null) {
+				System.out.println("Sent " + task.name + " to " + worker);
+				out.writeInt(MSG_TASK);
+				out.writeUTF(task.name);
+				out.writeUTF(task.outBase);
+				out.writeUTF(propsToString(task.props));
+				out.flush();
+
+				int msg;
+				while ((msg = in.readInt()) == MSG_HEARTBEAT) {
+					// Still running
+				}
+				String body = in.readUTF();
+				if (msg == MSG_RESULT) {
+					writeRow(task, body);
+				}
+				else {
+					// The worker survived, so running it again would fail the same way
+					System.err.println("Failed " + task.name + ": " + body);
+				}
+				finish();
+				task = null;
+			}
+			out.writeInt(MSG_DONE);
+			out.flush();
+		}
+		catch (IOException e) {
+			System.err.println("Lost worker " + worker + ": " + e);
+			if (task != null) {
+				requeue(task);
+			}
+		}
+		finally {
+			try {
+				socket.close();
+			}
+			catch (IOException e) {
+				// Nothing more to do with it
+			}
+			disconnected();
+		}
+	}
+
+
+	/**
+	 * Write the row of a finished condition. The worker did its job even if the row can't be
+	 * written, so the failure is reported here rather than treated as losing the worker.
+	 */
+	private void writeRow(Task task, String row) {
+		try {
+			results.writeRow(row);
+			System.out.println("Finished " + task.name);
+		}
+		catch (IOException e) {
+			System.err.println("Couldn't write results of " + task.name + ": " + e.getMessage());
+			System.err.println(row);
+			synchronized (this) {
+				writeFailed = true;
+			}
+		}
+	}
+
+
+	/**
+	 * @return whether the row of any finished condition could not be written
+	 */
+	public synchronized boolean hasWriteFailures() {
+		return writeFailed;
+	}
+
+
+	/**
+	 * Wait for a condition to run, returning null once all are finished. Workers wait while
+	 * other workers are running conditions, as those may come back if a worker dies.
+	 */
+	private synchronized Task take() {
+		while (pending.isEmpty() && nUnfinished > 0) {
+			try {
+				wait();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return null;
+			}
+		}
+		if (pending.isEmpty()) {
+			return null;
+		}
+		Task task = pending.removeFirst();
+		task.attempts++;
+		return task;
+	}
+
+
+	/**
+	 * Put back a condition whose worker died. It goes first, as it is the most expensive
+	 * waiting, unless it has already been lost too many times.
+	 */
+	private synchronized void requeue(Task task) {
+		if (task.attempts < MAX_ATTEMPTS) {
+			System.err.println("Reassigning " + task.name);
+			pending.addFirst(task);
+			notifyAll();
+		}
+		else {
+			System.err.println("Giving up on " + task.name + " after " + task.attempts +
+					" workers died running it");
+			finish();
+		}
+	}
+
+
+	/**
+	 * Give up on the conditions waiting if no worker has been running or connected for too
+	 * long, as none will come to run them.
+	 */
+	private synchronized void giveUpIfNoWorkers() {
+		long now = System.currentTimeMillis();
+		if (nRunning > 0 || nConnected > 0) {
+			lastWorkerMillis = now;
+			return;
+		}
+		if (now - lastWorkerMillis < workerWaitMillis) {
+			return;
+		}
+		while (!pending.isEmpty()) {
+			System.err.println("Giving up on " + pending.removeFirst().name + " as no workers " +
+					"are left");
+			finish();
+		}
+	}
+
+
+	private synchronized void connected() {
+		nConnected++;
+	}
+
+
+	private synchronized void disconnected() {
+		nConnected--;
+		lastWorkerMillis = System.currentTimeMillis();
+	}
+
+
+	private synchronized void workerStarted() {
+		nRunning++;
+	}
+
+
+	private synchronized void workerStopped() {
+		nRunning--;
+		lastWorkerMillis = System.currentTimeMillis();
+	}
+
+
+	private synchronized void finish() {
+		nUnfinished--;
+		if (nUnfinished == 0) {
+			notifyAll();
+			closeServer();
+		}
+	}
+
+
+	private synchronized void closeServer() {
+		if (server != null) {
+			try {
+				server.close();
+			}
+			catch (IOException e) {
+				// Already closed
+			}
+		}
+	}
+
+
+	/**
+	 * Return the heap to give each local worker so that together they fit in the memory of
+	 * this host alongside the coordinator.
+	 * @param nWorkers the number of workers to be started
+	 * @return the heap in MB, or 0 if the memory of the host is unknown
+	 */
+	@SuppressWarnings("deprecation")
+	static int defaultWorkerHeapMB(int nWorkers) {
+		OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if (nWorkers < 1 || !(os instanceof com.sun.management.OperatingSystemMXBean)) return 0;
+		// getTotalPhysicalMemorySize is deprecated from Java 14 for getTotalMemorySize, which
+		// Java 11 doesn't have. The old name still returns the same value.
+		long totalBytes = ((com.sun.management.OperatingSystemMXBean) os)
+				.getTotalPhysicalMemorySize();
+		return workerHeapMB(totalBytes, Runtime.getRuntime().maxMemory(), nWorkers);
+	}
+
+
+	/**
+	 * Return the heap to give each of nWorkers workers. Together they get
+	 * WORKER_MEMORY_FRACTION of host memory, less the coordinator's own heap, and each gets
+	 * at least MIN_WORKER_HEAP_MB and at most MAX_WORKER_HEAP_MB.
+	 * @param totalBytes the memory of the host
+	 * @param coordinatorBytes the maximum heap of the coordinator
+	 * @param nWorkers the number of workers to be started
+	 * @return the heap in MB
+	 */
+	static int workerHeapMB(long totalBytes, long coordinatorBytes, int nWorkers) {
+		long workerBytes = (long) (totalBytes * WORKER_MEMORY_FRACTION) - coordinatorBytes;
+		long heapMB = workerBytes / nWorkers / (1024 * 1024);
+		return (int) Math.max(MIN_WORKER_HEAP_MB, Math.min(MAX_WORKER_HEAP_MB, heapMB));
+	}
+
+
+	static String propsToString(Properties props) throws IOException {
+		StringWriter writer = new StringWriter();
+		props.store(writer, null);
+		return writer.toString();
+	}
+
+
+	static Properties propsFromString(String text) throws IOException {
+		Properties props = new Properties();
+		props.load(new StringReader(text));
+		return props;
+	}
+
+
+	/**
+	 * Start a worker JVM on this host using the same Java and classpath as this one, starting
+	 * another in its place if it dies while there is still work to do.
+	 * @param host the host the coordinator is listening on
+	 * @param port the port the coordinator is listening on
+	 * @param heapMB the maximum heap of the worker in MB, or 0 for the default
+	 * @param restarts how many more times the worker may be restarted
+	 */
+	private void spawnWorker(final String host, final int port, final int heapMB,
+			final int restarts) throws IOException {
+		List<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator +
+				"java");
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		if (heapMB > 0) {
+			command.add("-Xmx" + heapMB + "m");
+		}
+		command.add(ExperimentWorker.class.getName());
+		command.add(host);
+		command.add(Integer.toString(port));
+		final Process process = new ProcessBuilder(command).inheritIO().start();
+		workerStarted();
+
+		Thread monitor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					int status = process.waitFor();
+					workerStopped();
+					if (status != 0 && hasUnfinished() && restarts > 0) {
+						System.err.println("Worker exited with status " + status +
+								", starting another");
+						spawnWorker(host, port, heapMB, restarts - 1);
+					}
+				}
+				catch (InterruptedException e) {
+					process.destroy();
+				}
+				catch (IOException e) {
+					System.err.println("Couldn't start worker: " + e.getMessage());
+				}
+			}
+		}, "Worker monitor");
+		monitor.setDaemon(true);
+		monitor.start();
+	}
+
+
+	/**
+	 * @param args Command line arguments
+	 */
+	public static void main(String[] args) {
+		String sweepSpec = null;
+		boolean resume = false;
+		int nSpawn = Runtime.getRuntime().availableProcessors();
+		int workerHeapMB = 0;
+		String bind = DEFAULT_BIND;
+		int port = 0;
+		int workerWaitSeconds = DEFAULT_WORKER_WAIT_SECONDS;
+		int argStart = 0;
+		try {
+			while (argStart < args.length && args[argStart].startsWith(OPTION_PREFIX)) {
+				String option = args[argStart];
+				if (option.equals(RESUME_OPTION)) {
+					resume = true;
+					argStart++;
+					continue;
+				}
+				if (argStart + 1 >= args.length) {
+					usage();
+				}
+				String value = args[argStart + 1];
+				if (option.equals(SWEEP_OPTION)) sweepSpec = value;
+				else if (option.equals(SPAWN_OPTION)) nSpawn = Integer.parseInt(value);
+				else if (option.equals(WORKER_HEAP_OPTION)) workerHeapMB = Integer.parseInt(value);
+				else if (option.equals(BIND_OPTION)) bind = value;
+				else if (option.equals(PORT_OPTION)) port = Integer.parseInt(value);
+				else if (option.equals(WORKER_WAIT_OPTION)) {
+					workerWaitSeconds = Integer.parseInt(value);
+				}
+				else usage();
+				argStart += 2;
+			}
+		}
+		catch (NumberFormatException e) {
+			usage();
+		}
+		if (args.length - argStart != 5) {
+			usage();
+		}
+
+		// Extract arguments. Workers load the data, so paths are made absolute for them.
+		String trainPath = new File(args[argStart]).getAbsolutePath();
+		String testPath = args[argStart + 1];
+		if (!Segment.NO_TEST_FILE.equals(testPath.toLowerCase())) {
+			testPath = new File(testPath).getAbsolutePath();
+		}
+		String outBase = new File(args[argStart + 2]).getAbsolutePath();
+		String propsListPath = args[argStart + 3];
+		String outPath = args[argStart + 4];
+
+		List<Sweep.Condition> conditions = sweepSpec == null ?
+				SegExperiment.readPropsList(propsListPath) :
+				SegExperiment.expandSweep(sweepSpec, propsListPath);
+
+		ResultsFile results = null;
+		try {
+			results = new ResultsFile(outPath, SegExperiment.CSV_HEADER, resume);
+		}
+		catch (IOException e) {
+			System.err.println("Couldn't open output file " + outPath + ": " + e.getMessage());
+			System.exit(1);
+		}
+
+		List<Task> tasks = new ArrayList<Task>();
+		for (Sweep.Condition condition : conditions) {
+			if (!results.isFinished(condition.name)) {
+				// As in SegExperiment, sweep conditions each get their own output base
+				String conditionOutBase = sweepSpec == null ? outBase :
+					outBase + "_" + condition.name;
+				tasks.add(new Task(condition.name, conditionOutBase, condition.props));
+			}
+		}
+		System.out.println("Number of experiments to run: " + tasks.size());
+
+		ServerSocket server = null;
+		try {
+			server = new ServerSocket(port, 0, InetAddress.getByName(bind));
+		}
+		catch (IOException e) {
+			System.err.println("Couldn't listen on " + bind + ":" + port + ": " + e.getMessage());
+			System.exit(1);
+		}
+		String host = server.getInetAddress().getHostAddress();
+		System.out.println("Listening for workers on " + host + ":" + server.getLocalPort());
+
+		int nWorkers = Math.min(nSpawn, tasks.size());
+		if (workerHeapMB == 0) {
+			workerHeapMB = defaultWorkerHeapMB(nWorkers);
+		}
+
+		long startTime = System.currentTimeMillis();
+		ExperimentCoordinator coordinator = new ExperimentCoordinator(trainPath, testPath, tasks,
+				results, workerWaitSeconds * 1000L);
+		try {
+			for (int i = 0; i < nWorkers; i++) {
+				coordinator.spawnWorker(host, server.getLocalPort(), workerHeapMB, MAX_ATTEMPTS);
+			}
+		}
+		catch (IOException e) {
+			System.err.println("Couldn't start worker: " + e.getMessage());
+		}
+		try {
+			coordinator.serve(server);
+		}
+		catch (IOException e) {
+			System.err.println("Couldn't wait for workers: " + e.getMessage());
+			System.exit(1);
+		}
+		results.close();
+		if (coordinator.hasWriteFailures()) {
+			System.err.println("Some results could not be written to " + outPath);
+			System.exit(1);
+		}
+
+		long endTime = System.currentTimeMillis() - startTime;
+		System.out.println("Experiments took " + endTime / 1000F + " seconds.");
+	}
+
+
+	private static void usage() {
+		System.err.println("Usage: ExperimentCoordinator [--sweep spec] [--resume] [--spawn N] " +
+				"[--worker-heap MB] [--bind address] [--port port] [--worker-wait seconds] " +
+				"train_file test_file|none output_base propslist|base_props csv_output");
+		System.err.println("Runs the same experiments as SegExperiment on separate worker " +
+				"JVMs. N local workers are started, by default one per core. Unless " +
+				"--worker-heap is given, they share " + (int) (WORKER_MEMORY_FRACTION * 100) +
+				"% of the memory of the host, less the coordinator's heap, as their heaps. " +
+				"Workers on other hosts can be started with:");
+		System.err.println("ExperimentWorker coordinator_host port");
+		System.err.println("For that, bind to an address they can reach and give a fixed port. " +
+				"The coordinator does not authenticate workers, and it sends them the data " +
+				"paths and props, so only bind to an address other than loopback (" +
+				DEFAULT_BIND + ") on a trusted network. " +
+				"All workers must be able to read the data and write the output at the same " +
+				"paths. Conditions still waiting are given up on once no worker has been " +
+				"running or connected for the worker wait, by default " +
+				DEFAULT_WORKER_WAIT_SECONDS + " seconds.");
+		System.exit(64);
+	}
+}
@@ -0,0 +1,312 @@
+/*
+ Copyright (C) 2013 Constantine Lignos
+
+ This file is a part of CATS.
+
+ CATS is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CATS is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CATS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.upenn.ircs.lignos.cats;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import edu.upenn.ircs.lignos.cats.lexicon.Lexicon;
+
+/**
+ * The gold standard data for an experiment, built once and shared read-only by every run on the
+ * same corpus with the same stress settings. Runs only allocate the boundaries they learn.
+ */
+public class ExperimentData {
+	// Data already built, keyed by corpus and stress settings, until cleared
+	private static final Map<Key, ExperimentData> cache = new HashMap<Key, ExperimentData>();
+
+	public final GoldCorpus train;
+	// Null if there is no test data
+	public final GoldCorpus test;
+	public final boolean stressSensitive;
+	public final boolean dropStress;
+	// Gold lexicon of the training data, used to evaluate the learned lexicon
+	public final Lexicon goldTrainLexicon;
+	// Gold lexicon of whichever data is evaluated, used to evaluate word types
+	public final Lexicon goldEvalLexicon;
+
+
+	private ExperimentData(List<Utterance> goldTrainUtterances, List<Utterance> goldTestUtterances,
+			boolean stressSensitive, boolean dropStress) {
+		this.stressSensitive = stressSensitive;
+		this.dropStress = dropStress;
+		train = new GoldCorpus(goldTrainUtterances, dropStress);
+		test = goldTestUtterances != null ? new GoldCorpus(goldTestUtterances, dropStress) : null;
+		goldTrainLexicon = Lexicon.lexiconFromUtterances(train.utterances, stressSensitive);
+		goldEvalLexicon = test != null ?
+				Lexicon.lexiconFromUtterances(test.utterances, stressSensitive) : goldTrainLexicon;
+	}
+
+
+	private ExperimentData(GoldCorpus train, GoldCorpus test, boolean stressSensitive,
+			boolean dropStress) {
+		this.stressSensitive = stressSensitive;
+		this.dropStress = dropStress;
+		this.train = train;
+		this.test = test;
+		goldTrainLexicon = Lexicon.lexiconFromUtterances(train.utterances, stressSensitive);
+		goldEvalLexicon = Lexicon.lexiconFromUtterances(test.utterances, stressSensitive);
+	}
+
+
+	/**
+	 * Return the data for a corpus and stress settings, building it only the first time it is
+	 * requested. Corpora are identified by the lists they were loaded into, so the same lists
+	 * should be passed for every run on a corpus.
+	 * @param goldTrainUtterances the gold training utterances
+	 * @param goldTestUtterances the gold testing utterances, null if there are none
+	 * @param stressSensitive whether lexicons are stress-sensitive
+	 * @param dropStress whether stress is reduced in the input to the segmenter
+	 * @return the shared data
+	 */
+	public static synchronized ExperimentData get(List<Utterance> goldTrainUtterances,
+			List<Utterance> goldTestUtterances, boolean stressSensitive, boolean dropStress) {
+		Key key = new Key(goldTrainUtterances, goldTestUtterances, stressSensitive, dropStress);
+		ExperimentData data = cache.get(key);
+		if (data == null) {
+			data = new ExperimentData(goldTrainUtterances, goldTestUtterances, stressSensitive,
+					dropStress);
+			cache.put(key, data);
+		}
+		return data;
+	}
+
+
+	/**
+	 * Forget all data built by get, so that it can be collected once runs no longer use it.
+	 * Later calls to get build the data again.
+	 */
+	public static synchronized void clear() {
+		cache.clear();
+	}
+
+
+	/**
+	 * Return the data for one fold of cross-validation over the training corpus. The corpus is
+	 * split into nFolds contiguous blocks; the fold tests on block fold and trains on the
+	 * others in their original order. The folds share the gold utterances and segmenter
+	 * stresses of this data, so only the gold lexicons are built for each fold.
+	 * @param fold the index of the fold, from 0 to nFolds - 1
+	 * @param nFolds the number of folds
+	 * @return the data for the fold
+	 */
+	public ExperimentData fold(int fold, int nFolds) {
+		if (test != null) {
+			throw new IllegalStateException("Cross-validation data cannot have test data");
+		}
+		if (nFolds < 2 || nFolds > train.size()) {
+			throw new IllegalArgumentException("Cannot make " + nFolds + " folds of " +
+					train.size() + " utterances");
+		}
+		if (fold < 0 || fold >= nFolds) {
+			throw new IllegalArgumentException("No fold " + fold + " of " + nFolds);
+		}
+
+		int from = (int) ((long) train.size() * fold / nFolds);
+		int to = (int) ((long) train.size() * (fold + 1) / nFolds);
+		return new ExperimentData(new GoldCorpus(train, from, to, false),
+				new GoldCorpus(train, from, to, true), stressSensitive, dropStress);
+	}
+
+
+	/**
+	 * @return whether there is separate test data
+	 */
+	public boolean hasTestData() {
+		return test != null;
+	}
+
+
+	/**
+	 * @return the gold data that is evaluated, the test data if there is any
+	 */
+	public GoldCorpus evalCorpus() {
+		return test != null ? test : train;
+	}
+
+
+	/**
+	 * Gold utterances and the units and stresses that are given to the segmenter.
+	 */
+	public static class GoldCorpus {
+		public final List<Utterance> utterances;
+		private final Boolean[][] segStresses;
+		private final long nUnits;
+		private final long nSubSeqs;
+
+		private GoldCorpus(List<Utterance> goldUtterances, boolean dropStress) {
+			utterances = Collections.unmodifiableList(new ArrayList<Utterance>(goldUtterances));
+			int size = utterances.size();
+			segStresses = new Boolean[size][];
+
+			long units = 0;
+			long subSeqs = 0;
+			for (int i = 0; i < size; i++) {
+				Utterance utt = utterances.get(i);
+				units += utt.length;
+				subSeqs += utt.length * (long) (utt.length + 1) / 2;
+				Boolean[] stresses = utt.getStresses();
+				if (dropStress) {
+					stresses = Arrays.copyOf(stresses, stresses.length);
+					Utterance.reduceStresses(stresses);
+				}
+				segStresses[i] = stresses;
+			}
+			nUnits = units;
+			nSubSeqs = subSeqs;
+		}
+
+		/**
+		 * Create a corpus from the utterances of another that are either in or outside of the
+		 * range [from, to), sharing its utterances and segmenter stresses.
+		 */
+		private GoldCorpus(GoldCorpus whole, int from, int to, boolean inside) {
+			int size = inside ? to - from : whole.size() - (to - from);
+			List<Utterance> selected = new ArrayList<Utterance>(size);
+			segStresses = new Boolean[size][];
+
+			long units = 0;
+			long subSeqs = 0;
+			for (int i = 0, j = 0; i < whole.size(); i++) {
+				if ((i >= from && i < to) != inside) continue;
+				Utterance utt = whole.utterances.get(i);
+				selected.add(utt);
+				units += utt.length;
+				subSeqs += utt.length * (long) (utt.length + 1) / 2;
+				segStresses[j] = whole.segStresses[i];
+				j++;
+			}
+			utterances = Collections.unmodifiableList(selected);
+			nUnits = units;
+			nSubSeqs = subSeqs;
+		}
+
+		/**
+		 * @return the number of utterances
+		 */
+		public int size() {
+			return utterances.size();
+		}
+
+		/**
+		 * @return the total number of units in all utterances
+		 */
+		public long nUnits() {
+			return nUnits;
+		}
+
+		/**
+		 * @return the total number of contiguous subsequences of units in all utterances,
+		 * counting repeats
+		 */
+		public long nSubSeqs() {
+			return nSubSeqs;
+		}
+
+		/**
+		 * Create unsegmented views of the utterances to give to a segmenter. The views share
+		 * units and stresses with the gold data and only allocate boundaries once they are
+		 * segmented.
+		 * @return a List of Utterances to be used as input to a segmenter
+		 */
+		public List<Utterance> segUtterances() {
+			List<Utterance> segUtterances = new ArrayList<Utterance>(utterances.size());
+			for (int i = 0; i < utterances.size(); i++) {
+				segUtterances.add(new Utterance(utterances.get(i), segStresses[i]));
+			}
+			return segUtterances;
+		}
+
+		/**
+		 * Create the same views as segUtterances, each one only when it is reached, so that a
+		 * segmenter that does not keep them can let each go once it is segmented.
+		 * @return the unsegmented views of the utterances, in order
+		 */
+		public Iterable<Utterance> segUtteranceViews() {
+			return new Iterable<Utterance>() {
+				@Override
+				public Iterator<Utterance> iterator() {
+					return new Iterator<Utterance>() {
+						private int next = 0;
+
+						@Override
+						public boolean hasNext() {
+							return next < utterances.size();
+						}
+
+						@Override
+						public Utterance next() {
+							if (!hasNext()) throw new NoSuchElementException();
+							Utterance view = new Utterance(utterances.get(next), segStresses[next]);
+							next++;
+							return view;
+						}
+
+						@Override
+						public void remove() {
+							throw new UnsupportedOperationException();
+						}
+					};
+				}
+			};
+		}
+	}
+
+
+	/**
+	 * Cache key comparing corpora by identity.
+	 */
+	private static class Key {
+		private final List<Utterance> train;
+		private final List<Utterance> test;
+		private final boolean stressSensitive;
+		private final boolean dropStress;
+
+		Key(List<Utterance> train, List<Utterance> test, boolean stressSensitive,
+				boolean dropStress) {
+			this.train = train;
+			this.test = test;
+			this.stressSensitive = stressSensitive;
+			this.dropStress = dropStress;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) return false;
+			Key other = (Key) obj;
+			return train == other.train && test == other.test &&
+					stressSensitive == other.stressSensitive && dropStress == other.dropStress;
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = System.identityHashCode(train);
+			hash = 31 * hash + System.identityHashCode(test);
+			hash = 31 * hash + (stressSensitive ? 1 : 0);
+			return 31 * hash + (dropStress ? 1 : 0);
+		}
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ Copyright (C) 2013 Constantine Lignos
+
+ This file is a part of CATS.
+
+ CATS is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CATS is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CATS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.upenn.ircs.lignos.cats;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Runs experiments on a fixed number of workers while keeping the sum of their estimated heap
+ * use within a budget. Experiments are started most expensive first. When the next one does not
+ * fit in the heap that is left, a worker starts the most expensive one that does, so cores are
+ * filled with lighter experiments instead of sitting idle. An experiment too large for the whole
+ * budget is only started once nothing else is running.
+ */
+public class ExperimentScheduler {
+	private final int nWorkers;
+	private final long heapBudget;
+	private final List<Job> pending;
+	private long heapInUse;
+	private int nRunning;
+
+
+	/**
+	 * @param nWorkers the most experiments to run at once
+	 * @param heapBudget the most estimated heap, in bytes, that running experiments may use
+	 */
+	public ExperimentScheduler(int nWorkers, long heapBudget) {
+		this.nWorkers = nWorkers;
+		this.heapBudget = heapBudget;
+		pending = new ArrayList<Job>();
+		heapInUse = 0;
+		nRunning = 0;
+	}
+
+
+	private static class Job {
+		final Runnable task;
+		final double cost;
+		final long heap;
+
+		Job(Runnable task, double cost, long heap) {
+			this.task = task;
+			this.cost = cost;
+			this.heap = heap;
+		}
+	}
+
+
+	/**
+	 * Add an experiment to be run. Experiments with the same cost start in the order added.
+	 * @param task the experiment
+	 * @param cost its estimated relative cost
+	 * @param heap its estimated peak heap in bytes
+	 */
+	public synchronized void add(Runnable task, double cost, long heap) {
+		pending.add(new Job(task, cost, heap));
+	}
+
+
+	/**
+	 * Run all experiments added, returning when they have all finished.
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void run() throws InterruptedException {
+		synchronized (this) {
+			Collections.sort(pending, new Comparator<Job>() {
+				@Override
+				public int compare(Job o1, Job o2) {
+					return Double.compare(o2.cost, o1.cost);
+				}
+			});
+		}
+
+		List<Thread> workers = new ArrayList<Thread>(nWorkers);
+		for (int i = 0; i < nWorkers; i++) {
+			Thread worker = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					work();
+				}
+			}, "Experiment worker " + i);
+			workers.add(worker);
+			worker.start();
+		}
+		try {
+			for (Thread worker : workers) {
+				worker.join();
+			}
+		}
+		catch (InterruptedException e) {
+			for (Thread worker : workers) {
+				worker.interrupt();
+			}
+			throw e;
+		}
+	}
+
+
+	private void work() {
+		Job job;
+		try {
+			while ((job = next()) != null) {
+				try {
+					job.task.run();
+				}
+				finally {
+					finish(job);
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			// Stop taking experiments
+		}
+	}
+
+
+	/**
+	 * Wait for an experiment that fits in the remaining heap and take it, returning null when
+	 * there are none left.
+	 */
+	private synchronized Job next() throws InterruptedException {
+		while (!pending.isEmpty()) {
+			for (Iterator<Job> iter = pending.iterator(); iter.hasNext();) {
+				Job job = iter.next();
+				if (nRunning == 0 || heapInUse + job.heap <= heapBudget) {
+					iter.remove();
+					heapInUse += job.heap;
+					nRunning++;
+					return job;
+				}
+			}
+			wait();
+		}
+		return null;
+	}
+
+
+	private synchronized void finish(Job job) {
+		heapInUse -= job.heap;
+		nRunning--;
+		notifyAll();
+	}
+}
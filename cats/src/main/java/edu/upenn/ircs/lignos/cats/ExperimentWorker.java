@@ -0,0 +1,167 @@
+/*
+ Copyright (C) 2013 Constantine Lignos
+
+ This file is a part of CATS.
+
+ CATS is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CATS is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CATS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.upenn.ircs.lignos.cats;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Runs conditions handed out by an ExperimentCoordinator one at a time, sending back a row of
+ * results for each. The corpus is loaded once when the worker connects. A heartbeat is sent
+ * while the worker is busy so the coordinator can tell it is still alive.
+ */
+public class ExperimentWorker {
+
+	/**
+	 * Connect to a coordinator and run conditions until it has no more.
+	 * @param host the host of the coordinator
+	 * @param port the port of the coordinator
+	 * @throws IOException if the connection fails or the data cannot be loaded
+	 */
+	public static void work(String host, int port) throws IOException {
+		Socket socket = new Socket(host, port);
+		Thread heartbeat = null;
+		try {
+			DataInputStream in = new DataInputStream(
+					new BufferedInputStream(socket.getInputStream()));
+			final DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(socket.getOutputStream()));
+			heartbeat = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					sendHeartbeats(out);
+				}
+			}, "Worker heartbeat");
+			heartbeat.setDaemon(true);
+			heartbeat.start();
+			if (!ExperimentCoordinator.PROTOCOL.equals(in.readUTF())) {
+				throw new IOException("Coordinator speaks a different protocol");
+			}
+			String trainPath = in.readUTF();
+			String testPath = in.readUTF();
+
+			// Read in the input
+			List<Utterance> goldTrainUtterances = Utterance.loadUtterances(trainPath);
+			if (goldTrainUtterances == null) {
+				throw new IOException("Could not read training file " + trainPath);
+			}
+			List<Utterance> goldTestUtterances = null;
+			if (!Segment.NO_TEST_FILE.equals(testPath.toLowerCase())) {
+				goldTestUtterances = Utterance.loadUtterances(testPath);
+				if (goldTestUtterances == null) {
+					throw new IOException("Could not read testing file " + testPath);
+				}
+			}
+
+			while (in.readInt() == ExperimentCoordinator.MSG_TASK) {
+				String name = in.readUTF();
+				String outBase = in.readUTF();
+				Properties props = ExperimentCoordinator.propsFromString(in.readUTF());
+
+				System.out.println("Started " + name);
+				String reply;
+				int msg;
+				try {
+					ExperimentData data = ExperimentData.get(goldTrainUtterances,
+							goldTestUtterances,
+							Boolean.parseBoolean(props.getProperty(Segment.STRESS_SENSITIVE_PROP)),
+							Boolean.parseBoolean(props.getProperty(Segment.DROP_STRESS_PROP)));
+					PhaseTimer phases = new PhaseTimer();
+					reply = SegExperiment.formatRow(name,
+							Segment.runSegmenter(data, props, outBase, false, phases), phases);
+					msg = ExperimentCoordinator.MSG_RESULT;
+				}
+				catch (Exception e) {
+					e.printStackTrace();
+					reply = e.toString();
+					msg = ExperimentCoordinator.MSG_FAILED;
+				}
+				catch (OutOfMemoryError e) {
+					// The condition's structures are unreachable now, so the worker can carry on
+					reply = "out of memory";
+					msg = ExperimentCoordinator.MSG_FAILED;
+				}
+				synchronized (out) {
+					out.writeInt(msg);
+					out.writeUTF(reply);
+					out.flush();
+				}
+			}
+		}
+		finally {
+			if (heartbeat != null) {
+				heartbeat.interrupt();
+			}
+			socket.close();
+			ExperimentData.clear();
+		}
+	}
+
+
+	/**
+	 * Send a heartbeat to the coordinator regularly until interrupted or the connection fails.
+	 */
+	private static void sendHeartbeats(DataOutputStream out) {
+		try {
+			while (true) {
+				Thread.sleep(ExperimentCoordinator.HEARTBEAT_MILLIS);
+				synchronized (out) {
+					out.writeInt(ExperimentCoordinator.MSG_HEARTBEAT);
+					out.flush();
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			// Finished
+		}
+		catch (IOException e) {
+			// The main thread will find out when it next uses the connection
+		}
+	}
+
+
+	/**
+	 * @param args Command line arguments
+	 */
+	public static void main(String[] args) {
+		if (args.length != 2) {
+			System.err.println("Usage: ExperimentWorker coordinator_host port");
+			System.exit(64);
+		}
+
+		try {
+			work(args[0], Integer.parseInt(args[1]));
+		}
+		catch (NumberFormatException e) {
+			System.err.println("Bad port: " + args[1]);
+			System.exit(64);
+		}
+		catch (IOException e) {
+			System.err.println("Worker failed: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+}
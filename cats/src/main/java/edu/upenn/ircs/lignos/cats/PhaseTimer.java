@@ -0,0 +1,328 @@
+/*
+ Copyright (C) 2013 Constantine Lignos
+
+ This file is a part of CATS.
+
+ CATS is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CATS is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CATS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.upenn.ircs.lignos.cats;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Times the consecutive phases of a run, such as loading, training, and evaluation. Starting
+ * a phase ends the one before it. Along with wall-clock time, the number and duration of
+ * garbage collections during each phase are recorded. Collections are counted for the whole
+ * JVM, so they include work done by other threads in the same period. CPU time and bytes
+ * allocated are counted for the thread that starts and stops the phases, where the JVM
+ * supports it, or for phases whose work is done by other threads, added up by that work as a
+ * PoolWork. A phase can be split into parts named like eval_lexicon, which can be added up
+ * with getGroup.
+ */
+public class PhaseTimer {
+	// Phase names used by Segment
+	public static final String LOAD = "load";
+	public static final String TRAIN = "train";
+	public static final String TEST = "test";
+	public static final String EVAL = "eval";
+	public static final String EVAL_BOOTSTRAP = EVAL + "_bootstrap";
+	public static final String EVAL_LEXICON = EVAL + "_lexicon";
+	public static final String WRITE = "write";
+
+	// Reported in place of CPU time or allocation when the JVM can't measure it
+	public static final long UNKNOWN = -1;
+
+	private final List<Phase> phases;
+	private String current;
+	// What the other threads doing the work of the current phase used, null if it is done by
+	// the timing thread
+	private PoolWork currentWork;
+	private long startNanos;
+	private long startGcCount;
+	private long startGcMillis;
+	private long startCpuNanos;
+	private long startAllocated;
+
+
+	public PhaseTimer() {
+		phases = new ArrayList<Phase>();
+		current = null;
+	}
+
+
+	/**
+	 * The measurements of a finished phase.
+	 */
+	public static class Phase {
+		public final String name;
+		public final long wallNanos;
+		public final long gcCount;
+		public final long gcMillis;
+		// CPU time and bytes allocated by the timing thread, UNKNOWN if not measured
+		public final long cpuNanos;
+		public final long allocatedBytes;
+
+		Phase(String name, long wallNanos, long gcCount, long gcMillis, long cpuNanos,
+				long allocatedBytes) {
+			this.name = name;
+			this.wallNanos = wallNanos;
+			this.gcCount = gcCount;
+			this.gcMillis = gcMillis;
+			this.cpuNanos = cpuNanos;
+			this.allocatedBytes = allocatedBytes;
+		}
+
+		private Phase plus(String name, Phase other) {
+			return new Phase(name, wallNanos + other.wallNanos, gcCount + other.gcCount,
+					gcMillis + other.gcMillis, plusKnown(cpuNanos, other.cpuNanos),
+					plusKnown(allocatedBytes, other.allocatedBytes));
+		}
+
+		private static long plusKnown(long a, long b) {
+			return a == UNKNOWN || b == UNKNOWN ? UNKNOWN : a + b;
+		}
+
+		@Override
+		public String toString() {
+			String cpu = cpuNanos == UNKNOWN ? "" :
+				String.format(" (%.3f CPU)", cpuNanos / 1e9);
+			String allocated = allocatedBytes == UNKNOWN ? "" :
+				String.format(", allocating %.1f MB", allocatedBytes / 1048576.0);
+			return String.format("%s took %.3f seconds%s with %d GCs taking %.3f seconds%s.",
+					name, wallNanos / 1e9, cpu, gcCount, gcMillis / 1e3, allocated);
+		}
+	}
+
+
+	/**
+	 * Start a phase, ending the current one if there is one.
+	 * @param name the name of the phase
+	 */
+	public void start(String name) {
+		stop();
+		current = name;
+		currentWork = null;
+		long[] gc = gcTotals();
+		startGcCount = gc[0];
+		startGcMillis = gc[1];
+		startAllocated = allocatedBytes();
+		startCpuNanos = cpuNanos();
+		startNanos = System.nanoTime();
+	}
+
+
+	/**
+	 * Start a phase whose work is done by other threads, such as the evaluation pool, ending
+	 * the current one if there is one. The timing thread only waits and the pool may be shared
+	 * with other runs, so the CPU time and allocation of the phase are whatever the work adds
+	 * to the given PoolWork while the phase runs.
+	 * @param name the name of the phase
+	 * @param work the totals the work of the phase adds to
+	 */
+	public void startOffThread(String name, PoolWork work) {
+		start(name);
+		work.reset();
+		currentWork = work;
+	}
+
+
+	/**
+	 * End the current phase, if there is one.
+	 */
+	public void stop() {
+		if (current == null) return;
+		long wallNanos = System.nanoTime() - startNanos;
+		long cpu = cpuNanos();
+		long[] gc = gcTotals();
+		long allocated = allocatedBytes();
+		if (currentWork != null) {
+			phases.add(new Phase(current, wallNanos, gc[0] - startGcCount,
+					gc[1] - startGcMillis, currentWork.cpuNanos(), currentWork.allocatedBytes()));
+		} else {
+			phases.add(new Phase(current, wallNanos, gc[0] - startGcCount,
+					gc[1] - startGcMillis, cpu == UNKNOWN ? UNKNOWN : cpu - startCpuNanos,
+					allocated == UNKNOWN ? UNKNOWN : allocated - startAllocated));
+		}
+		current = null;
+		currentWork = null;
+	}
+
+
+	/**
+	 * CPU time and bytes allocated by the threads doing the work of an off-thread phase. Each
+	 * piece of work measures the thread it runs on from start to end and adds what it used, so
+	 * only pieces that run from start to end on one thread, without running other pieces while
+	 * they wait, should be measured.
+	 */
+	public static final class PoolWork {
+		private final LongAdder cpuNanos = new LongAdder();
+		private final LongAdder allocatedBytes = new LongAdder();
+		// Set once any piece of work couldn't be measured
+		private volatile boolean cpuUnknown;
+		private volatile boolean allocatedUnknown;
+
+		/**
+		 * Start measuring a piece of work on the current thread.
+		 * @return the measurements to pass to end
+		 */
+		public long[] begin() {
+			return new long[] {PhaseTimer.cpuNanos(), PhaseTimer.allocatedBytes()};
+		}
+
+		/**
+		 * Finish measuring a piece of work on the thread that began it, adding what it used.
+		 * @param start the measurements returned by begin
+		 */
+		public void end(long[] start) {
+			long cpu = PhaseTimer.cpuNanos();
+			long allocated = PhaseTimer.allocatedBytes();
+			if (cpu == UNKNOWN || start[0] == UNKNOWN) {
+				cpuUnknown = true;
+			} else {
+				cpuNanos.add(cpu - start[0]);
+			}
+			if (allocated == UNKNOWN || start[1] == UNKNOWN) {
+				allocatedUnknown = true;
+			} else {
+				allocatedBytes.add(allocated - start[1]);
+			}
+		}
+
+		/**
+		 * @return the CPU time added so far, or UNKNOWN if any piece couldn't be measured
+		 */
+		public long cpuNanos() {
+			return cpuUnknown ? UNKNOWN : cpuNanos.sum();
+		}
+
+		/**
+		 * @return the bytes allocated so far, or UNKNOWN if any piece couldn't be measured
+		 */
+		public long allocatedBytes() {
+			return allocatedUnknown ? UNKNOWN : allocatedBytes.sum();
+		}
+
+		private void reset() {
+			cpuNanos.reset();
+			allocatedBytes.reset();
+			cpuUnknown = false;
+			allocatedUnknown = false;
+		}
+	}
+
+
+	/**
+	 * @return the finished phases in the order they were run
+	 */
+	public List<Phase> getPhases() {
+		return Collections.unmodifiableList(phases);
+	}
+
+
+	/**
+	 * Return the measurements of a phase, adding them up if it was run more than once.
+	 * @param name the name of the phase
+	 * @return the measurements, or null if the phase was not run
+	 */
+	public Phase get(String name) {
+		Phase total = null;
+		for (Phase phase : phases) {
+			if (!phase.name.equals(name)) continue;
+			total = total == null ? phase : total.plus(name, phase);
+		}
+		return total;
+	}
+
+
+	/**
+	 * Return the measurements of a phase and its parts, such as eval and eval_lexicon, added
+	 * up under the name of the phase.
+	 * @param name the name of the phase
+	 * @return the measurements, or null if neither the phase nor any part of it was run
+	 */
+	public Phase getGroup(String name) {
+		Phase total = null;
+		for (Phase phase : phases) {
+			if (!phase.name.equals(name) && !phase.name.startsWith(name + "_")) continue;
+			total = total == null ? new Phase(name, 0, 0, 0, 0, 0).plus(name, phase) :
+				total.plus(name, phase);
+		}
+		return total;
+	}
+
+
+	/**
+	 * @return the measurements of all finished phases added up
+	 */
+	public Phase total() {
+		Phase total = new Phase("total", 0, 0, 0, 0, 0);
+		for (Phase phase : phases) {
+			total = total.plus("total", phase);
+		}
+		return total;
+	}
+
+
+	/**
+	 * @return the number of collections and milliseconds spent collecting so far, over all
+	 * collectors
+	 */
+	private static long[] gcTotals() {
+		long count = 0;
+		long millis = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			// Collectors report -1 if they don't keep a count
+			count += Math.max(0, gc.getCollectionCount());
+			millis += Math.max(0, gc.getCollectionTime());
+		}
+		return new long[] {count, millis};
+	}
+
+
+	/**
+	 * @return the CPU time used so far by the current thread, or UNKNOWN if the JVM can't
+	 * measure it
+	 */
+	private static long cpuNanos() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (!threads.isCurrentThreadCpuTimeSupported() || !threads.isThreadCpuTimeEnabled()) {
+			return UNKNOWN;
+		}
+		return threads.getCurrentThreadCpuTime();
+	}
+
+
+	/**
+	 * @return the bytes allocated so far by the current thread, or UNKNOWN if the JVM can't
+	 * measure it
+	 */
+	private static long allocatedBytes() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		// The measurement is an extension found in HotSpot and OpenJ9
+		if (!(threads instanceof com.sun.management.ThreadMXBean)) return UNKNOWN;
+		com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean) threads;
+		if (!allocation.isThreadAllocatedMemorySupported() ||
+				!allocation.isThreadAllocatedMemoryEnabled()) {
+			return UNKNOWN;
+		}
+		return allocation.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}
@@ -0,0 +1,197 @@
+/*
+ Copyright (C) 2013 Constantine Lignos
+
+ This file is a part of CATS.
+
+ CATS is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CATS is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CATS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.upenn.ircs.lignos.cats;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A CSV file of experiment results that is written one row at a time as each condition
+ * finishes, so that results survive if the run is killed. The first field of each row names its
+ * condition. When resuming, the rows already in the file are kept and their conditions are
+ * reported as finished so they need not be run again.
+ */
+public class ResultsFile {
+	private static final String DELIM = ",";
+
+	private final String header;
+	private final int nFields;
+	private final Set<String> finished;
+	private final PrintStream out;
+
+
+	/**
+	 * Open a results file, writing the header first if it is new.
+	 * @param path the path of the file
+	 * @param header the header row
+	 * @param resume whether to keep the rows of an existing file instead of replacing it
+	 * @throws IOException if the file cannot be read or written, or an existing file has a
+	 * different header
+	 */
+	public ResultsFile(String path, String header, boolean resume) throws IOException {
+		this.header = header;
+		nFields = countFields(header);
+		finished = new HashSet<String>();
+
+		File file = new File(path);
+		if (resume && file.exists()) {
+			keepFinishedRows(file);
+			out = new PrintStream(new FileOutputStream(file, true));
+		}
+		else {
+			out = new PrintStream(file);
+			out.println(header);
+			out.flush();
+		}
+	}
+
+
+	/**
+	 * @return whether a row for the condition was in the file when it was opened
+	 */
+	public boolean isFinished(String name) {
+		return finished.contains(name);
+	}
+
+
+	/**
+	 * @return the number of conditions that had rows when the file was opened
+	 */
+	public int nFinished() {
+		return finished.size();
+	}
+
+
+	/**
+	 * Write a row and flush it to the file. This is safe to call from several threads.
+	 * @param row the row to write
+	 * @throws IOException if the row could not be written
+	 */
+	public synchronized void writeRow(String row) throws IOException {
+		out.println(row);
+		out.flush();
+		if (out.checkError()) {
+			throw new IOException("Could not write results row.");
+		}
+	}
+
+
+	/**
+	 * Write several rows with a single write and flush them to the file, so that a failed
+	 * write doesn't leave some of them on disk without the others. This is safe to call from
+	 * several threads.
+	 * @param rows the rows to write
+	 * @throws IOException if the rows could not be written
+	 */
+	public synchronized void writeRows(String... rows) throws IOException {
+		StringBuilder text = new StringBuilder();
+		for (String row : rows) {
+			text.append(row).append(System.lineSeparator());
+		}
+		out.print(text);
+		out.flush();
+		if (out.checkError()) {
+			throw new IOException("Could not write results rows.");
+		}
+	}
+
+
+	public synchronized void close() {
+		out.close();
+	}
+
+
+	/**
+	 * Read the rows of an existing file, keeping only complete ones. A run killed while writing
+	 * can leave a partial last row. The complete rows are written to a new file, which then
+	 * replaces the old one.
+	 */
+	private void keepFinishedRows(File file) throws IOException {
+		List<String> rows = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			String line = reader.readLine();
+			if (line != null && !line.equals(header)) {
+				throw new IOException("Cannot resume " + file + " because its header does not " +
+						"match: " + line);
+			}
+			boolean lastKept = false;
+			while ((line = reader.readLine()) != null) {
+				lastKept = countFields(line) == nFields;
+				if (lastKept) {
+					rows.add(line);
+				}
+			}
+			// A last row without a line ending may have been cut off in its final field
+			if (lastKept && !endsWithNewline(file)) {
+				rows.remove(rows.size() - 1);
+			}
+		}
+		finally {
+			reader.close();
+		}
+		for (String row : rows) {
+			finished.add(row.substring(0, row.indexOf(DELIM)));
+		}
+
+		File temp = new File(file.getPath() + ".tmp");
+		PrintStream tempOut = new PrintStream(temp);
+		tempOut.println(header);
+		for (String row : rows) {
+			tempOut.println(row);
+		}
+		tempOut.close();
+		if (tempOut.checkError()) {
+			throw new IOException("Could not write " + temp);
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+
+	private static boolean endsWithNewline(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			if (raf.length() == 0) {
+				return true;
+			}
+			raf.seek(raf.length() - 1);
+			return raf.read() == '\n';
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+
+	private static int countFields(String row) {
+		return row.split(DELIM, -1).length;
+	}
+}
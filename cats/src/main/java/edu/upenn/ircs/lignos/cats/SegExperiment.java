@@ -2,51 +2,73 @@ package edu.upenn.ircs.lignos.cats;
 
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.PrintStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Properties;
 import java.util.Scanner;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 
-import edu.upenn.ircs.lignos.cats.lexicon.Lexicon;
 import edu.upenn.ircs.lignos.cats.metrics.Result;
 
 public class SegExperiment implements Runnable  {
+	private static final String OPTION_PREFIX = "--";
+	private static final String SWEEP_OPTION = "--sweep";
+	private static final String RESUME_OPTION = "--resume";
+	private static final String HEAP_BUDGET_OPTION = "--heap-budget";
+	private static final String REPLICATES_OPTION = "--replicates";
+	// Suffix of the row holding the standard deviations of a replicated condition
+	public static final String STDDEV_SUFFIX = "_sd";
+	// Fraction of the free heap given to experiments, leaving room for estimates that are low
+	private static final double HEAP_BUDGET_FRACTION = 0.9;
+	// Phases of a run reported in each row, each as wall seconds, CPU seconds, MB allocated,
+	// and GCs
+	private static final String[] CSV_PHASES =
+			{PhaseTimer.TRAIN, PhaseTimer.TEST, PhaseTimer.EVAL, PhaseTimer.WRITE};
+	public static final String CSV_HEADER =
+			"Condition,BP,BR,BF,BH,BFA,BAP,BBDP,ToP,ToR,ToF,TyP,TyR,TyF,LP,LR,LF," +
+			"BFLo,BFHi,ToFLo,ToFHi," +
+			"TrainSec,TrainCPUSec,TrainAllocMB,TrainGCs,TestSec,TestCPUSec,TestAllocMB,TestGCs," +
+			"EvalSec,EvalCPUSec,EvalAllocMB,EvalGCs,WriteSec,WriteCPUSec,WriteAllocMB,WriteGCs";
 
 	private final SegmenterParams params;
-	private final String[] results;
-	private final int resultsIndex;
+	private final ResultsFile results;
+	// The replicates this experiment is one of, null if it is not replicated
+	private final Replicates replicates;
+	private final int replicate;
 
 	/**
-	 * @param args arguments to be given to callSegmenter
-	 * @param results array to store results in
-	 * @param resultsIndex index in results to use to store results
+	 * @param params the experiment to run
+	 * @param results file to write the row of results to when finished
 	 */
-	SegExperiment(SegmenterParams params, String[] results, int resultsIndex) {
+	SegExperiment(SegmenterParams params, ResultsFile results) {
+		this(params, results, null, 0);
+	}
+
+	/**
+	 * @param params the experiment to run
+	 * @param results file to write the rows of results to when all replicates are finished
+	 * @param replicates the replicates of the condition, null if it is not replicated
+	 * @param replicate the index of this experiment among the replicates
+	 */
+	SegExperiment(SegmenterParams params, ResultsFile results, Replicates replicates,
+			int replicate) {
 		this.params = params;
 		this.results = results;
-		this.resultsIndex = resultsIndex;
+		this.replicates = replicates;
+		this.replicate = replicate;
 	}
 
 	public static class SegmenterParams {
-		public final List<Utterance> goldTrainUtterances;
-		public final Lexicon goldTrainLexicon;
-		public final List<Utterance> goldTestUtterances;
-		public final Lexicon goldTestLexicon;
+		public final ExperimentData data;
 		public final Properties props;
 		public final String outPath;
 		public final String name;
 
-		public SegmenterParams(List<Utterance> goldUtterances, Lexicon goldLexicon,
-				List<Utterance> goldTestUtterances,	Lexicon goldTestLexicon,
-				Properties props, String outPath, String name) {
-			this.goldTrainUtterances = goldUtterances;
-			this.goldTrainLexicon = goldLexicon;
-			this.goldTestUtterances = goldTestUtterances;
-			this.goldTestLexicon = goldTestLexicon;
+		public SegmenterParams(ExperimentData data, Properties props, String outPath,
+				String name) {
+			this.data = data;
 			this.props = props;
 			this.outPath = outPath;
 			this.name = name;
@@ -55,16 +77,107 @@ public class SegExperiment implements Runnable  {
 
 	public void run() {
 		System.out.println("Started " + params.name);
-		Result[] segResults = Segment.runSegmenter(params.goldTrainUtterances,
-				params.goldTrainLexicon, params.goldTestUtterances, params.goldTestLexicon,
-				params.props, params.outPath, false);
+		PhaseTimer phases = new PhaseTimer();
+		Result[] segResults = null;
+		try {
+			segResults = Segment.runSegmenter(params.data, params.props, params.outPath, false,
+					phases);
+		}
+		catch (Exception e) {
+			// Report the failure here, as nothing waits on the result of the experiment
+			System.err.println("Failed " + params.name + ":");
+			e.printStackTrace();
+		}
+		catch (OutOfMemoryError e) {
+			// The experiment's structures are unreachable now, so others can carry on
+			System.err.println("Failed " + params.name + ": out of memory");
+		}
+
+		// The experiment is finished either way, so a write error is not a failure of it
+		try {
+			if (replicates != null) {
+				replicates.finish(replicate, segResults, results);
+			}
+			else if (segResults != null) {
+				results.writeRow(formatRow(params.name, segResults, phases));
+			}
+		}
+		catch (IOException e) {
+			System.err.println("Couldn't write results of " + params.name + ": " +
+					e.getMessage());
+			return;
+		}
+		if (segResults != null) {
+			System.out.println("Finished " + params.name);
+		}
+	}
+
+	/**
+	 * Independently seeded runs of one condition. When the last one finishes, the mean of
+	 * their results is written as the row of the condition, followed by their standard
+	 * deviations in a row with STDDEV_SUFFIX added to the name. If any failed, no rows are
+	 * written so that the condition is run again when resuming.
+	 */
+	static class Replicates {
+		final String name;
+		private final Result[][] runs;
+		private int nLeft;
+		private boolean failed;
+
+		Replicates(String name, int nReplicates) {
+			this.name = name;
+			runs = new Result[nReplicates][];
+			nLeft = nReplicates;
+			failed = false;
+		}
+
+		/**
+		 * Record the results of a replicate, null if it failed.
+		 */
+		synchronized void finish(int replicate, Result[] segResults, ResultsFile out)
+				throws IOException {
+			runs[replicate] = segResults;
+			failed |= segResults == null;
+			if (--nLeft > 0) return;
+
+			if (failed) {
+				System.err.println("Failed " + name + ": not all replicates finished");
+				return;
+			}
+			Result[][] summary = Segment.summarize(Arrays.asList(runs));
+			// Written together, so that resuming never finds the mean without its deviations
+			out.writeRows(formatRow(name, summary[0]),
+					formatRow(name + STDDEV_SUFFIX, summary[1]));
+		}
+	}
+
+	/**
+	 * Format the results of an experiment as a CSV row matching CSV_HEADER, leaving the
+	 * fields for the phases of the run empty.
+	 * @param name the name of the condition
+	 * @param segResults the results returned by Segment.runSegmenter
+	 * @return the row
+	 */
+	public static String formatRow(String name, Result[] segResults) {
+		return formatRow(name, segResults, null);
+	}
+
+	/**
+	 * Format the results of an experiment as a CSV row matching CSV_HEADER.
+	 * @param name the name of the condition
+	 * @param segResults the results returned by Segment.runSegmenter
+	 * @param phases the timer given to Segment.runSegmenter, or null if the run's phases
+	 * should not be reported
+	 * @return the row
+	 */
+	public static String formatRow(String name, Result[] segResults, PhaseTimer phases) {
 		// Unpack results
 		Result boundaryResult = segResults[0];
 		Result wordTokenResult = segResults[1];
 		Result wordTypeResult = segResults[2];
 		Result lexResult = segResults[3];
 		// Format output
-		results[resultsIndex] = (params.name + "," +
+		return (name + "," +
 				String.format("%1.4f,", boundaryResult.precision) +
 				String.format("%1.4f,", boundaryResult.recall) +
 				String.format("%1.4f,", boundaryResult.fScore) +
@@ -80,40 +193,106 @@ public class SegExperiment implements Runnable  {
 				String.format("%1.4f,", wordTypeResult.fScore) +
 				String.format("%1.4f,", lexResult.precision) +
 				String.format("%1.4f,", lexResult.recall) +
-				String.format("%1.4f", lexResult.fScore));
-		System.out.println("Finished " + params.name);
+				String.format("%1.4f,", lexResult.fScore) +
+				formatInterval(boundaryResult) + "," +
+				formatInterval(wordTokenResult) +
+				formatPhases(phases));
+	}
+
+	/**
+	 * Format the measurements of each reported phase as CSV fields, each preceded by a comma.
+	 * Fields are empty for phases that weren't run and measurements the JVM can't make.
+	 */
+	private static String formatPhases(PhaseTimer phases) {
+		StringBuilder fields = new StringBuilder();
+		for (String name : CSV_PHASES) {
+			PhaseTimer.Phase phase = phases == null ? null : phases.getGroup(name);
+			if (phase == null) {
+				fields.append(",,,,");
+				continue;
+			}
+			fields.append(String.format(",%.3f,", phase.wallNanos / 1e9));
+			if (phase.cpuNanos != PhaseTimer.UNKNOWN) {
+				fields.append(String.format("%.3f", phase.cpuNanos / 1e9));
+			}
+			fields.append(',');
+			if (phase.allocatedBytes != PhaseTimer.UNKNOWN) {
+				fields.append(String.format("%.1f", phase.allocatedBytes / 1048576.0));
+			}
+			fields.append(',').append(phase.gcCount);
+		}
+		return fields.toString();
+	}
+
+	/**
+	 * Format the f-score confidence interval of a result as two CSV fields, which are empty if
+	 * no interval was computed.
+	 */
+	private static String formatInterval(Result result) {
+		return result.hasFScoreInterval() ?
+				String.format("%1.4f,%1.4f", result.fScoreLow, result.fScoreHigh) : ",";
 	}
 
 	/**
 	 * @param args Command line arguments
 	 */
 	public static void main(String[] args) {
-		if (args.length != 5) {
-			System.err.println("Usage: SegExperiment train_file test_file|none output_base propslist csv_output");
-			System.exit(64);
+		// Read options, which come before the positional arguments
+		String sweepSpec = null;
+		boolean resume = false;
+		// Negative if the budget should be what is left after loading the data
+		long heapBudget = -1;
+		int nReplicates = 1;
+		int argStart = 0;
+		while (argStart < args.length && args[argStart].startsWith(OPTION_PREFIX)) {
+			if (args[argStart].equals(SWEEP_OPTION) && argStart + 1 < args.length) {
+				sweepSpec = args[argStart + 1];
+				argStart += 2;
+			}
+			else if (args[argStart].equals(HEAP_BUDGET_OPTION) && argStart + 1 < args.length) {
+				try {
+					heapBudget = Long.parseLong(args[argStart + 1]) << 20;
+				}
+				catch (NumberFormatException e) {
+					usage();
+				}
+				argStart += 2;
+			}
+			else if (args[argStart].equals(REPLICATES_OPTION) && argStart + 1 < args.length) {
+				try {
+					nReplicates = Integer.parseInt(args[argStart + 1]);
+				}
+				catch (NumberFormatException e) {
+					usage();
+				}
+				if (nReplicates < 1) {
+					usage();
+				}
+				argStart += 2;
+			}
+			else if (args[argStart].equals(RESUME_OPTION)) {
+				resume = true;
+				argStart++;
+			}
+			else {
+				usage();
+			}
+		}
+		if (args.length - argStart != 5) {
+			usage();
 		}
 
 		// Extract arguments
-		String trainPath = args[0];
-		String testPath = args[1];
-		String outBase = args[2];
-		String propsListPath = args[3];
-		String outPath = args[4];
-		boolean useTestData = testPath.toLowerCase() != Segment.NO_TEST_FILE;
+		String trainPath = args[argStart];
+		String testPath = args[argStart + 1];
+		String outBase = args[argStart + 2];
+		String propsListPath = args[argStart + 3];
+		String outPath = args[argStart + 4];
+		boolean useTestData = !Segment.NO_TEST_FILE.equals(testPath.toLowerCase());
 
-		// Read in the names of the props files
-		List<String> propsFiles = new LinkedList<String>();
-		Scanner propsScanner = null;
-		try {
-			propsScanner = new Scanner(new File(propsListPath));
-		} catch (FileNotFoundException e1) {
-			System.err.println("Could not read list of props files at " + propsListPath);
-			System.exit(1);
-		}
-		while (propsScanner.hasNext()) {
-			propsFiles.add(propsScanner.next());
-		}
-		propsScanner.close();
+		// Get the conditions to run, either from props files or by expanding a sweep
+		List<Sweep.Condition> conditions = sweepSpec == null ?
+				readPropsList(propsListPath) : expandSweep(sweepSpec, propsListPath);
 
 		// Read in the input
 		List<Utterance> goldTrainUtterances = Utterance.loadUtterances(trainPath);
@@ -125,70 +304,187 @@ public class SegExperiment implements Runnable  {
 		List<Utterance> goldTestUtterances = null;
 		if (useTestData) {
 			goldTestUtterances = Utterance.loadUtterances(testPath);
-			if (goldTrainUtterances == null) {
+			if (goldTestUtterances == null) {
 				System.err.println("Could not reading testing file " + testPath);
 				System.exit(1);
 			}
 		}
 
-		// Open the output
-		PrintStream out = null;
+		// Open the output. Rows are written as experiments finish, and when resuming any
+		// conditions already in it are skipped.
+		ResultsFile out = null;
 		try {
-			out = new PrintStream(outPath);
+			out = new ResultsFile(outPath, CSV_HEADER, resume);
 		}
-		catch (FileNotFoundException e) {
-			System.err.println("Couldn't open output file " + outPath);
+		catch (IOException e) {
+			System.err.println("Couldn't open output file " + outPath + ": " + e.getMessage());
 			System.exit(1);
 		}
+		if (resume) {
+			System.out.println("Number of experiments already finished: " + out.nFinished());
+			List<Sweep.Condition> remaining = new ArrayList<Sweep.Condition>();
+			for (Sweep.Condition condition : conditions) {
+				if (!out.isFinished(condition.name)) {
+					remaining.add(condition);
+				}
+			}
+			conditions = remaining;
+		}
+		System.out.println("Number of experiments to run: " + conditions.size());
 
-		// Set up place to store the results of each line
-		String[] outLines = new String[propsFiles.size()];
-		System.out.println("Number of experiments to run: " + propsFiles.size());
+		// Build the experiments. Because properties can vary in stress sensitive lookup and
+		// stress reduction, get the gold data for each props. It is only built once for each
+		// combination.
+		List<SegExperiment> experiments = new ArrayList<SegExperiment>(conditions.size());
+		for (Sweep.Condition condition : conditions) {
+			boolean stress_sensitive_lookup =
+					Boolean.parseBoolean(condition.props.getProperty(Segment.STRESS_SENSITIVE_PROP));
+			boolean drop_stress = Boolean.parseBoolean(condition.props.getProperty(Segment.DROP_STRESS_PROP));
+			ExperimentData data = ExperimentData.get(goldTrainUtterances, goldTestUtterances,
+					stress_sensitive_lookup, drop_stress);
+
+			// Sweep conditions often differ only in properties that are not part of output
+			// names, so give each its own output base
+			String conditionOutBase = sweepSpec == null ? outBase : outBase + "_" + condition.name;
+
+			// Only stochastic conditions are replicated, as the others would give the same
+			// results every time. Replicate r adds r to the condition's seed, so it can be
+			// rerun alone by setting that seed.
+			if (nReplicates == 1 || !Segment.isStochastic(condition.props)) {
+				experiments.add(new SegExperiment(new SegmenterParams(data, condition.props,
+						conditionOutBase, condition.name), out));
+				continue;
+			}
+			Replicates replicates = new Replicates(condition.name, nReplicates);
+			long baseSeed = Long.parseLong(condition.props.getProperty(Segment.RANDOM_SEED_PROP, "0"));
+			for (int r = 0; r < nReplicates; r++) {
+				Properties props = new Properties();
+				props.putAll(condition.props);
+				props.setProperty(Segment.RANDOM_SEED_PROP, Long.toString(baseSeed + r));
+				experiments.add(new SegExperiment(new SegmenterParams(data, props,
+						conditionOutBase + "_rep" + r, condition.name + "_rep" + r), out,
+						replicates, r));
+			}
+		}
 
-		// Get the number of cores and start a thread pool
+		// Get the number of cores and schedule the experiments within the heap left after
+		// loading the data. The most expensive experiments start first so that the slowest ones
+		// don't end up running alone at the end.
 		int cores = Runtime.getRuntime().availableProcessors();
 		System.out.println("Number of parallel workers: " + cores);
-		ExecutorService pool = Executors.newFixedThreadPool(cores);
+		if (heapBudget < 0) {
+			heapBudget = freeHeap();
+		}
+		System.out.println("Heap budget for experiments: " + (heapBudget >> 20) + " MB");
+		ExperimentScheduler scheduler = new ExperimentScheduler(cores, heapBudget);
+		for (SegExperiment experiment : experiments) {
+			SegmenterParams params = experiment.params;
+			long heap = Segment.estimateHeap(params.props, params.data);
+			if (heap > heapBudget) {
+				System.err.println("Warning: " + params.name + " is estimated to need " +
+						(heap >> 20) + " MB and will be run alone");
+			}
+			scheduler.add(experiment, Segment.estimateCost(params.props),
+					heap);
+		}
+
+		// Run everything and wait until it is done
 		long startTime = System.currentTimeMillis();
+		try {
+			scheduler.run();
+		}
+		catch (InterruptedException e) {
+			System.err.println("Execution interrupted!");
+		}
+		finally {
+			out.close();
+			ExperimentData.clear();
+		}
+		long endTime = System.currentTimeMillis() - startTime;
+		System.out.println("Experiments took " + endTime / 1000F + " seconds.");
+	}
 
-		// Index to store each result
-		int idx = 0;
+	private static void usage() {
+		System.err.println("Usage: SegExperiment [--sweep spec] [--resume] [--heap-budget MB] " +
+				"[--replicates N] " +
+				"train_file test_file|none output_base propslist|base_props csv_output");
+		System.err.println("With --sweep, the conditions are every combination of the values " +
+				"in the spec, applied to base_props, for example:");
+		System.err.println("--sweep \"Beam_size=1,2,4,8 x Use_trust=true,false\"");
+		System.err.println("With --resume, conditions that already have rows in csv_output " +
+				"are skipped and new rows are added to it.");
+		System.err.println("With --replicates, each stochastic condition is run N times with " +
+				"seeds counting up from its Random_seed, and the mean and standard deviation " +
+				"of the runs are written.");
+		System.err.println("Experiments are only run at the same time while their estimated " +
+				"heap use fits in the heap budget, which defaults to most of the heap left " +
+				"after loading the data.");
+		System.exit(64);
+	}
+
+	/**
+	 * Estimate how much heap can be given to experiments once the shared data is loaded.
+	 */
+	static long freeHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		System.gc();
+		long used = runtime.totalMemory() - runtime.freeMemory();
+		return (long) ((runtime.maxMemory() - used) * HEAP_BUDGET_FRACTION);
+	}
+
+	/**
+	 * Read the conditions named in a list of props files, exiting if any cannot be read.
+	 */
+	static List<Sweep.Condition> readPropsList(String propsListPath) {
+		// Read in the names of the props files
+		List<String> propsFiles = new LinkedList<String>();
+		Scanner propsScanner = null;
+		try {
+			propsScanner = new Scanner(new File(propsListPath));
+		} catch (FileNotFoundException e1) {
+			System.err.println("Could not read list of props files at " + propsListPath);
+			System.exit(1);
+		}
+		while (propsScanner.hasNext()) {
+			propsFiles.add(propsScanner.next());
+		}
+		propsScanner.close();
+
+		List<Sweep.Condition> conditions = new ArrayList<Sweep.Condition>(propsFiles.size());
 		for (String propsPath : propsFiles) {
 			Properties props = Utils.loadProps(propsPath);
-
-			// Because properties can vary in stress sensitive lookup, we have to make the lexicon
-			// for each props
-			boolean stress_sensitive_lookup = new Boolean(props.getProperty(Segment.STRESS_SENSITIVE_PROP));
-			Lexicon goldLexicon = Lexicon.lexiconFromUtterances(goldTrainUtterances,
-					stress_sensitive_lookup);
+			if (props == null) {
+				System.err.println("Could not read props file " + propsPath);
+				System.exit(1);
+			}
 
 			// Clean up name
 			String name = new File(propsPath).getName();
 			if (name.contains(".")) {
 				name = name.substring(0, name.lastIndexOf('.'));
 			}
-			SegmenterParams params = new SegmenterParams(goldTrainUtterances, goldLexicon,
-					goldTestUtterances, goldLexicon, props,	outBase, name);
-			pool.submit(new SegExperiment(params, outLines, idx++));
+			conditions.add(new Sweep.Condition(name, props));
 		}
+		return conditions;
+	}
 
-		// Shut down the pool and wait (forever) until everything is done
-		pool.shutdown();
-		try {
-			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
-			out.println("Condition,BP,BR,BF,BH,BFA,BAP,BBDP,ToP,ToR,ToF,TyP,TyR,TyF,LP,LR,LF");
-			for (String line : outLines) {
-				out.println(line);
-			}
+	/**
+	 * Expand a sweep over a base props file, exiting if either is bad.
+	 */
+	static List<Sweep.Condition> expandSweep(String spec, String basePropsPath) {
+		Properties base = Utils.loadProps(basePropsPath);
+		if (base == null) {
+			System.err.println("Could not read base props file " + basePropsPath);
+			System.exit(1);
 		}
-		catch (InterruptedException e) {
-			System.err.println("Execution interrupted!");
+		try {
+			return Sweep.parse(spec).expand(base);
 		}
-		finally {
-			out.close();
+		catch (IllegalArgumentException e) {
+			System.err.println("Bad sweep: " + e.getMessage());
+			System.exit(64);
+			return null;
 		}
-		long endTime = System.currentTimeMillis() - startTime;
-		System.out.println("Experiments took " + endTime / 1000F + " seconds.");
 	}
 
 }
@@ -19,20 +19,32 @@
 
 package edu.upenn.ircs.lignos.cats;
 
-import java.io.FileNotFoundException;
+import java.io.BufferedWriter;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
+import java.util.Random;
 
 import edu.upenn.ircs.lignos.cats.counters.SubSeqCounter;
+import edu.upenn.ircs.lignos.cats.events.EvaluationPassEvent;
+import edu.upenn.ircs.lignos.cats.events.SegmentUtteranceEvent;
+import edu.upenn.ircs.lignos.cats.events.WriteOutputEvent;
 import edu.upenn.ircs.lignos.cats.lexicon.Lexicon;
 import edu.upenn.ircs.lignos.cats.lexicon.Word;
+import edu.upenn.ircs.lignos.cats.metrics.Bootstrap;
 import edu.upenn.ircs.lignos.cats.metrics.Evaluation;
-import edu.upenn.ircs.lignos.cats.metrics.Evaluation.EvalMethod;
+import edu.upenn.ircs.lignos.cats.metrics.MetricsRegistry;
+import edu.upenn.ircs.lignos.cats.metrics.OnlineEvaluation;
 import edu.upenn.ircs.lignos.cats.metrics.Result;
+import edu.upenn.ircs.lignos.cats.metrics.SegmentationMetrics;
+import edu.upenn.ircs.lignos.cats.metrics.UtteranceCounts;
 import edu.upenn.ircs.lignos.cats.segmenters.BeamSubtractiveSegmenter;
 import edu.upenn.ircs.lignos.cats.segmenters.GambellYangSegmenter;
 import edu.upenn.ircs.lignos.cats.segmenters.RandomSegmenter;
@@ -45,20 +57,27 @@ import edu.upenn.ircs.lignos.cats.segmenters.UtteranceSegmenter;
 public class Segment {
 	// Command line arguments
 	public static final String NO_TEST_FILE = "none";
+	public static final String NO_TRAIN_FILE = "none";
+	public static final String NO_SNAPSHOT = "none";
+	private static final String FOLDS_OPTION = "--folds";
 
 	// Parameter names used for reading from property files
 	// Stress sensitive lookup is public because it affects lexicon creation
 	public static final String STRESS_SENSITIVE_PROP = "Stress_sensitive_lookup";
 	private static final String SEGMENTER_PROP = "Segmenter";
 	private static final String TRUST_PROP = "Use_trust";
-	private static final String DROP_STRESS_PROP = "Drop_stress";
+	public static final String DROP_STRESS_PROP = "Drop_stress";
 	private static final String USE_STRESS_PROP = "Use_stress";
 	private static final String PROB_MEM_PROP = "Use_prob_mem";
 	private static final String NORMALIZATION_PROP = "Lex_normalization";
 	private static final String RANDOMIZATION_PROP = "Use_randomization";
 	private static final String SUBSEQDISCOUNT_PROP = "Use_subseqdiscount";
+	public static final String RANDOM_SEED_PROP = "Random_seed";
 	private static final String PROB_MEM_AMOUNT_PROP = "Prob_mem_amount";
 	private static final String DECAY_AMT_PROP = "Decay_amount";
+	private static final String LEX_OFFHEAP_PROP = "Lex_offheap";
+	private static final String SNAPSHOT_IN_PROP = "Snapshot_in";
+	private static final String WRITE_SNAPSHOT_PROP = "Write_snapshot";
 	private static final String LONGEST_PROP = "Longest";
 	private static final String RANDOM_SEG_THRESHOLD_PROP = "Random_Seg_Rate";
 	private static final String BEAM_SIZE_PROP = "Beam_size";
@@ -66,6 +85,10 @@ public class Segment {
 	private static final String SEG_TRACE_PROP = "Seg_trace";
 	private static final String SEG_EVAL_LOG_PROP = "Seg_logging";
 	private static final String LEX_EVAL_LOG_PROP = "Lex_logging";
+	private static final String LOG_GZIP_PROP = "Log_gzip";
+	private static final String BOOTSTRAP_SAMPLES_PROP = "Bootstrap_samples";
+	private static final String METRICS_FORMAT_PROP = "Metrics_format";
+	private static final String NO_METRICS = "none";
 
 	// Known segmenters
 	private static final String SEGMENTER_BEAM_SUBTRACTIVE = "BeamSubtractive";
@@ -76,6 +99,17 @@ public class Segment {
 	private static final String SEGMENTER_GY = "GambellYang";
 	private static final String SEGMENTER_SUBTRACTIVE = "Subtractive";
 
+	// Mixed into the seed for the segmenter's draws so they don't repeat the lexicon's
+	private static final long SEGMENTER_SEED_SALT = 0x9E3779B97F4A7C15L;
+
+	// Rough heap used per item by a run, in bytes, used for scheduling experiments
+	private static final long HEAP_PER_UTTERANCE = 64;
+	private static final long HEAP_PER_BOUNDARY = 8;
+	private static final long HEAP_PER_WORD = 96;
+	private static final long HEAP_PER_WORD_UNIT = 16;
+	private static final long HEAP_PER_SUBSEQ = 96;
+	private static final long HEAP_OVERHEAD = 16L << 20;
+
 	// Experimental controls
 	// TODO: Consider just making this compile-time as it's pretty much useless
 	public boolean STRESS_SENSITIVE_LOOKUP;
@@ -88,6 +122,9 @@ public class Segment {
 	public boolean USE_PROB_MEM;
 	public double PROB_AMOUNT;
 	public double DECAY_AMOUNT;
+	public boolean LEX_OFFHEAP;
+	public String SNAPSHOT_IN;
+	public boolean WRITE_SNAPSHOT;
 
 	// Segmenter-specific
 	// Beam subtractive
@@ -95,6 +132,7 @@ public class Segment {
 	public boolean LONGEST;
 	public boolean USE_STRESS;
 	public boolean RANDOMIZATION;
+	public long SEED;
 	public int BEAM_SIZE;
 	// Random
 	public double RANDOM_SEG_THRESHOLD;
@@ -104,12 +142,18 @@ public class Segment {
 	private boolean SEG_TRACE;
 	private boolean SEG_EVAL_TRACE;
 	private boolean LEX_EVAL_TRACE;
+	private boolean LOG_GZIP;
+	private String METRICS_FORMAT;
+	// Evaluation
+	public int BOOTSTRAP_SAMPLES;
 
 	// Learner structures
 	private String outputBase;
 	private SubSeqCounter counter;
 	public Lexicon lexicon;
 	private Segmenter seg;
+	// Hot path metrics, null if they are not recorded
+	private SegmentationMetrics metrics;
 
 	public Segment(Properties props, String outputBase) {
 		this.outputBase = outputBase;
@@ -125,23 +169,36 @@ public class Segment {
 
 		// Look up each property
 		SEGMENTER_NAME = props.getProperty(SEGMENTER_PROP);
-		STRESS_SENSITIVE_LOOKUP = new Boolean(props.getProperty(STRESS_SENSITIVE_PROP));
-		USE_TRUST = new Boolean(props.getProperty(TRUST_PROP));
-		LONGEST = new Boolean(props.getProperty(LONGEST_PROP));
-		DROP_STRESS = new Boolean(props.getProperty(DROP_STRESS_PROP));
-		USE_STRESS = new Boolean(props.getProperty(USE_STRESS_PROP));
-		USE_PROB_MEM = new Boolean(props.getProperty(PROB_MEM_PROP));
-		BEAM_SIZE = new Integer(props.getProperty(BEAM_SIZE_PROP));
-		PROB_AMOUNT = new Double(props.getProperty(PROB_MEM_AMOUNT_PROP));
-		DECAY_AMOUNT = new Double(props.getProperty(DECAY_AMT_PROP));
-		LEX_TRACE = new Boolean(props.getProperty(LEX_TRACE_PROP));
-		SEG_TRACE = new Boolean(props.getProperty(SEG_TRACE_PROP));
-		SEG_EVAL_TRACE = new Boolean(props.getProperty(SEG_EVAL_LOG_PROP));
-		LEX_EVAL_TRACE = new Boolean(props.getProperty(LEX_EVAL_LOG_PROP));
-		RANDOM_SEG_THRESHOLD = new Double(props.getProperty(RANDOM_SEG_THRESHOLD_PROP));
-		NORMALIZATION = new Boolean(props.getProperty(NORMALIZATION_PROP));
-		RANDOMIZATION = new Boolean(props.getProperty(RANDOMIZATION_PROP));
-		USE_SUBSEQ_DISCOUNT = new Boolean(props.getProperty(SUBSEQDISCOUNT_PROP));
+		STRESS_SENSITIVE_LOOKUP = Boolean.parseBoolean(props.getProperty(STRESS_SENSITIVE_PROP));
+		USE_TRUST = Boolean.parseBoolean(props.getProperty(TRUST_PROP));
+		LONGEST = Boolean.parseBoolean(props.getProperty(LONGEST_PROP));
+		DROP_STRESS = Boolean.parseBoolean(props.getProperty(DROP_STRESS_PROP));
+		USE_STRESS = Boolean.parseBoolean(props.getProperty(USE_STRESS_PROP));
+		USE_PROB_MEM = Boolean.parseBoolean(props.getProperty(PROB_MEM_PROP));
+		BEAM_SIZE = Integer.parseInt(props.getProperty(BEAM_SIZE_PROP));
+		PROB_AMOUNT = Double.parseDouble(props.getProperty(PROB_MEM_AMOUNT_PROP));
+		DECAY_AMOUNT = Double.parseDouble(props.getProperty(DECAY_AMT_PROP));
+		LEX_OFFHEAP = Boolean.parseBoolean(props.getProperty(LEX_OFFHEAP_PROP));
+		SNAPSHOT_IN = props.getProperty(SNAPSHOT_IN_PROP, NO_SNAPSHOT);
+		WRITE_SNAPSHOT = Boolean.parseBoolean(props.getProperty(WRITE_SNAPSHOT_PROP));
+		LEX_TRACE = Boolean.parseBoolean(props.getProperty(LEX_TRACE_PROP));
+		SEG_TRACE = Boolean.parseBoolean(props.getProperty(SEG_TRACE_PROP));
+		SEG_EVAL_TRACE = Boolean.parseBoolean(props.getProperty(SEG_EVAL_LOG_PROP));
+		LEX_EVAL_TRACE = Boolean.parseBoolean(props.getProperty(LEX_EVAL_LOG_PROP));
+		LOG_GZIP = Boolean.parseBoolean(props.getProperty(LOG_GZIP_PROP));
+		METRICS_FORMAT = props.getProperty(METRICS_FORMAT_PROP, NO_METRICS).toLowerCase();
+		if (!METRICS_FORMAT.equals(NO_METRICS) && !METRICS_FORMAT.equals(MetricsRegistry.JSON) &&
+				!METRICS_FORMAT.equals(MetricsRegistry.PROMETHEUS)) {
+			throw new RuntimeException("Unknown metrics format specified: " + METRICS_FORMAT);
+		}
+		metrics = METRICS_FORMAT.equals(NO_METRICS) ? null :
+			new SegmentationMetrics(new MetricsRegistry());
+		BOOTSTRAP_SAMPLES = Integer.parseInt(props.getProperty(BOOTSTRAP_SAMPLES_PROP, "0"));
+		RANDOM_SEG_THRESHOLD = Double.parseDouble(props.getProperty(RANDOM_SEG_THRESHOLD_PROP));
+		NORMALIZATION = Boolean.parseBoolean(props.getProperty(NORMALIZATION_PROP));
+		RANDOMIZATION = Boolean.parseBoolean(props.getProperty(RANDOMIZATION_PROP));
+		USE_SUBSEQ_DISCOUNT = Boolean.parseBoolean(props.getProperty(SUBSEQDISCOUNT_PROP));
+		SEED = Long.parseLong(props.getProperty(RANDOM_SEED_PROP, "0"));
 
 		// Set up the output path
 		outputBase += "_" + SEGMENTER_NAME;
@@ -159,6 +216,30 @@ public class Segment {
 	 * @param verbose TODO
 	 */
 	public void segment(List<Utterance> segUtterances, boolean training, boolean verbose) {
+		segment(segUtterances, null, training, verbose);
+	}
+
+	/**
+	 * Run the segmenter on each utterance. When training with gold utterances, each
+	 * segmentation is evaluated as soon as it is made and the learning curve is written to the
+	 * perf log.
+	 * @param segUtterances the utterances to segment
+	 * @param goldUtterances the matching gold utterances, null if not evaluating during training
+	 * @param training whether to learn from the utterances
+	 * @param verbose whether to print progress
+	 */
+	public void segment(Iterable<Utterance> segUtterances, Iterable<Utterance> goldUtterances,
+			boolean training, boolean verbose) {
+		segment(segUtterances, goldUtterances, training, verbose, null);
+	}
+
+	/**
+	 * Run the segmenter on each utterance as above, also writing each segmentation to
+	 * segOutput as soon as it is made.
+	 * @param segOutput where to write the segmented text, null if not needed
+	 */
+	public void segment(Iterable<Utterance> segUtterances, Iterable<Utterance> goldUtterances,
+			boolean training, boolean verbose, PrintStream segOutput) {
 		// We need to either be training or already have a lexicon
 		assert(training || lexicon != null);
 
@@ -169,7 +250,18 @@ public class Segment {
 		// Create empty segmentation lexicon
 		if (training) {
 			lexicon = new Lexicon(STRESS_SENSITIVE_LOOKUP, LEX_TRACE, USE_TRUST,
-					USE_PROB_MEM, NORMALIZATION, PROB_AMOUNT, DECAY_AMOUNT, counter);
+					USE_PROB_MEM, NORMALIZATION, PROB_AMOUNT, DECAY_AMOUNT, counter, LEX_OFFHEAP);
+			lexicon.setSeed(SEED);
+			lexicon.setMetrics(metrics);
+			// Warm start from a previous run if requested
+			if (!NO_SNAPSHOT.equals(SNAPSHOT_IN.toLowerCase())) {
+				if (verbose) System.out.println("Loading lexicon snapshot " + SNAPSHOT_IN + "...");
+				try {
+					lexicon.readSnapshot(SNAPSHOT_IN);
+				} catch (IOException e) {
+					throw new RuntimeException("Couldn't read lexicon snapshot " + SNAPSHOT_IN, e);
+				}
+			}
 		}
 
 		if (verbose) System.out.println("Segmenting...");
@@ -177,9 +269,12 @@ public class Segment {
 
 		// Create the segmenter if we're training
 		if (training) {
+			Random rand = new Random(SEED ^ SEGMENTER_SEED_SALT);
 			if (SEGMENTER_NAME.equals(SEGMENTER_BEAM_SUBTRACTIVE)) {
-				seg = new BeamSubtractiveSegmenter(LONGEST, USE_STRESS, BEAM_SIZE, lexicon, counter,
-						RANDOMIZATION);
+				BeamSubtractiveSegmenter beamSeg = new BeamSubtractiveSegmenter(LONGEST, USE_STRESS,
+						BEAM_SIZE, lexicon, counter, RANDOMIZATION, rand);
+				beamSeg.setMetrics(metrics);
+				seg = beamSeg;
 			}
 			else if (SEGMENTER_NAME.equals(SEGMENTER_UNIT)) {
 				seg = new UnitSegmenter(lexicon);
@@ -194,7 +289,7 @@ public class Segment {
 				seg = new GambellYangSegmenter(lexicon, USE_STRESS);
 			}
 			else if (SEGMENTER_NAME.equals(SEGMENTER_RANDOM)) {
-				seg = new RandomSegmenter(RANDOM_SEG_THRESHOLD, lexicon);
+				seg = new RandomSegmenter(RANDOM_SEG_THRESHOLD, lexicon, rand);
 			}
 			else if (SEGMENTER_NAME.equals(SEGMENTER_TROUGH)) {
 				seg = new TPTroughSegmenter(lexicon);
@@ -204,12 +299,47 @@ public class Segment {
 			}
 		}
 
+		// Set up evaluation during training
+		PrintStream perfLog = null;
+		OnlineEvaluation learningCurve = null;
+		Iterator<Utterance> goldIter = null;
+		if (training && goldUtterances != null && SEG_EVAL_TRACE) {
+			try {
+				perfLog = AsyncLogSink.open(outputBase + "_perflog.csv", LOG_GZIP);
+				learningCurve = new OnlineEvaluation(perfLog);
+				goldIter = goldUtterances.iterator();
+			} catch (IOException e) {
+				System.err.println("Couldn't open perf log file");
+			}
+		}
+
 		// Segment
 		for (Utterance utterance : segUtterances) {
-			utterance.setBoundaries(seg.segment(utterance, training, SEG_TRACE));
+			SegmentUtteranceEvent event = new SegmentUtteranceEvent();
+			event.begin();
+			if (metrics != null) {
+				long start = System.nanoTime();
+				utterance.setBoundaries(seg.segment(utterance, training, SEG_TRACE));
+				metrics.utteranceNanos.record(System.nanoTime() - start);
+			}
+			else {
+				utterance.setBoundaries(seg.segment(utterance, training, SEG_TRACE));
+			}
+			if (event.shouldCommit()) {
+				event.segmenter = SEGMENTER_NAME;
+				event.utteranceLength = utterance.length;
+				event.training = training;
+				event.commit();
+			}
 			if (SEG_TRACE) {
 				System.out.println("Segmentation:" + utterance.getSegText());
 			}
+			if (segOutput != null) {
+				segOutput.println(new SegTextLine(utterance));
+			}
+			if (learningCurve != null) {
+				learningCurve.evalUtterance(goldIter.next(), utterance);
+			}
 
 			// Tick the lexicon in training mode
 			if (training) {
@@ -218,6 +348,10 @@ public class Segment {
 		}
 
 		segTime = System.currentTimeMillis() - segTime;
+		if (learningCurve != null) {
+			learningCurve.finish();
+			perfLog.close();
+		}
 		// Output stats
 		if (verbose) {
 			System.out.println(seg.getStats());
@@ -230,11 +364,24 @@ public class Segment {
 	/**
 	 * Evaluate the segmentation against gold
 	 */
-	public Result[] eval(List<Utterance> goldTrainUtterances, List<Utterance> segTrainUtterances,
-			List<Utterance> goldTestUtterances, List<Utterance> segTestUtterances,
-			Lexicon goldTrainLexicon, Lexicon segTrainLexicon, boolean verbose) {
-		boolean useTestData = goldTestUtterances != null;
-		List<Utterance> goldEvalUtterances = useTestData ? goldTestUtterances : goldTrainUtterances;
+	public Result[] eval(ExperimentData data, List<Utterance> segTrainUtterances,
+			List<Utterance> segTestUtterances, Lexicon segTrainLexicon, boolean verbose) {
+		return eval(data, segTrainUtterances, segTestUtterances, segTrainLexicon, verbose,
+				new PhaseTimer());
+	}
+
+
+	/**
+	 * Evaluate the segmentation against gold, timing each pass over the data.
+	 * @param phases the timer to record the evaluation passes in. The pass over the
+	 * segmentation continues any phase it is timing, and the bootstrap and lexicon passes are
+	 * recorded as EVAL_BOOTSTRAP and EVAL_LEXICON.
+	 */
+	public Result[] eval(ExperimentData data, List<Utterance> segTrainUtterances,
+			List<Utterance> segTestUtterances, Lexicon segTrainLexicon, boolean verbose,
+			PhaseTimer phases) {
+		boolean useTestData = data.hasTestData();
+		List<Utterance> goldEvalUtterances = data.evalCorpus().utterances;
 		List<Utterance> segEvalUtterances = useTestData ? segTestUtterances : segTrainUtterances;
 
 		if (goldEvalUtterances.size() != segEvalUtterances.size()) {
@@ -245,61 +392,70 @@ public class Segment {
 
 		// Set up logs
 		PrintStream segLog = null;
-		PrintStream perfLog = null;
 		PrintStream wordLog = null;
 		PrintStream lexLog = null;
 		try {
 			segLog = SEG_EVAL_TRACE ?
-					new PrintStream(outputBase + "_segeval.csv") : null;
-		} catch (FileNotFoundException e) {
+					AsyncLogSink.open(outputBase + "_segeval.csv", LOG_GZIP) : null;
+		} catch (IOException e) {
 			System.err.println("Couldn't open evaluation log file");
 		}
-		try {
-			perfLog = SEG_EVAL_TRACE ?
-					new PrintStream(outputBase + "_perflog.csv") : null;
-		} catch (FileNotFoundException e) {
-			System.err.println("Couldn't open perf log file");
-		}
 		try {
 			wordLog = SEG_EVAL_TRACE ?
-					new PrintStream(outputBase + "_word.csv") : null;
-		} catch (FileNotFoundException e) {
+					AsyncLogSink.open(outputBase + "_word.csv", LOG_GZIP) : null;
+		} catch (IOException e) {
 			System.err.println("Couldn't open word log file");
 		}
 		try {
 			lexLog = LEX_EVAL_TRACE ?
-					new PrintStream(outputBase + "_lexeval.txt") : null;
-		} catch (FileNotFoundException e) {
+					AsyncLogSink.open(outputBase + "_lexeval.txt", LOG_GZIP) : null;
+		} catch (IOException e) {
 			System.err.println("Couldn't open evaluation log file");
 		}
 
-		// If we're eval-ing on the test data, pass null for the perflog, and then do a second
-		// pass on the training data solely for the purpose of performance logging.
-		Result boundaryResult = Evaluation.evalUtterances(goldEvalUtterances, segEvalUtterances,
-				segLog, useTestData ? null : perfLog, EvalMethod.BOUNDARIES);
-		if (perfLog != null && useTestData) {
-			// Pass null for the segLog since this it should only show the testing evaluation
-			Evaluation.evalUtterances(goldTrainUtterances, segTrainUtterances,
-					null, perfLog, EvalMethod.BOUNDARIES);
+		// Evaluate boundaries, word tokens, and word types together, in parallel unless
+		// per-utterance logs are written. The perf log is written during training.
+		boolean bootstrap = BOOTSTRAP_SAMPLES > 0;
+		UtteranceCounts uttBoundaryCounts = bootstrap ? new UtteranceCounts() : null;
+		UtteranceCounts uttWordCounts = bootstrap ? new UtteranceCounts() : null;
+		EvaluationPassEvent pass = new EvaluationPassEvent();
+		pass.begin();
+		Result[] evalResults = Evaluation.evalAllParallel(goldEvalUtterances, segEvalUtterances,
+				data.goldEvalLexicon, segLog, null, wordLog, uttBoundaryCounts, uttWordCounts);
+		Result boundaryResult = evalResults[0];
+		Result wordTokensResults = evalResults[1];
+		Result wordTypesResult = evalResults[2];
+		commitPass(pass, PhaseTimer.EVAL, segEvalUtterances.size());
+
+		// Add confidence intervals by resampling utterances
+		if (bootstrap) {
+			// Resampling runs on the evaluation pool
+			PhaseTimer.PoolWork work = new PhaseTimer.PoolWork();
+			phases.startOffThread(PhaseTimer.EVAL_BOOTSTRAP, work);
+			pass = new EvaluationPassEvent();
+			pass.begin();
+			boundaryResult = boundaryResult.withFScoreInterval(
+					Bootstrap.fScoreInterval(uttBoundaryCounts, BOOTSTRAP_SAMPLES, 0, work));
+			wordTokensResults = wordTokensResults.withFScoreInterval(
+					Bootstrap.fScoreInterval(uttWordCounts, BOOTSTRAP_SAMPLES, 0, work));
+			commitPass(pass, PhaseTimer.EVAL_BOOTSTRAP, segEvalUtterances.size());
 		}
 
-		// Word tokens
-		Result wordTokensResults = Evaluation.evalUtterances(goldEvalUtterances, segEvalUtterances,
-				segLog, wordLog, EvalMethod.WORDS);
-
-		// Word types
-		Lexicon goldEvalLexicon = Lexicon.lexiconFromUtterances(goldEvalUtterances,
-				goldTrainLexicon.stressSensitive);
-		Lexicon segEvalLexicon = Lexicon.lexiconFromUtterances(segEvalUtterances,
-				goldTrainLexicon.stressSensitive);
-		Result wordTypesResult = Evaluation.evalLexicons(goldEvalLexicon, segEvalLexicon, null, false);
-		Result lexResult = Evaluation.evalLexicons(goldTrainLexicon, segTrainLexicon, lexLog, verbose);
+		// Lexicon
+		phases.start(PhaseTimer.EVAL_LEXICON);
+		pass = new EvaluationPassEvent();
+		pass.begin();
+		Result lexResult = Evaluation.evalLexicons(data.goldTrainLexicon, segTrainLexicon, lexLog,
+				verbose);
+		commitPass(pass, PhaseTimer.EVAL_LEXICON, segTrainLexicon.size());
 
 		if (verbose) {
 			System.out.println("Boundaries:");
 			System.out.println(boundaryResult);
+			if (bootstrap) System.out.println(boundaryResult.toStringFScoreInterval());
 			System.out.println("Word tokens:");
 			System.out.println(wordTokensResults.toStringNoAPrimeBDoublePrime());
+			if (bootstrap) System.out.println(wordTokensResults.toStringFScoreInterval());
 			System.out.println("Word types:");
 			System.out.println(wordTypesResult.toStringPRF());
 			System.out.println("Lexicon:");
@@ -308,7 +464,6 @@ public class Segment {
 
 		// Close any open logs
 		if (segLog != null) segLog.close();
-		if (perfLog != null) perfLog.close();
 		if (wordLog != null) wordLog.close();
 		if (lexLog != null) lexLog.close();
 
@@ -316,30 +471,124 @@ public class Segment {
 	}
 
 
+	private static void commitPass(EvaluationPassEvent event, String pass, int items) {
+		if (event.shouldCommit()) {
+			event.pass = pass;
+			event.items = items;
+			event.commit();
+		}
+	}
+
+
 	/**
 	 * Write output to the pre-set path.
 	 */
 	public void writeOutput(List<Utterance> segUtterances, Lexicon segLexicon) {
+		WriteOutputEvent event = new WriteOutputEvent();
+		event.begin();
 		try {
 			// Write segmentation
-			PrintStream out = new PrintStream(outputBase + "_seg.txt");
+			PrintStream out = openSegOutput();
 			for (Utterance utt : segUtterances) {
-				out.println(utt.getSegText());
+				out.println(new SegTextLine(utt));
 			}
 			out.close();
+		} catch (IOException e) {
+			System.err.println("Couldn't open output files");
+		}
+		writeLexicon(segLexicon, segUtterances.size(), event);
+	}
+
+
+	/**
+	 * The segmented text of an utterance, made when it is written to the output. The
+	 * utterance must not be segmented again once it is printed.
+	 */
+	private static final class SegTextLine implements AsyncLogSink.Deferred {
+		private final Utterance utterance;
+
+		SegTextLine(Utterance utterance) {
+			this.utterance = utterance;
+		}
+
+		@Override
+		public String toString() {
+			return utterance.getSegText();
+		}
+	}
+
+
+	/**
+	 * Open the segmentation output file at the pre-set path, for segment to write to as it
+	 * goes.
+	 */
+	public PrintStream openSegOutput() throws IOException {
+		return AsyncLogSink.open(outputBase + "_seg.txt", false);
+	}
+
+
+	/**
+	 * Write the lexicon output to the pre-set path, when the segmentation has already been
+	 * written during segmentation.
+	 * @param segLexicon the learned lexicon
+	 * @param nUtterances the number of utterances segmented
+	 */
+	public void writeLexicon(Lexicon segLexicon, int nUtterances) {
+		WriteOutputEvent event = new WriteOutputEvent();
+		event.begin();
+		writeLexicon(segLexicon, nUtterances, event);
+	}
+
 
+	private void writeLexicon(Lexicon segLexicon, int nUtterances, WriteOutputEvent event) {
+		try {
 			// Write lexicon, sorted by score
 			ArrayList<Word> words = new ArrayList<Word>(segLexicon.getWords());
 			Collections.sort(words, Collections.reverseOrder(segLexicon.new WordScoreComparator()));
-			out = new PrintStream(outputBase + "_lex.txt");
+			PrintStream out = AsyncLogSink.open(outputBase + "_lex.txt", false);
 			for (Word w : words) {
 				out.println(segLexicon.dumpWord(w));
 			}
 			out.close();
-
-		} catch (FileNotFoundException e) {
+		} catch (IOException e) {
 			System.err.println("Couldn't open output files");
 		}
+
+		// Write the learned lexicon state so later runs can start from it
+		if (WRITE_SNAPSHOT) {
+			try {
+				segLexicon.writeSnapshot(outputBase + "_snapshot.bin");
+			} catch (IOException e) {
+				System.err.println("Couldn't write lexicon snapshot");
+			}
+		}
+
+		if (event.shouldCommit()) {
+			event.outputBase = outputBase;
+			event.utterances = nUtterances;
+			event.words = segLexicon.size();
+			event.commit();
+		}
+	}
+
+	/**
+	 * Write the recorded metrics, along with the time and allocation of each phase, to
+	 * output_base_metrics.json or output_base_metrics.prom depending on the format. Does
+	 * nothing if metrics are not recorded.
+	 * @param phases the timer of the run
+	 */
+	public void writeMetrics(PhaseTimer phases) {
+		if (metrics == null) return;
+		metrics.recordPhases(phases);
+		String path = outputBase + (METRICS_FORMAT.equals(MetricsRegistry.JSON) ?
+				"_metrics.json" : "_metrics.prom");
+		try {
+			Writer out = new BufferedWriter(new FileWriter(path));
+			metrics.registry.write(out, METRICS_FORMAT);
+			out.close();
+		} catch (IOException e) {
+			System.err.println("Couldn't write metrics file " + path);
+		}
 	}
 
 	private static class CommentedProperties {
@@ -388,6 +637,16 @@ public class Segment {
 		props.setProperty(DECAY_AMT_PROP, "0.0");
 		comments.append(NORMALIZATION_PROP + ": Whether to normalize scores in the lexicon.\n");
 		props.setProperty(NORMALIZATION_PROP, "false");
+		comments.append(LEX_OFFHEAP_PROP + ": Whether to store the lexicon outside of the Java heap. " +
+				"Useful for very large lexicons, such as those learned by the Utterance segmenter.\n");
+		props.setProperty(LEX_OFFHEAP_PROP, "false");
+		comments.append(SNAPSHOT_IN_PROP + ": Path of a lexicon snapshot to start training from, " +
+				"or none to start from an empty lexicon. With a snapshot, the training file may be " +
+				"none to only segment the test file.\n");
+		props.setProperty(SNAPSHOT_IN_PROP, NO_SNAPSHOT);
+		comments.append(WRITE_SNAPSHOT_PROP + ": Whether to write a snapshot of the learned " +
+				"lexicon after training.\n");
+		props.setProperty(WRITE_SNAPSHOT_PROP, "false");
 
 		// Segmenter behavior parameters
 		comments.append(LONGEST_PROP + ": Whether a subtractive segmenter is forced to use the longest words " +
@@ -402,6 +661,9 @@ public class Segment {
 		props.setProperty(RANDOMIZATION_PROP, "false");
 		comments.append(SUBSEQDISCOUNT_PROP + ": Whether to divide words scores by subsequence frequency.\n");
 		props.setProperty(SUBSEQDISCOUNT_PROP, "false");
+		comments.append(RANDOM_SEED_PROP + ": Seed for random choices made by the lexicon and " +
+				"segmenter, so that runs with the same seed give the same results.\n");
+		props.setProperty(RANDOM_SEED_PROP, "0");
 
 		// Logging parameters
 		comments.append(LEX_TRACE_PROP + ": Whether to print debugging information for lexicon " +
@@ -416,6 +678,19 @@ public class Segment {
 		comments.append(LEX_EVAL_LOG_PROP + ": Whether to write out information about the " +
 				"evaluation of the lexicon to a file.\n");
 		props.setProperty(LEX_EVAL_LOG_PROP, "true");
+		comments.append(LOG_GZIP_PROP + ": Whether to gzip the evaluation logs. A .gz suffix is " +
+				"added to their names.\n");
+		props.setProperty(LOG_GZIP_PROP, "false");
+		comments.append(METRICS_FORMAT_PROP + ": Format of a snapshot of lexicon lookup, beam, " +
+				"latency, and allocation metrics written after the run: json, prometheus, or " +
+				"none to not record metrics.\n");
+		props.setProperty(METRICS_FORMAT_PROP, NO_METRICS);
+
+		// Evaluation parameters
+		comments.append(BOOTSTRAP_SAMPLES_PROP + ": Number of bootstrap resamples of the " +
+				"evaluated utterances used for confidence intervals on boundary and word token " +
+				"F-scores. Set to 0 to disable.\n");
+		props.setProperty(BOOTSTRAP_SAMPLES_PROP, "0");
 
 		return new CommentedProperties(props, comments.toString());
 	}
@@ -432,6 +707,20 @@ public class Segment {
 				System.exit(1);
 			}
 		}
+		else if (argv.length == 5 && argv[0].equals(FOLDS_OPTION)) {
+			int nFolds = 0;
+			try {
+				nFolds = Integer.parseInt(argv[1]);
+			}
+			catch (NumberFormatException e) {
+				// Rejected below
+			}
+			if (nFolds < 2) {
+				System.err.println("The number of folds must be at least 2");
+				System.exit(64);
+			}
+			callCrossValidation(argv[2], nFolds, argv[3], argv[4]);
+		}
 		else if (argv.length == 4) {
 			String trainPath = argv[0];
 			String testPath = argv[1];
@@ -441,7 +730,11 @@ public class Segment {
 		}
 		else {
 			// If we fell through, print usage
-			System.err.println("Usage: Segment train_file test_file|none output_base properties_file");
+			System.err.println("Usage: Segment train_file|none test_file|none output_base properties_file");
+			System.err.println("       Segment --folds K corpus_file output_base properties_file");
+			System.err.println("The training file may only be none when a lexicon snapshot is given.");
+			System.err.println("With --folds, the corpus is split into K contiguous folds and a " +
+					"learner is trained on all but each fold and tested on it, in parallel.");
 			System.err.println("To generate a properties file with defaults, run:");
 			System.err.println("Segment --dump-defaults");
 			System.exit(64);
@@ -454,16 +747,32 @@ public class Segment {
 
 		// Decide whether we're going to separate test and training data
 		boolean useTestData = !NO_TEST_FILE.equals(testPath.toLowerCase());
+		// Without training data, we can only test a lexicon loaded from a snapshot
+		boolean useTrainData = !NO_TRAIN_FILE.equals(trainPath.toLowerCase());
+
+		// Load props
+		Properties props = Utils.loadProps(propsPath);
+		if (!useTrainData && (!useTestData ||
+				NO_SNAPSHOT.equals(props.getProperty(SNAPSHOT_IN_PROP, NO_SNAPSHOT).toLowerCase()))) {
+			System.err.println("A lexicon snapshot and a test file are needed when there is no " +
+					"training file");
+			System.exit(1);
+		}
 
 		// Load gold utterances and lexicon
+		PhaseTimer phases = new PhaseTimer();
+		phases.start(PhaseTimer.LOAD);
 		long loadTime = System.currentTimeMillis();
-		List<Utterance> goldTrainUtterances = Utterance.loadUtterances(trainPath);
+		List<Utterance> goldTrainUtterances = useTrainData ?
+				Utterance.loadUtterances(trainPath) : new ArrayList<Utterance>();
 		if (goldTrainUtterances == null) {
 			System.err.println("Could not reading training file " + trainPath);
 			System.exit(1);
 		}
 		loadTime = System.currentTimeMillis() - loadTime;
-		System.out.println("Loading training data took " + loadTime / 1000F + " seconds.");
+		if (useTrainData) {
+			System.out.println("Loading training data took " + loadTime / 1000F + " seconds.");
+		}
 
 		List<Utterance> goldTestUtterances = null;
 		if (useTestData) {
@@ -477,54 +786,295 @@ public class Segment {
 			System.out.println("Loading testing data took " + loadTime / 1000F + " seconds.");
 		}
 
-		// Load props
-		Properties props = Utils.loadProps(propsPath);
-		boolean stress_sensitive_lookup = new Boolean(props.getProperty(STRESS_SENSITIVE_PROP));
+		boolean stress_sensitive_lookup = Boolean.parseBoolean(props.getProperty(STRESS_SENSITIVE_PROP));
+		boolean drop_stress = Boolean.parseBoolean(props.getProperty(DROP_STRESS_PROP));
 		String segmenterName = props.getProperty(SEGMENTER_PROP);
 		System.out.println("Running segmenter " + segmenterName);
 
-		// Create the gold lexicons
-		Lexicon goldTrainLexicon = Lexicon.lexiconFromUtterances(goldTrainUtterances,
-				stress_sensitive_lookup);
-		Lexicon goldTestLexicon = null;
-		if (useTestData) {
-			goldTestLexicon = Lexicon.lexiconFromUtterances(goldTrainUtterances,
-					stress_sensitive_lookup);
-		}
+		// Create the gold lexicons and segmenter input
+		ExperimentData data = ExperimentData.get(goldTrainUtterances, goldTestUtterances,
+				stress_sensitive_lookup, drop_stress);
 
 		// Segment
-		Result[] evalResults = runSegmenter(goldTrainUtterances, goldTrainLexicon,
-				goldTestUtterances, goldTestLexicon, props, outPath, true);
+		Result[] evalResults = runSegmenter(data, props, outPath, true, phases);
 
 		long endTime = System.currentTimeMillis() - startTime;
 		System.out.println("Run took " + endTime / 1000F + " seconds.");
+		for (PhaseTimer.Phase phase : phases.getPhases()) {
+			System.out.println("  " + phase);
+		}
 		return evalResults;
 	}
 
-	public static Result[] runSegmenter(List<Utterance> goldTrainUtterances,
-			Lexicon goldTrainLexicon, List<Utterance> goldTestUtterances, Lexicon goldTestLexicon,
-			Properties props, String outPath, boolean verbose) {
-		boolean useTestData = goldTestUtterances != null;
+	/**
+	 * Cross-validate a segmenter on a single corpus. The corpus is split into contiguous folds,
+	 * and for each fold a learner is trained on the other folds and tested on it. Folds are run
+	 * in parallel within the free heap and share the gold data of the whole corpus. The results
+	 * of each fold, their mean, and their standard deviation are written to output_base_folds.csv.
+	 * @param corpusPath the path of the corpus
+	 * @param nFolds the number of folds
+	 * @param outPath the base path for output files, to which the fold number is added
+	 * @param propsPath the path of the segmenter properties
+	 * @return the mean results followed by their standard deviations, each indexed like the
+	 * results of runSegmenter
+	 */
+	public static Result[][] callCrossValidation(String corpusPath, int nFolds, String outPath,
+			String propsPath) {
+		long startTime = System.currentTimeMillis();
+		final Properties props = Utils.loadProps(propsPath);
+
+		long loadTime = System.currentTimeMillis();
+		List<Utterance> goldUtterances = Utterance.loadUtterances(corpusPath);
+		if (goldUtterances == null) {
+			System.err.println("Could not read corpus file " + corpusPath);
+			System.exit(1);
+		}
+		loadTime = System.currentTimeMillis() - loadTime;
+		System.out.println("Loading corpus took " + loadTime / 1000F + " seconds.");
+		if (nFolds > goldUtterances.size()) {
+			System.err.println("Cannot make " + nFolds + " folds of " + goldUtterances.size() +
+					" utterances");
+			System.exit(1);
+		}
+
+		boolean stress_sensitive_lookup = Boolean.parseBoolean(props.getProperty(STRESS_SENSITIVE_PROP));
+		boolean drop_stress = Boolean.parseBoolean(props.getProperty(DROP_STRESS_PROP));
+		System.out.println("Running segmenter " + props.getProperty(SEGMENTER_PROP) + " on " +
+				nFolds + " folds");
+		final ExperimentData data = ExperimentData.get(goldUtterances, null,
+				stress_sensitive_lookup, drop_stress);
+
+		// Each fold builds its own gold lexicons on top of what a run needs
+		long heap = estimateHeap(props, data) +
+				data.train.nUnits() * (HEAP_PER_WORD + HEAP_PER_WORD_UNIT);
+		long heapBudget = SegExperiment.freeHeap();
+		int workers = Math.min(nFolds, Runtime.getRuntime().availableProcessors());
+		ExperimentScheduler scheduler = new ExperimentScheduler(workers, heapBudget);
+		final Result[][] foldResults = new Result[nFolds][];
+		final PhaseTimer[] foldPhases = new PhaseTimer[nFolds];
+		final Throwable[] foldErrors = new Throwable[nFolds];
+		for (int i = 0; i < nFolds; i++) {
+			final int fold = i;
+			final int folds = nFolds;
+			final String foldOutPath = outPath + "_fold" + fold;
+			scheduler.add(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						foldPhases[fold] = new PhaseTimer();
+						foldResults[fold] = runSegmenter(data.fold(fold, folds), props,
+								foldOutPath, false, foldPhases[fold]);
+						System.out.println("Finished fold " + fold);
+					}
+					catch (RuntimeException e) {
+						foldErrors[fold] = e;
+					}
+					catch (OutOfMemoryError e) {
+						foldErrors[fold] = e;
+					}
+				}
+			}, 1.0, heap);
+		}
+		try {
+			scheduler.run();
+		}
+		catch (InterruptedException e) {
+			System.err.println("Execution interrupted!");
+			System.exit(1);
+		}
+		for (int i = 0; i < nFolds; i++) {
+			if (foldErrors[i] != null) {
+				throw new RuntimeException("Fold " + i + " failed", foldErrors[i]);
+			}
+		}
+
+		List<Result[]> runs = Arrays.asList(foldResults);
+		Result[][] summary = summarize(runs);
+		String[] names = {"Boundaries", "Word tokens", "Word types", "Lexicon"};
+		for (int i = 0; i < names.length; i++) {
+			System.out.println(names[i] + " mean:");
+			System.out.println(summary[0][i].toStringPRF());
+			System.out.println(names[i] + " standard deviation:");
+			System.out.println(summary[1][i].toStringPRF());
+		}
+
+		try {
+			ResultsFile out = new ResultsFile(outPath + "_folds.csv", SegExperiment.CSV_HEADER,
+					false);
+			for (int i = 0; i < nFolds; i++) {
+				out.writeRow(SegExperiment.formatRow("fold" + i, foldResults[i], foldPhases[i]));
+			}
+			out.writeRow(SegExperiment.formatRow("mean", summary[0]));
+			out.writeRow(SegExperiment.formatRow("stddev", summary[1]));
+			out.close();
+		}
+		catch (IOException e) {
+			System.err.println("Couldn't write fold results");
+		}
+
+		long endTime = System.currentTimeMillis() - startTime;
+		System.out.println("Run took " + endTime / 1000F + " seconds.");
+		return summary;
+	}
+
+	/**
+	 * Combine the results of several runs of a segmenter, such as cross-validation folds.
+	 * @param runs the results of each run, as returned by runSegmenter
+	 * @return the mean results followed by their standard deviations, each indexed like the
+	 * results of a run
+	 */
+	public static Result[][] summarize(List<Result[]> runs) {
+		int nResults = runs.get(0).length;
+		Result[] means = new Result[nResults];
+		Result[] stdDevs = new Result[nResults];
+		for (int i = 0; i < nResults; i++) {
+			List<Result> results = new ArrayList<Result>(runs.size());
+			for (Result[] run : runs) {
+				results.add(run[i]);
+			}
+			means[i] = Result.mean(results);
+			stdDevs[i] = Result.stdDev(results);
+		}
+		return new Result[][] {means, stdDevs};
+	}
+
+	/**
+	 * Return whether a segmenter with the given properties makes random choices, so that runs
+	 * with different seeds can give different results.
+	 * @param props the properties of the segmenter
+	 * @return whether the segmenter is stochastic
+	 */
+	public static boolean isStochastic(Properties props) {
+		return SEGMENTER_RANDOM.equals(props.getProperty(SEGMENTER_PROP)) ||
+				Boolean.parseBoolean(props.getProperty(RANDOMIZATION_PROP)) ||
+				Boolean.parseBoolean(props.getProperty(PROB_MEM_PROP));
+	}
+
+	/**
+	 * Estimate the relative cost of running the segmenter with the given properties, so that
+	 * the most expensive experiments can be started first. Only the ordering of estimates is
+	 * meaningful.
+	 * @param props the properties of the segmenter
+	 * @return the estimated cost
+	 */
+	public static double estimateCost(Properties props) {
+		String segmenter = props.getProperty(SEGMENTER_PROP);
+		double cost;
+		if (SEGMENTER_BEAM_SUBTRACTIVE.equals(segmenter)) {
+			// Each hypothesis on the beam is scored separately
+			cost = 2.0 * Math.max(1, Integer.parseInt(props.getProperty(BEAM_SIZE_PROP, "1")));
+		}
+		else if (SEGMENTER_SUBTRACTIVE.equals(segmenter) || SEGMENTER_GY.equals(segmenter)) {
+			cost = 2.0;
+		}
+		else {
+			cost = 1.0;
+		}
+		// Counting every subsequence of every utterance roughly doubles the work
+		if (Boolean.parseBoolean(props.getProperty(SUBSEQDISCOUNT_PROP))) cost *= 2.0;
+		return cost;
+	}
+
+	/**
+	 * Estimate the peak heap used by running the segmenter with the given properties, not
+	 * counting the shared gold data. The estimate errs high, as it assumes learned structures
+	 * grow as large as the corpus allows.
+	 * @param props the properties of the segmenter
+	 * @param data the data it will be run on
+	 * @return the estimated heap in bytes
+	 */
+	public static long estimateHeap(Properties props, ExperimentData data) {
+		// Segmented copies of the evaluated utterances, which only own their boundaries. With
+		// test data, the training copies are let go as they are segmented.
+		long nUtts = data.evalCorpus().size();
+		long nUnits = data.evalCorpus().nUnits();
+		long heap = nUtts * HEAP_PER_UTTERANCE + nUnits * HEAP_PER_BOUNDARY;
+
+		// Lexicon words. The Utterance segmenter stores every utterance it sees whole, and the
+		// others at most as many words as there are tokens.
+		long nTrainUnits = data.train.nUnits();
+		if (SEGMENTER_UTTERANCE.equals(props.getProperty(SEGMENTER_PROP))) {
+			heap += data.train.size() * HEAP_PER_WORD + nTrainUnits * HEAP_PER_WORD_UNIT;
+		}
+		else {
+			heap += nTrainUnits * (HEAP_PER_WORD + HEAP_PER_WORD_UNIT);
+		}
+		// The subsequence counter has a string key for every distinct subsequence
+		if (Boolean.parseBoolean(props.getProperty(SUBSEQDISCOUNT_PROP))) {
+			heap += data.train.nSubSeqs() * HEAP_PER_SUBSEQ;
+		}
+		// Scratch space for beam hypotheses and evaluation
+		return heap + HEAP_OVERHEAD;
+	}
+
+	/**
+	 * Train, test, and evaluate a segmenter on shared experiment data.
+	 * @param data the gold data, which must match the stress settings in props
+	 * @param props the segmenter properties
+	 * @param outPath the base path for output files
+	 * @param verbose whether to print progress and results
+	 * @return the boundary, word token, word type, and lexicon results
+	 */
+	public static Result[] runSegmenter(ExperimentData data, Properties props, String outPath,
+			boolean verbose) {
+		return runSegmenter(data, props, outPath, verbose, new PhaseTimer());
+	}
+
+	/**
+	 * Train, test, and evaluate a segmenter on shared experiment data, timing each phase.
+	 * The training segmentation is written out as it is made. With test data, each segmented
+	 * training utterance is then let go, and only the test segmentation is kept for
+	 * evaluation. Without test data the training segmentation is what is evaluated, so all of
+	 * it is kept until then.
+	 * @param data the gold data, which must match the stress settings in props
+	 * @param props the segmenter properties
+	 * @param outPath the base path for output files
+	 * @param verbose whether to print progress and results
+	 * @param phases the timer to record the train, test, eval, and write phases in, with eval
+	 * split into its passes. Any phase it is timing when called, such as loading, ends when
+	 * training starts.
+	 * @return the boundary, word token, word type, and lexicon results
+	 */
+	public static Result[] runSegmenter(ExperimentData data, Properties props, String outPath,
+			boolean verbose, PhaseTimer phases) {
+		boolean useTestData = data.hasTestData();
 		Segment seg = new Segment(props, outPath);
+		if (seg.DROP_STRESS != data.dropStress ||
+				seg.STRESS_SENSITIVE_LOOKUP != data.stressSensitive) {
+			throw new RuntimeException("Experiment data does not match the segmenter's " +
+					"stress settings.");
+		}
 
-		// Copy utterances into segUtterances
-		boolean dropStress = seg.DROP_STRESS;
-		List<Utterance> segTrainUtterances = Utterance.segUtterances(goldTrainUtterances,
-				dropStress);
-		List<Utterance> segTestUtterances = useTestData ?
-				Utterance.segUtterances(goldTestUtterances, dropStress) : null;
+		// Make unsegmented copies of the utterances. Only those that are evaluated at the end
+		// are kept.
+		List<Utterance> segTrainUtterances = useTestData ? null : data.train.segUtterances();
+		List<Utterance> segTestUtterances = useTestData ? data.test.segUtterances() : null;
+		PrintStream segOutput = null;
+		try {
+			segOutput = seg.openSegOutput();
+		} catch (IOException e) {
+			System.err.println("Couldn't open output files");
+		}
 
-		// Train and test
-		seg.segment(segTrainUtterances, true, verbose);
+		// Train, evaluating and writing the training data as we go, and test
+		phases.start(PhaseTimer.TRAIN);
+		seg.segment(useTestData ? data.train.segUtteranceViews() : segTrainUtterances,
+				data.train.utterances, true, verbose, segOutput);
+		if (segOutput != null) segOutput.close();
 		if (useTestData) {
+			phases.start(PhaseTimer.TEST);
 			seg.segment(segTestUtterances, false, verbose);
 		}
 
 		// Output eval. It always gets the goldTrainLexicon because the lexicon is only learned
 		// during training.
-		Result[] evalResults = seg.eval(goldTrainUtterances, segTrainUtterances,
-				goldTestUtterances, segTestUtterances, goldTrainLexicon, seg.lexicon, verbose);
-		seg.writeOutput(segTrainUtterances, seg.lexicon);
+		phases.start(PhaseTimer.EVAL);
+		Result[] evalResults = seg.eval(data, segTrainUtterances, segTestUtterances, seg.lexicon,
+				verbose, phases);
+		phases.start(PhaseTimer.WRITE);
+		seg.writeLexicon(seg.lexicon, data.train.size());
+		phases.stop();
+		seg.writeMetrics(phases);
 
 		return evalResults;
 	}
@@ -0,0 +1,155 @@
+/*
+ Copyright (C) 2013 Constantine Lignos
+
+ This file is a part of CATS.
+
+ CATS is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CATS is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CATS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.upenn.ircs.lignos.cats;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * A sweep over parameter values, such as "Beam_size=1,2,4,8 x Use_trust=true,false". Each
+ * factor gives a property and the values to try for it, and factors are separated by "x",
+ * "*", or "\u00d7". The sweep expands to every combination of values, applied on top of a set
+ * of base properties.
+ */
+public class Sweep {
+	// Separates factors; x must stand alone so it cannot be confused with part of a value
+	private static final String FACTOR_DELIM = "\\s*[*\u00d7]\\s*|\\s+x\\s+";
+	private static final String VALUE_DELIM = ",";
+	// Joins the property and value parts of condition names
+	private static final String NAME_DELIM = "_";
+
+	private final List<String> keys;
+	private final List<String[]> values;
+
+
+	private Sweep(List<String> keys, List<String[]> values) {
+		this.keys = keys;
+		this.values = values;
+	}
+
+
+	/**
+	 * A single configuration of a sweep.
+	 */
+	public static class Condition {
+		public final String name;
+		public final Properties props;
+
+		public Condition(String name, Properties props) {
+			this.name = name;
+			this.props = props;
+		}
+	}
+
+
+	/**
+	 * Parse a sweep specification.
+	 * @param spec the specification
+	 * @return the sweep
+	 * @throws IllegalArgumentException if the specification is malformed
+	 */
+	public static Sweep parse(String spec) {
+		List<String> keys = new ArrayList<String>();
+		List<String[]> values = new ArrayList<String[]>();
+		for (String factor : spec.trim().split(FACTOR_DELIM)) {
+			int eq = factor.indexOf('=');
+			if (eq <= 0 || eq == factor.length() - 1) {
+				throw new IllegalArgumentException("Sweep factor must be of the form " +
+						"property=value1,value2,...: " + factor);
+			}
+			String key = factor.substring(0, eq).trim();
+			if (keys.contains(key)) {
+				throw new IllegalArgumentException("Property appears twice in sweep: " + key);
+			}
+			String[] factorValues = factor.substring(eq + 1).split(VALUE_DELIM);
+			for (int i = 0; i < factorValues.length; i++) {
+				factorValues[i] = factorValues[i].trim();
+				if (factorValues[i].length() == 0) {
+					throw new IllegalArgumentException("Empty value in sweep factor: " + factor);
+				}
+				// Usually a missing or garbled separator between factors
+				if (factorValues[i].matches(".*\\s.*")) {
+					throw new IllegalArgumentException("Whitespace in sweep value: " +
+							factorValues[i]);
+				}
+			}
+			keys.add(key);
+			values.add(factorValues);
+		}
+		return new Sweep(Collections.unmodifiableList(keys), Collections.unmodifiableList(values));
+	}
+
+
+	/**
+	 * @return the number of conditions in the sweep
+	 */
+	public int size() {
+		int size = 1;
+		for (String[] factorValues : values) {
+			size *= factorValues.length;
+		}
+		return size;
+	}
+
+
+	/**
+	 * Expand the sweep into its conditions, with the last factor varying fastest. Each
+	 * condition is named after the values it sets, for example Beam_size-2_Use_trust-true.
+	 * @param base the properties that all conditions start from, which must define every
+	 * property in the sweep
+	 * @return the conditions
+	 * @throws IllegalArgumentException if a property in the sweep is not in base
+	 */
+	public List<Condition> expand(Properties base) {
+		for (String key : keys) {
+			if (base.getProperty(key) == null) {
+				throw new IllegalArgumentException("Sweep property is not in the base " +
+						"properties: " + key);
+			}
+		}
+
+		int size = size();
+		List<Condition> conditions = new ArrayList<Condition>(size);
+		int[] choice = new int[keys.size()];
+		for (int n = 0; n < size; n++) {
+			Properties props = new Properties();
+			props.putAll(base);
+			StringBuilder name = new StringBuilder();
+			for (int i = 0; i < choice.length; i++) {
+				String value = values.get(i)[choice[i]];
+				props.setProperty(keys.get(i), value);
+				if (i > 0) name.append(NAME_DELIM);
+				name.append(keys.get(i)).append('-').append(value);
+			}
+			conditions.add(new Condition(name.toString(), props));
+
+			// Advance to the next combination like an odometer
+			for (int i = choice.length - 1; i >= 0; i--) {
+				if (++choice[i] < values.get(i).length) {
+					break;
+				}
+				choice[i] = 0;
+			}
+		}
+		return conditions;
+	}
+}
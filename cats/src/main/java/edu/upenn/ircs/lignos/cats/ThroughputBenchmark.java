@@ -0,0 +1,434 @@
+/*
+ Copyright (C) 2013 Constantine Lignos
+
+ This file is a part of CATS.
+
+ CATS is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CATS is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CATS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.upenn.ircs.lignos.cats;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import edu.upenn.ircs.lignos.cats.metrics.Result;
+
+/**
+ * Measures end-to-end throughput of the segmenters over synthetic corpora of increasing size.
+ * Corpora are made by CorpusGenerator, so a report can be reproduced from its settings. Each
+ * segmenter and size is run in a fresh JVM so that runs don't share heap, garbage, or JIT
+ * state, and a row is written to a CSV report for each: the time of each phase, utterances and
+ * syllables segmented per second, peak live heap, and garbage collection.
+ */
+public class ThroughputBenchmark {
+	private static final String OPTION_PREFIX = "--";
+	private static final String SIZES_OPTION = "--sizes";
+	private static final String SEGMENTERS_OPTION = "--segmenters";
+	private static final String SEED_OPTION = "--seed";
+	private static final String HEAP_OPTION = "--heap";
+	private static final String WORK_DIR_OPTION = "--work-dir";
+	// Runs a single measurement, used by the parent to start each run
+	private static final String RUN_OPTION = "--run";
+	// Marks the line of results a run prints for the parent
+	private static final String RESULT_PREFIX = "RESULT,";
+
+	private static final String DEFAULT_SIZES = "1e5,1e6,1e7";
+	private static final String DEFAULT_SEGMENTERS =
+			"BeamSubtractive,Subtractive,GambellYang,Trough,Unit,Utterance,Random";
+	private static final int DEFAULT_HEAP_MB = 2048;
+	// Size of the test corpus relative to the training corpus
+	private static final int TEST_FRACTION = 10;
+	private static final String SEGMENTER_PROP = "Segmenter";
+
+	public static final String REPORT_HEADER =
+			"Segmenter,Syllables,TrainUtts,TestUtts,LoadSec,TrainSec,TestSec,EvalSec,WriteSec," +
+			"TotalSec,UttPerSec,SyllPerSec,PeakLiveHeapMB,GCs,GCSec,BF,Status";
+
+
+	/**
+	 * Load, train, test, evaluate, and write output for one segmenter, returning a row of the
+	 * report.
+	 * @param trainPath the training corpus
+	 * @param testPath the testing corpus
+	 * @param props the segmenter properties
+	 * @param outBase the base path for output files
+	 * @param nSyllables the requested size of the training corpus, used to label the row
+	 * @return the row of results, without a newline
+	 */
+	static String measure(String trainPath, String testPath, Properties props, String outBase,
+			long nSyllables) {
+		// Start from a collected heap
+		System.gc();
+		LiveHeapPeak liveHeap = new LiveHeapPeak();
+		liveHeap.start();
+		PhaseTimer phases = new PhaseTimer();
+
+		phases.start(PhaseTimer.LOAD);
+		List<Utterance> goldTrain = Utterance.loadUtterances(trainPath);
+		List<Utterance> goldTest = Utterance.loadUtterances(testPath);
+		if (goldTrain == null || goldTest == null) {
+			throw new RuntimeException("Could not read the generated corpora");
+		}
+		ExperimentData data = ExperimentData.get(goldTrain, goldTest,
+				Boolean.parseBoolean(props.getProperty(Segment.STRESS_SENSITIVE_PROP)),
+				Boolean.parseBoolean(props.getProperty(Segment.DROP_STRESS_PROP)));
+		Result[] results = Segment.runSegmenter(data, props, outBase, false, phases);
+		// The run may have ended with more live than at any collection during it
+		liveHeap.sampleNow();
+		liveHeap.stop();
+
+		// Throughput of segmentation, counting both training and testing
+		double segSeconds = (phases.get(PhaseTimer.TRAIN).wallNanos +
+				phases.get(PhaseTimer.TEST).wallNanos) / 1e9;
+		long nUtts = data.train.size() + data.test.size();
+		long nUnits = data.train.nUnits() + data.test.nUnits();
+		PhaseTimer.Phase total = phases.total();
+		return String.format("%s,%d,%d,%d,%s,%s,%s,%s,%s,%.3f,%.1f,%.1f,%d,%d,%.3f,%.4f,ok",
+				props.getProperty(SEGMENTER_PROP), nSyllables, data.train.size(),
+				data.test.size(), seconds(phases, PhaseTimer.LOAD),
+				seconds(phases, PhaseTimer.TRAIN), seconds(phases, PhaseTimer.TEST),
+				String.format("%.3f", phases.getGroup(PhaseTimer.EVAL).wallNanos / 1e9),
+				seconds(phases, PhaseTimer.WRITE),
+				total.wallNanos / 1e9, nUtts / segSeconds,
+				nUnits / segSeconds, liveHeap.get() >> 20, total.gcCount, total.gcMillis / 1e3,
+				results[0].fScore);
+	}
+
+
+	private static String seconds(PhaseTimer phases, String name) {
+		return String.format("%.3f", phases.get(name).wallNanos / 1e9);
+	}
+
+
+	/**
+	 * Tracks the most heap in use right after any garbage collection, summed over the heap
+	 * pools at that moment. Summing the peak of each pool instead would overstate the peak,
+	 * as pools peak at different times.
+	 */
+	private static final class LiveHeapPeak implements NotificationListener {
+		private final Set<String> heapPools;
+		private final List<NotificationEmitter> emitters;
+		private long peak;
+
+		LiveHeapPeak() {
+			heapPools = new HashSet<String>();
+			for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+				if (pool.getType() == MemoryType.HEAP) heapPools.add(pool.getName());
+			}
+			emitters = new ArrayList<NotificationEmitter>();
+			peak = 0;
+		}
+
+		/**
+		 * Start listening for collections.
+		 */
+		void start() {
+			for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+				if (gc instanceof NotificationEmitter) {
+					NotificationEmitter emitter = (NotificationEmitter) gc;
+					emitter.addNotificationListener(this, null, null);
+					emitters.add(emitter);
+				}
+			}
+		}
+
+		/**
+		 * Collect now and count what is left, as at the end of a collection.
+		 */
+		void sampleNow() {
+			System.gc();
+			update(ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+		}
+
+		void stop() {
+			for (NotificationEmitter emitter : emitters) {
+				try {
+					emitter.removeNotificationListener(this);
+				} catch (ListenerNotFoundException e) {
+					// Already removed
+				}
+			}
+			emitters.clear();
+		}
+
+		/**
+		 * @return the most heap in use after a collection, in bytes
+		 */
+		synchronized long get() {
+			return peak;
+		}
+
+		@Override
+		public void handleNotification(Notification notification, Object handback) {
+			if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(
+					notification.getType())) {
+				return;
+			}
+			GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from(
+					(CompositeData) notification.getUserData());
+			long used = 0;
+			for (Map.Entry<String, MemoryUsage> pool :
+					info.getGcInfo().getMemoryUsageAfterGc().entrySet()) {
+				if (heapPools.contains(pool.getKey())) used += pool.getValue().getUsed();
+			}
+			update(used);
+		}
+
+		private synchronized void update(long used) {
+			peak = Math.max(peak, used);
+		}
+	}
+
+
+	/**
+	 * Run one measurement in a new JVM and return its row of the report, or a row marked
+	 * failed if it did not finish.
+	 */
+	private static String runChild(String trainPath, String testPath, String propsPath,
+			String segmenter, String outBase, long nSyllables, int heapMB)
+			throws IOException, InterruptedException {
+		List<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator +
+				"java");
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add("-Xmx" + heapMB + "m");
+		command.add(ThroughputBenchmark.class.getName());
+		command.addAll(Arrays.asList(RUN_OPTION, trainPath, testPath, propsPath, segmenter,
+				outBase, Long.toString(nSyllables)));
+		ProcessBuilder builder = new ProcessBuilder(command);
+		builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+		Process process = builder.start();
+
+		// Only the result line matters, the rest is progress from loading
+		String row = null;
+		BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream()));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.startsWith(RESULT_PREFIX)) row = line.substring(RESULT_PREFIX.length());
+			}
+		}
+		finally {
+			in.close();
+		}
+		int status = process.waitFor();
+		if (status != 0 || row == null) {
+			System.err.println(segmenter + " on " + nSyllables + " syllables failed with status " +
+					status);
+			return segmenter + "," + nSyllables + ",,,,,,,,,,,,,,,failed";
+		}
+		return row;
+	}
+
+
+	/**
+	 * Delete the files in a directory whose names start with a prefix.
+	 */
+	private static void deleteOutputs(File dir, final String prefix) {
+		File[] files = dir.listFiles();
+		if (files == null) return;
+		for (File file : files) {
+			if (file.getName().startsWith(prefix) && !file.delete()) {
+				System.err.println("Couldn't delete " + file);
+			}
+		}
+	}
+
+
+	/**
+	 * @param args Command line arguments
+	 */
+	public static void main(String[] args) {
+		if (args.length == 7 && args[0].equals(RUN_OPTION)) {
+			Properties props = Utils.loadProps(args[3]);
+			props.setProperty(SEGMENTER_PROP, args[4]);
+			System.out.println(RESULT_PREFIX + measure(args[1], args[2], props, args[5],
+					Long.parseLong(args[6])));
+			return;
+		}
+
+		String sizesSpec = DEFAULT_SIZES;
+		String segmentersSpec = DEFAULT_SEGMENTERS;
+		long seed = CorpusGenerator.DEFAULT_SEED;
+		int heapMB = DEFAULT_HEAP_MB;
+		String workDirPath = null;
+		int argStart = 0;
+		try {
+			while (argStart < args.length && args[argStart].startsWith(OPTION_PREFIX)) {
+				if (argStart + 1 >= args.length) usage();
+				String option = args[argStart];
+				String value = args[argStart + 1];
+				if (option.equals(SIZES_OPTION)) {
+					sizesSpec = value;
+				}
+				else if (option.equals(SEGMENTERS_OPTION)) {
+					segmentersSpec = value;
+				}
+				else if (option.equals(SEED_OPTION)) {
+					seed = Long.parseLong(value);
+				}
+				else if (option.equals(HEAP_OPTION)) {
+					heapMB = Integer.parseInt(value);
+				}
+				else if (option.equals(WORK_DIR_OPTION)) {
+					workDirPath = value;
+				}
+				else {
+					usage();
+				}
+				argStart += 2;
+			}
+		}
+		catch (NumberFormatException e) {
+			usage();
+		}
+		if (args.length - argStart != 2) {
+			usage();
+		}
+		String propsPath = args[argStart];
+		String reportPath = args[argStart + 1];
+
+		long[] sizes = null;
+		try {
+			String[] sizeStrings = sizesSpec.split(",");
+			sizes = new long[sizeStrings.length];
+			for (int i = 0; i < sizes.length; i++) {
+				sizes[i] = (long) Double.parseDouble(sizeStrings[i]);
+			}
+		}
+		catch (NumberFormatException e) {
+			System.err.println("Bad corpus size in " + sizesSpec);
+			System.exit(64);
+		}
+		Arrays.sort(sizes);
+		String[] segmenters = segmentersSpec.split(",");
+		// Check the props can be read before generating anything
+		if (Utils.loadProps(propsPath) == null) {
+			System.err.println("Couldn't read properties file " + propsPath);
+			System.exit(1);
+		}
+
+		long startTime = System.currentTimeMillis();
+		Writer report = null;
+		File workDir = null;
+		try {
+			workDir = workDirPath != null ? new File(workDirPath) :
+					Files.createTempDirectory("cats-throughput").toFile();
+			if (!workDir.isDirectory() && !workDir.mkdirs()) {
+				throw new IOException("Couldn't create " + workDir);
+			}
+			report = new BufferedWriter(new FileWriter(reportPath));
+			report.write(REPORT_HEADER + "\n");
+			report.flush();
+			System.out.println(REPORT_HEADER);
+
+			for (long size : sizes) {
+				// Generate training and testing corpora from the same lexicon
+				File train = new File(workDir, "train_" + size + ".txt");
+				File test = new File(workDir, "test_" + size + ".txt");
+				System.out.println("Generating " + size + " syllables of training data...");
+				CorpusGenerator generator = new CorpusGenerator(CorpusGenerator.DEFAULT_TYPES,
+						CorpusGenerator.DEFAULT_ZIPF, CorpusGenerator.DEFAULT_SYLLABLE_WEIGHTS,
+						CorpusGenerator.DEFAULT_STRESS_INITIAL, CorpusGenerator.DEFAULT_MONO_STRESS,
+						CorpusGenerator.DEFAULT_MEAN_WORDS, seed);
+				Writer out = new BufferedWriter(new FileWriter(train), 1 << 16);
+				try {
+					generator.write(out, size);
+				}
+				finally {
+					out.close();
+				}
+				out = new BufferedWriter(new FileWriter(test), 1 << 16);
+				try {
+					generator.write(out, Math.max(1, size / TEST_FRACTION));
+				}
+				finally {
+					out.close();
+				}
+
+				for (String segmenter : segmenters) {
+					System.out.println("Running " + segmenter + " on " + size + " syllables...");
+					String prefix = "out_" + segmenter + "_" + size;
+					String row = runChild(train.getPath(), test.getPath(), propsPath, segmenter,
+							new File(workDir, prefix).getPath(), size, heapMB);
+					System.out.println(row);
+					report.write(row + "\n");
+					report.flush();
+					deleteOutputs(workDir, prefix);
+				}
+				deleteOutputs(workDir, train.getName());
+				deleteOutputs(workDir, test.getName());
+			}
+		}
+		catch (IOException e) {
+			System.err.println("Benchmark failed: " + e.getMessage());
+			System.exit(1);
+		}
+		catch (InterruptedException e) {
+			System.err.println("Execution interrupted!");
+			System.exit(1);
+		}
+		finally {
+			if (report != null) {
+				try {
+					report.close();
+				}
+				catch (IOException e) {
+					System.err.println("Couldn't close report " + reportPath);
+				}
+			}
+			if (workDirPath == null && workDir != null) workDir.delete();
+		}
+		long endTime = System.currentTimeMillis() - startTime;
+		System.out.println("Benchmark took " + endTime / 1000F + " seconds.");
+	}
+
+
+	private static void usage() {
+		System.err.println("Usage: ThroughputBenchmark [--sizes n1,n2,...] " +
+				"[--segmenters name1,name2,...] [--seed N] [--heap MB] [--work-dir dir] " +
+				"properties_file report_csv");
+		System.err.println("Each segmenter is run with the properties over generated corpora " +
+				"of each size in syllables, " + DEFAULT_SIZES + " by default, each run in its " +
+				"own JVM with the given maximum heap.");
+		System.exit(64);
+	}
+}
@@ -21,8 +21,8 @@ package edu.upenn.ircs.lignos.cats;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Scanner;
 import java.util.regex.Pattern;
@@ -37,10 +37,20 @@ public class Utterance {
 	private static final Pattern anyStressPattern = Pattern.compile("\\d");
 
 	// We use primitive arrays where possible, but since units and stresses
-	// should be able to be easily sliced, we have to use Boolean
-	private Boolean[] boundaries;
+	// should be able to be easily sliced, we have to use Boolean. Units are never
+	// modified, so they are shared between copies of an utterance.
 	private String[] units;
 	private Boolean[] stresses;
+	// Whether stresses belong to this utterance, rather than being shared with
+	// another, and can be changed in place
+	private boolean ownStresses;
+	// Boundaries are packed into bits, with bit i set if there is a boundary after
+	// unit i. Null if there are no boundaries, so unsegmented utterances need no
+	// space for them until boundaries are set. Segmenters and the lexicon still work
+	// on Boolean[], so the bits save memory in stored utterances but are expanded
+	// again by each getBoundariesCopy.
+	private long[] boundaryBits;
+	private int nBoundaries;
 	private String prettyString;
 	public final int length;
 
@@ -59,6 +69,7 @@ public class Utterance {
 		// Parse the word boundaries and set length
 		parseWordBoundaries(text, gold);
 		length = units.length;
+		ownStresses = true;
 
 		// Reduce stress if needed
 		if (reduceStress)
@@ -74,34 +85,63 @@ public class Utterance {
 	public Utterance(String[] units, Boolean[] stresses, Boolean[] boundaries){
 		this.units = units;
 		this.stresses = stresses;
-		this.boundaries = boundaries;
+		ownStresses = false;
+		setBoundaries(boundaries);
 		length = units.length;
 	}
 
 	/**
 	 * Create an utterance by copying fields from the specified utterance, copying boundaries if
-	 * specified.
+	 * specified. Units and stresses are shared with the original, and stresses are copied
+	 * before being changed.
 	 * @param utt the utterance to copy from
 	 * @param copyBoundaries whether to copy boundaries over
 	 */
 	public Utterance(Utterance utt, boolean copyBoundaries){
-		units = Arrays.copyOf(utt.units, utt.units.length);
-		stresses = Arrays.copyOf(utt.stresses, utt.stresses.length);
-		if (copyBoundaries) {
-			boundaries = Arrays.copyOf(utt.boundaries, utt.boundaries.length);
-		}
-		else {
-			boundaries = new Boolean[utt.boundaries.length];
-			Arrays.fill(boundaries, false);
+		units = utt.units;
+		stresses = utt.stresses;
+		ownStresses = false;
+		nBoundaries = utt.nBoundaries;
+		if (copyBoundaries && utt.boundaryBits != null) {
+			boundaryBits = Arrays.copyOf(utt.boundaryBits, utt.boundaryBits.length);
 		}
 		length = units.length;
 	}
 
+	/**
+	 * Create an unsegmented view of an utterance to give to a segmenter. The view shares the
+	 * units of the original and has no boundaries until they are set, so it costs little more
+	 * than the object itself.
+	 * @param utt the utterance to view
+	 * @param stresses the stresses to give the segmenter, which may be shared with utt or
+	 * others. They are copied before being changed.
+	 */
+	public Utterance(Utterance utt, Boolean[] stresses) {
+		units = utt.units;
+		this.stresses = stresses;
+		ownStresses = false;
+		nBoundaries = utt.nBoundaries;
+		length = units.length;
+	}
+
 
 	/**
 	 * Reduce the stresses in the utterance
 	 */
 	public void reduceStresses() {
+		if (!ownStresses) {
+			stresses = Arrays.copyOf(stresses, stresses.length);
+			ownStresses = true;
+		}
+		reduceStresses(stresses);
+	}
+
+
+	/**
+	 * Reduce the given stresses in place
+	 * @param stresses the stresses to reduce
+	 */
+	public static void reduceStresses(Boolean[] stresses) {
 		// Do a look-ahead stress reduction- if current and next unit have stress,
 		// reduce the current
 		for (int i=0; i < stresses.length - 1; i++) {
@@ -116,14 +156,43 @@ public class Utterance {
 	 * @return the text representing the segmented version of the utterance
 	 */
 	public String getSegText(){
-		return makeSegText(units, stresses, boundaries);
+		StringBuilder out = new StringBuilder();
+		for (int i = 0; i < units.length - 1; i++) {
+			out.append(units[i]);
+			if (stresses[i]) out.append("(1)");
+			out.append(isBoundary(i) ? WORD_BOUNDARY : SYLL_BOUNDARY);
+		}
+		out.append(units[units.length - 1]);
+		if (stresses[units.length - 1]) out.append("(1)");
+		return out.toString();
 	}
 
 	/**
 	 * @return a copy of the boundaries
 	 */
 	public Boolean[] getBoundariesCopy() {
-		return Arrays.copyOf(boundaries, boundaries.length);
+		Boolean[] boundaries = new Boolean[nBoundaries];
+		if (boundaryBits == null) {
+			// Unsegmented, as every utterance given to a segmenter is
+			Arrays.fill(boundaries, Boolean.FALSE);
+			return boundaries;
+		}
+		for (int i = 0; i < nBoundaries; i++) {
+			boundaries[i] = (boundaryBits[i >>> 6] & (1L << i)) != 0;
+		}
+		return boundaries;
+	}
+
+
+	/**
+	 * @param i the index of the boundary
+	 * @return whether there is a boundary after unit i
+	 */
+	public boolean isBoundary(int i) {
+		if (i < 0 || i >= nBoundaries) {
+			throw new ArrayIndexOutOfBoundsException(i);
+		}
+		return boundaryBits != null && (boundaryBits[i >>> 6] & (1L << i)) != 0;
 	}
 
 
@@ -148,7 +217,17 @@ public class Utterance {
 	 * @param boundaries the boundaries to set
 	 */
 	public void setBoundaries(Boolean[] boundaries) {
-		this.boundaries = boundaries;
+		nBoundaries = boundaries.length;
+		long[] bits = null;
+		for (int i = 0; i < boundaries.length; i++) {
+			if (boundaries[i]) {
+				if (bits == null) {
+					bits = new long[(boundaries.length + 63) >>> 6];
+				}
+				bits[i >>> 6] |= 1L << i;
+			}
+		}
+		boundaryBits = bits;
 	}
 
 
@@ -161,9 +240,9 @@ public class Utterance {
 	 * are [1, 0]. Note that utterance-initial and final boundaries are not noted.
 	 */
 	private void parseWordBoundaries(String text, boolean gold) {
-		List<String> unitList = new LinkedList<String>();
-		List<Boolean> stressList = new LinkedList<Boolean>();
-		List<Boolean> boundaryList = new LinkedList<Boolean>();
+		List<String> unitList = new ArrayList<String>();
+		List<Boolean> stressList = new ArrayList<Boolean>();
+		List<Boolean> boundaryList = new ArrayList<Boolean>();
 
 		// Find each unit/boundary.
 		int idx = 0; // Define outside so it carries over
@@ -204,7 +283,7 @@ public class Utterance {
 		stressList.add(primaryStressPattern.matcher(unit).matches());
 
 		// Convert into arrays for fast access later.
-		boundaries = boundaryList.toArray(new Boolean[boundaryList.size()]);
+		setBoundaries(boundaryList.toArray(new Boolean[boundaryList.size()]));
 		units = unitList.toArray(new String[unitList.size()]);
 		stresses = stressList.toArray(new Boolean[stressList.size()]);
 	}
@@ -222,16 +301,17 @@ public class Utterance {
 
 
 	/**
-	 * Create a copy of gold utterances for segmentation by copying and removing all boundaries.
+	 * Create unsegmented views of gold utterances for segmentation. The views share units and,
+	 * unless stress is reduced, stresses with the gold utterances.
 	 * @param goldUtterances the gold utterances to copy from
 	 * @param dropStress whether to reduce stress in the copied utterances
 	 * @return a List of Utterances to be used as input to a segmenter
 	 */
 	public static List<Utterance> segUtterances(List<Utterance> goldUtterances,
 			boolean dropStress) {
-		List<Utterance> segUtterances = new LinkedList<Utterance>();
+		List<Utterance> segUtterances = new ArrayList<Utterance>(goldUtterances.size());
 		for (Utterance utt : goldUtterances) {
-			Utterance segUtt = new Utterance(utt, false);
+			Utterance segUtt = new Utterance(utt, utt.stresses);
 			if (dropStress) {
 				segUtt.reduceStresses();
 			}
@@ -246,12 +326,11 @@ public class Utterance {
 	 * @return a List of Utterances
 	 */
 	public static List<Utterance> loadUtterances(String path) {
-		List<Utterance> goldUtterances = new LinkedList<Utterance>();
+		List<Utterance> goldUtterances = new ArrayList<Utterance>();
 		Scanner input = null;
 		try {
 			System.out.println("Loading utterances from " + path + " ...");
 			input = new Scanner(new File(path));
-			goldUtterances = new LinkedList<Utterance>();
 
 			// Parse each line as an utterance
 			String line;
@@ -20,6 +20,7 @@
 package edu.upenn.ircs.lignos.cats.counters;
 
 import java.util.Map;
+import java.util.Set;
 import gnu.trove.map.hash.THashMap;
 
 /**
@@ -51,4 +52,29 @@ public class SimpleCounter {
 		Integer count = counts.get(item);
 		return count == null ? 0 : count;
 	}
+
+	/**
+	 * Set the count of the specified item.
+	 * @param item the item to set the count of
+	 * @param count the new count
+	 */
+	public void set(Object item, int count) {
+		counts.put(item, count);
+	}
+
+	/**
+	 * Returns the number of distinct items counted.
+	 * @return the number of items
+	 */
+	public int size() {
+		return counts.size();
+	}
+
+	/**
+	 * Returns all counted items and their counts.
+	 * @return a view of the counts
+	 */
+	public Set<Map.Entry<Object, Integer>> entrySet() {
+		return counts.entrySet();
+	}
 }
@@ -19,8 +19,12 @@
 
 package edu.upenn.ircs.lignos.cats.counters;
 
+import java.io.IOException;
 import java.util.Arrays;
+import java.util.Map;
 
+import edu.upenn.ircs.lignos.cats.BinaryInput;
+import edu.upenn.ircs.lignos.cats.BinaryOutput;
 import edu.upenn.ircs.lignos.cats.Utils;
 
 /**
@@ -34,9 +38,12 @@ public class SubSeqCounter {
 	private static final String KEY_DELIM = "|";
 
 	private SimpleCounter counter;
+	// Incremented on every change to the counts so that callers can cache lookups
+	private long version;
 
 	public SubSeqCounter() {
 		counter = new SimpleCounter();
+		version = 0;
 	}
 
 	/**
@@ -54,6 +61,7 @@ public class SubSeqCounter {
 	 */
 	public void inc(String[] units) {
 		counter.inc(makeKey(units));
+		version++;
 	}
 
 	/**
@@ -65,6 +73,15 @@ public class SubSeqCounter {
 		return counter.get(makeKey(units));
 	}
 
+	/**
+	 * Returns the version of the counts, which changes whenever any count changes. A count
+	 * looked up when the version was v is still valid if the version is still v.
+	 * @return the current version
+	 */
+	public long getVersion() {
+		return version;
+	}
+
 	/**
 	 * Increment the count of all possible subsequences of the specified units.
 	 * @param units the units to count subsequences of
@@ -78,4 +95,30 @@ public class SubSeqCounter {
 			}
 		}
 	}
+
+	/**
+	 * Write all counts to a snapshot.
+	 * @param out the snapshot to write to
+	 * @throws IOException if writing fails
+	 */
+	public void write(BinaryOutput out) throws IOException {
+		out.writeInt(counter.size());
+		for (Map.Entry<Object, Integer> entry : counter.entrySet()) {
+			out.writeString((String) entry.getKey());
+			out.writeInt(entry.getValue());
+		}
+	}
+
+	/**
+	 * Read counts written by write, replacing the counts of any sequences already counted.
+	 * @param in the snapshot to read from
+	 * @throws IOException if reading fails
+	 */
+	public void read(BinaryInput in) throws IOException {
+		int size = in.readInt();
+		for (int i = 0; i < size; i++) {
+			counter.set(in.readString(), in.readInt());
+		}
+		version++;
+	}
 }
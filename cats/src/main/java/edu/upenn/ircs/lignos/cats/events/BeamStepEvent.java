@@ -0,0 +1,52 @@
+/*
+ Copyright (C) 2013 Constantine Lignos
+
+ This file is a part of CATS.
+
+ CATS is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CATS is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CATS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.upenn.ircs.lignos.cats.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * One step of the beam search, extending every hypothesis in the beam by a word.
+ */
+@Name("cats.BeamStep")
+@Label("Beam Step")
+@Category({"CATS", "Segmentation"})
+@StackTrace(false)
+public class BeamStepEvent extends Event {
+	@Label("Utterance Length")
+	@Description("Units in the utterance being segmented")
+	public int utteranceLength;
+
+	@Label("Step")
+	@Description("Steps taken before this one in the utterance")
+	public int step;
+
+	@Label("Beam Size")
+	@Description("Hypotheses in the beam at the start of the step")
+	public int beamSize;
+
+	@Label("Candidates")
+	@Description("Hypotheses made by the step, before pruning to the beam size")
+	public int candidates;
+}
@@ -0,0 +1,52 @@
+/*
+ Copyright (C) 2013 Constantine Lignos
+
+ This file is a part of CATS.
+
+ CATS is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CATS is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CATS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.upenn.ircs.lignos.cats.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A reward or penalty to a word in the lexicon.
+ */
+@Name("cats.LexiconUpdate")
+@Label("Lexicon Update")
+@Category({"CATS", "Lexicon"})
+@StackTrace(false)
+public class LexiconUpdateEvent extends Event {
+	@Label("Reward")
+	@Description("True for a reward, false for a penalty")
+	public boolean reward;
+
+	@Label("New Word")
+	@Description("Whether the reward added the word to the lexicon")
+	public boolean newWord;
+
+	@Label("Word Length")
+	@Description("Units in the word")
+	public int wordLength;
+
+	@Label("Score")
+	@Description("Score of the word after the update")
+	public double score;
+}
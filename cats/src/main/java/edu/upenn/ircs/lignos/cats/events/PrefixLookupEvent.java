@@ -0,0 +1,56 @@
+/*
+ Copyright (C) 2013 Constantine Lignos
+
+ This file is a part of CATS.
+
+ CATS is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CATS is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CATS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.upenn.ircs.lignos.cats.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * A lookup of the words in the lexicon that begin at a position in an utterance. Only
+ * lookups that take longer than the threshold are recorded, as there is one for every
+ * position of every hypothesis.
+ */
+@Name("cats.PrefixLookup")
+@Label("Prefix Lookup")
+@Category({"CATS", "Lexicon"})
+@Threshold("20 us")
+@StackTrace(false)
+public class PrefixLookupEvent extends Event {
+	@Label("Utterance Length")
+	@Description("Units in the utterance")
+	public int utteranceLength;
+
+	@Label("Position")
+	@Description("Index of the unit the prefixes begin at")
+	public int position;
+
+	@Label("Prefix Candidates")
+	@Description("Prefixes looked up, ending at the first unit that is in no word")
+	public int prefixCandidates;
+
+	@Label("Prefix Words")
+	@Description("Prefixes that were recalled as words")
+	public int prefixWords;
+}
@@ -0,0 +1,47 @@
+/*
+ Copyright (C) 2013 Constantine Lignos
+
+ This file is a part of CATS.
+
+ CATS is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CATS is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CATS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.upenn.ircs.lignos.cats.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The segmentation of one utterance, while training or testing.
+ */
+@Name("cats.SegmentUtterance")
+@Label("Segment Utterance")
+@Category({"CATS", "Segmentation"})
+@StackTrace(false)
+public class SegmentUtteranceEvent extends Event {
+	@Label("Segmenter")
+	public String segmenter;
+
+	@Label("Utterance Length")
+	@Description("Units (syllables or phonemes) in the utterance")
+	public int utteranceLength;
+
+	@Label("Training")
+	@Description("Whether the lexicon learned from the utterance")
+	public boolean training;
+}
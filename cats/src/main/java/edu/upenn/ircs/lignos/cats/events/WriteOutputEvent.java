@@ -0,0 +1,46 @@
+/*
+ Copyright (C) 2013 Constantine Lignos
+
+ This file is a part of CATS.
+
+ CATS is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CATS is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CATS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.upenn.ircs.lignos.cats.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Writing the lexicon and lexicon snapshot of a run, along with the segmentation when it was
+ * not written as it was made.
+ */
+@Name("cats.WriteOutput")
+@Label("Write Output")
+@Category({"CATS", "Output"})
+public class WriteOutputEvent extends Event {
+	@Label("Output Base")
+	@Description("Path the output file names are made from")
+	public String outputBase;
+
+	@Label("Utterances")
+	public int utterances;
+
+	@Label("Words")
+	@Description("Words in the lexicon written")
+	public int words;
+}
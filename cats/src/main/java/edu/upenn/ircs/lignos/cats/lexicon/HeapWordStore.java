@@ -0,0 +1,167 @@
+/*
+ Copyright (C) 2013 Constantine Lignos
+
+ This file is a part of CATS.
+
+ CATS is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CATS is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CATS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.upenn.ircs.lignos.cats.lexicon;
+
+import java.util.Arrays;
+
+/**
+ * A WordStore that keeps its columns in primitive arrays on the Java heap.
+ */
+class HeapWordStore extends WordStore {
+	// Unit arena and the stress counts for each unit in it
+	private int[] arena;
+	private int[] stressCounts;
+
+	// Per-word columns
+	private int[] offsets;
+	private int[] hashes;
+	private double[] scores;
+	private long[] timestamps;
+	private int[] observedStressCounts;
+	private double[] cachedScores;
+	private long[] cachedScoreEpochs;
+	private int[] cachedSubSeqCounts;
+	private long[] cachedSubSeqVersions;
+
+	private int[] table;
+
+
+	HeapWordStore(boolean stressSensitive) {
+		super(stressSensitive);
+		arena = new int[INITIAL_WORDS * 2];
+		stressCounts = new int[arena.length];
+
+		offsets = new int[INITIAL_WORDS + 1];
+		hashes = new int[INITIAL_WORDS];
+		scores = new double[INITIAL_WORDS];
+		timestamps = new long[INITIAL_WORDS];
+		observedStressCounts = new int[INITIAL_WORDS];
+		cachedScores = new double[INITIAL_WORDS];
+		cachedScoreEpochs = new long[INITIAL_WORDS];
+		cachedSubSeqCounts = new int[INITIAL_WORDS];
+		cachedSubSeqVersions = new long[INITIAL_WORDS];
+
+		clearTable(INITIAL_WORDS * 2);
+	}
+
+
+	@Override
+	double getScore(int id) {return scores[id];}
+
+	@Override
+	void setScore(int id, double score) {scores[id] = score;}
+
+	@Override
+	long getTimestamp(int id) {return timestamps[id];}
+
+	@Override
+	void setTimestamp(int id, long timestamp) {timestamps[id] = timestamp;}
+
+	@Override
+	int getObservedStressCount(int id) {return observedStressCounts[id];}
+
+	@Override
+	protected void setObservedStressCount(int id, int count) {observedStressCounts[id] = count;}
+
+	@Override
+	double getCachedScore(int id) {return cachedScores[id];}
+
+	@Override
+	long getCachedScoreEpoch(int id) {return cachedScoreEpochs[id];}
+
+	@Override
+	void setCachedScore(int id, double score, long epoch) {
+		cachedScores[id] = score;
+		cachedScoreEpochs[id] = epoch;
+	}
+
+	@Override
+	int getCachedSubSeqCount(int id) {return cachedSubSeqCounts[id];}
+
+	@Override
+	long getCachedSubSeqVersion(int id) {return cachedSubSeqVersions[id];}
+
+	@Override
+	void setCachedSubSeqCount(int id, int count, long version) {
+		cachedSubSeqCounts[id] = count;
+		cachedSubSeqVersions[id] = version;
+	}
+
+	@Override
+	protected int getOffset(int id) {return offsets[id];}
+
+	@Override
+	protected void setOffset(int id, int offset) {offsets[id] = offset;}
+
+	@Override
+	protected int getHash(int id) {return hashes[id];}
+
+	@Override
+	protected void setHash(int id, int hash) {hashes[id] = hash;}
+
+	@Override
+	protected int wordCapacity() {return scores.length;}
+
+	@Override
+	protected void growWords(int capacity) {
+		offsets = Arrays.copyOf(offsets, capacity + 1);
+		hashes = Arrays.copyOf(hashes, capacity);
+		scores = Arrays.copyOf(scores, capacity);
+		timestamps = Arrays.copyOf(timestamps, capacity);
+		observedStressCounts = Arrays.copyOf(observedStressCounts, capacity);
+		cachedScores = Arrays.copyOf(cachedScores, capacity);
+		cachedScoreEpochs = Arrays.copyOf(cachedScoreEpochs, capacity);
+		cachedSubSeqCounts = Arrays.copyOf(cachedSubSeqCounts, capacity);
+		cachedSubSeqVersions = Arrays.copyOf(cachedSubSeqVersions, capacity);
+	}
+
+	@Override
+	protected int getArena(int pos) {return arena[pos];}
+
+	@Override
+	protected void setArena(int pos, int unit) {arena[pos] = unit;}
+
+	@Override
+	protected int getStressCount(int pos) {return stressCounts[pos];}
+
+	@Override
+	protected void setStressCount(int pos, int count) {stressCounts[pos] = count;}
+
+	@Override
+	protected int arenaCapacity() {return arena.length;}
+
+	@Override
+	protected void growArena(int capacity) {
+		arena = Arrays.copyOf(arena, capacity);
+		stressCounts = Arrays.copyOf(stressCounts, capacity);
+	}
+
+	@Override
+	protected int getSlot(int slot) {return table[slot];}
+
+	@Override
+	protected void setSlot(int slot, int id) {table[slot] = id;}
+
+	@Override
+	protected void allocateTable(int length) {
+		table = new int[length];
+		Arrays.fill(table, EMPTY);
+	}
+}
@@ -19,28 +19,32 @@
 
 package edu.upenn.ircs.lignos.cats.lexicon;
 
-import edu.upenn.ircs.lignos.cats.Utils;
+import edu.upenn.ircs.lignos.cats.BinaryInput;
+import edu.upenn.ircs.lignos.cats.BinaryOutput;
 import edu.upenn.ircs.lignos.cats.Utterance;
 import edu.upenn.ircs.lignos.cats.counters.SubSeqCounter;
+import edu.upenn.ircs.lignos.cats.events.LexiconUpdateEvent;
+import edu.upenn.ircs.lignos.cats.events.PrefixLookupEvent;
+import edu.upenn.ircs.lignos.cats.metrics.SegmentationMetrics;
 import edu.upenn.ircs.lignos.cats.segmenters.SegUtil;
-import gnu.trove.map.hash.THashMap;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
-import java.util.Map;
 import java.util.Random;
 
 public class Lexicon {
-	private static final String KEY_DELIM = "|";
-
 	// TODO: Make these configurable
 	// Amount to penalize
 	private static final double PENALTY = 1.0;
 	private static final double INIT_SCORE = 1.0;
 	private static final double UNKNOWN_WORD_SCORE = .5;
 	private static final double SMOOTHING_MIN = 1.0;
+	// Marks the start of a snapshot file and its format version
+	private static final int SNAPSHOT_MAGIC = 0x43415453;
+	private static final int SNAPSHOT_VERSION = 1;
 
 	public final boolean stressSensitive;
 	private final boolean trace;
@@ -49,6 +53,8 @@ public class Lexicon {
 	private final boolean NORMALIZATION;
 	// Constant used for probabilistic memory
 	private final double probAmount;
+	// Constant used for decay, 0.0 if words do not decay
+	private final double decayAmt;
 	// The initial score given to a word
 	private final double initScore;
 	// The score used as a dummy for unknown words
@@ -61,12 +67,17 @@ public class Lexicon {
 	// TODO: It's impossible to efficiently sync token count and decay. As every term
 	// gets the same denominator, this should not matter for normalization.
 	private long numTokens;
+	// Incremented whenever anything that affects effective word scores changes. Cached word
+	// scores are only valid if they were computed in the current epoch.
+	private long epoch;
 	// Our random number generator
 	private Random rand;
 	// The subsequence counter
 	private SubSeqCounter counter;
+	// Where lookups are recorded, null if they are not
+	private SegmentationMetrics metrics;
 
-	private Map<String, Word> lexicon;
+	private WordStore store;
 
 
 	/**
@@ -76,6 +87,20 @@ public class Lexicon {
 	 */
 	public Lexicon(boolean stressSensitive, boolean trace, boolean useTrust, boolean useProbMem,
 			boolean useNorm, double probAmount, double decayAmount, SubSeqCounter counter) {
+		this(stressSensitive, trace, useTrust, useProbMem, useNorm, probAmount, decayAmount,
+				counter, false);
+	}
+
+
+	/**
+	 * Create a new, empty lexicon, choosing where its words are stored.
+	 * @param stressSensitive whether the lexicon should take stress into account
+	 * @param trace whether to output tracing information
+	 * @param offHeap whether to store words outside of the Java heap
+	 */
+	public Lexicon(boolean stressSensitive, boolean trace, boolean useTrust, boolean useProbMem,
+			boolean useNorm, double probAmount, double decayAmount, SubSeqCounter counter,
+			boolean offHeap) {
 		this.stressSensitive = stressSensitive;
 		this.trace = trace;
 		this.useTrust = useTrust;
@@ -92,35 +117,32 @@ public class Lexicon {
 		this.unknownWordScore = UNKNOWN_WORD_SCORE;
 
 		// Set up decay on words
-		if (decayAmount != 0.0) {
-			Word.setDecay(true, decayAmount);
-		}
+		this.decayAmt = decayAmount;
 
-		lexicon = new THashMap<String, Word>();
+		store = WordStore.create(stressSensitive, offHeap);
 		time = 1;
 		numTokens = 0;
+		epoch = 0;
 		rand = new Random(0);
 	}
 
 
 	/**
-	 * Make a lexicon key for the given text and stress information, taking
-	 * stress sensitivity into account.
-	 * @param text the text to generate a key from
-	 * @param stress the matching stress information for the text
-	 * @return a key made from the text
+	 * Seed the random number generator used for probabilistic recall, so that runs with
+	 * different seeds recall words independently. A new lexicon behaves as if seeded with 0.
+	 * @param seed the seed
 	 */
-	private String makeKey(String[] text, Boolean[] stresses) {
-		StringBuilder key = new StringBuilder();
-		key.append(Utils.join(text, KEY_DELIM));
-
-		// If we're stress sensitive, tack the stresses on the end, note
-		// we just use 1s and 0s to keep the string shorter than true/false would
-		if (stressSensitive) {
-			for (Boolean stress : stresses)
-				key.append(stress ? '1' : '0');
-		}
-		return key.toString();
+	public void setSeed(long seed) {
+		rand.setSeed(seed);
+	}
+
+
+	/**
+	 * Record prefix lookups in the given metrics.
+	 * @param metrics the metrics, or null to stop recording
+	 */
+	public void setMetrics(SegmentationMetrics metrics) {
+		this.metrics = metrics;
 	}
 
 
@@ -132,7 +154,67 @@ public class Lexicon {
 	 * @return a Word if the word is found, null otherwise
 	 */
 	public Word getWord(String[] units, Boolean[] stresses){
-		return lexicon.get(makeKey(units, stresses));
+		int id = store.find(units, stresses, 0, units.length);
+		return id == -1 ? null : new Word(store, id);
+	}
+
+
+	/**
+	 * Returns the Word with the given id. Ids are dense, running from 0 to size() - 1 in the
+	 * order words were added.
+	 * @param id the id of the word
+	 * @return the Word
+	 */
+	public Word getWord(int id) {
+		return new Word(store, id);
+	}
+
+
+	/**
+	 * Returns the id of the word in this lexicon matching a word in another
+	 * lexicon, or -1 if it is not in this lexicon. No keys or Words are built.
+	 * @param source the lexicon holding the word
+	 * @param sourceId the id of the word in source
+	 * @return the id of the word in this lexicon or -1
+	 */
+	public int findWord(Lexicon source, int sourceId) {
+		return store.find(source.store, sourceId);
+	}
+
+
+	/**
+	 * @return the number of words in the lexicon, including any not considered
+	 * to be "in" it for evaluation
+	 */
+	public int size() {
+		return store.size();
+	}
+
+
+	/**
+	 * @return the number of units in the word with the given id
+	 */
+	public int wordLength(int id) {
+		return store.length(id);
+	}
+
+
+	/**
+	 * @return whether the word with the given id appears to be stress-initial
+	 */
+	public boolean isStressInitial(int id) {
+		return Word.isStressInitial(store, id);
+	}
+
+
+	/**
+	 * Returns whether the word with the given id is "in" the lexicon. This
+	 * should only be used in evaluation.
+	 * @param id the id of the word
+	 * @return true if the word has an acceptable score, false otherwise
+	 */
+	public boolean isEvalWord(int id) {
+		return recallWord(id);
 	}
 
 
@@ -144,7 +226,7 @@ public class Lexicon {
 	 * @return true if a matching Word with acceptable score is found, false otherwise
 	 */
 	public boolean isEvalWord(String[] units, Boolean[] stresses){
-		return isEvalWord(lexicon.get(makeKey(units, stresses)));
+		return isEvalWord(getWord(units, stresses));
 	}
 
 
@@ -166,16 +248,18 @@ public class Lexicon {
 	 * @return true if the word was recalled successfully, false otherwise
 	 */
 	public boolean recallWord(Word w){
-		if (w == null) {
-			return false;
-		}
-		else if (useProbMem) {
+		return w != null && recallWord(w.id);
+	}
+
+
+	private boolean recallWord(int id) {
+		if (useProbMem) {
 			// Probabilistically look up the word
-			return probMemRecallRate(w.getScore(time)) > rand.nextDouble();
+			return probMemRecallRate(Word.getScore(store, id, time, decayAmt)) > rand.nextDouble();
 		}
 		else {
 			// Return just whether the word has a positive score
-			return w.getScore(time) > 0;
+			return Word.getScore(store, id, time, decayAmt) > 0;
 		}
 	}
 
@@ -187,38 +271,66 @@ public class Lexicon {
 	 * @return
 	 */
 	public void rewardWord(String[] units, Boolean[] stresses) {
-		// Look up the key, check if the word is there, create it if needed
-		String key = makeKey(units, stresses);
-		Word w = lexicon.get(key);
-		if (w == null) {
-			w = new Word(units, stresses, this.initScore, time);
-			lexicon.put(key, w);
-			if (trace) System.out.println("Added " + w + " " + w.getScore(time) +
-					(counter != null ? " " + counter.get(w.units) : ""));
+		rewardWord(units, stresses, 0, units.length);
+	}
+
+
+	/**
+	 * Increment the word made up of units[start, end) in the lexicon
+	 * @param units units of the utterance containing the word
+	 * @param stresses the matching stresses
+	 * @param start index of the first unit of the word
+	 * @param end index after the last unit of the word
+	 */
+	private void rewardWord(String[] units, Boolean[] stresses, int start, int end) {
+		// Check if the word is there, create it if needed
+		int id = store.find(units, stresses, start, end);
+		boolean added = id == -1;
+		if (added) {
+			id = store.add(units, stresses, start, end, this.initScore, time);
+			if (trace) {
+				Word w = new Word(store, id);
+				System.out.println("Added " + w + " " + w.getScore(time, decayAmt) +
+						(counter != null ? " " + counter.get(w.getUnits()) : ""));
+			}
 			// All new words start with an initial score, so they don't need
 			// to be incremented like existing words
 		}
 		else {
 			// Increment the word's score
-			incWord(w);
+			incWord(id);
 		}
 		// Count the token
 		numTokens++;
+		epoch++;
 
 		// Note the stress information
-		w.countStress(stresses);
+		store.countStress(id, stresses, start);
+
+		LexiconUpdateEvent event = new LexiconUpdateEvent();
+		if (event.shouldCommit()) {
+			event.reward = true;
+			event.newWord = added;
+			event.wordLength = end - start;
+			event.score = store.getScore(id);
+			event.commit();
+		}
 	}
 
 
 	/**
 	 * Increment a word known to be in the lexicon. This indirection is provided
 	 * to allow for any bookkeeping on increment
-	 * @param w
+	 * @param id
 	 */
-	private void incWord(Word w) {
-		w.increment(time);
-		if (trace) System.out.println("Incremented " + w + " " + w.getScore(time) +
-				(counter != null ? " " + counter.get(w.units) : ""));
+	private void incWord(int id) {
+		store.setScore(id, store.getScore(id) + 1);
+		store.setTimestamp(id, time);
+		if (trace) {
+			Word w = new Word(store, id);
+			System.out.println("Incremented " + w + " " + w.getScore(time, decayAmt) +
+					(counter != null ? " " + counter.get(w.getUnits()) : ""));
+		}
 	}
 
 
@@ -230,14 +342,30 @@ public class Lexicon {
 		w.decrement(PENALTY);
 		// Uncount the token. This is needed to keep normalization in sync
 		numTokens -= PENALTY;
-		if (trace) System.out.println("Penalized " + w + " " + w.getScore(time));
+		epoch++;
+		if (trace) System.out.println("Penalized " + w + " " + w.getScore(time, decayAmt));
+
+		LexiconUpdateEvent event = new LexiconUpdateEvent();
+		if (event.shouldCommit()) {
+			event.reward = false;
+			event.newWord = false;
+			event.wordLength = wordLength(w.id);
+			event.score = store.getScore(w.id);
+			event.commit();
+		}
 	}
 
 
 	/**
 	 * @return a Collection of the words in the lexicon
 	 */
-	public Collection<Word> getWords(){return lexicon.values();}
+	public Collection<Word> getWords(){
+		ArrayList<Word> words = new ArrayList<Word>(store.size());
+		for (int id = 0; id < store.size(); id++) {
+			words.add(new Word(store, id));
+		}
+		return words;
+	}
 
 
 	/**
@@ -257,17 +385,18 @@ public class Lexicon {
 			wordsTrusts = SegUtil.wordsTrusts(trusts, boundaries);
 		}
 
-		// Get slices of the stresses and units in this utterance
-		Object[][] wordsUnits =
-			SegUtil.slicesFromAllBoundaries(units, boundaries);
-		Object[][] wordsStresses =
-			SegUtil.slicesFromAllBoundaries(stresses, boundaries);
-
-		// Each element of the outer array represents units/stresses for a single word
-		for (int i = 0; i < wordsUnits.length; i++) {
-			// Reward if no trust info was provided or if trusted
-			if (wordsTrusts == null || wordsTrusts[i]) {
-				rewardWord(((String[]) wordsUnits[i]), ((Boolean[]) wordsStresses[i]));
+		// Reward each word in place. Word i runs from the unit after the previous
+		// boundary up to and including the unit before boundary i.
+		int start = 0;
+		int word = 0;
+		for (int i = 0; i <= boundaries.length; i++) {
+			if (i == boundaries.length || boundaries[i]) {
+				// Reward if no trust info was provided or if trusted
+				if (wordsTrusts == null || wordsTrusts[word]) {
+					rewardWord(units, stresses, start, i + 1);
+				}
+				start = i + 1;
+				word++;
 			}
 		}
 	}
@@ -284,23 +413,28 @@ public class Lexicon {
 	 */
 	public double[] utteranceWordsScores(String[] units, Boolean[] stresses, Boolean[] boundaries,
 			SubSeqCounter counter) {
-		// Get slices of the stresses and units in this utterance
-		Object[][] wordsUnits =
-			SegUtil.slicesFromAllBoundaries(units, boundaries);
-		Object[][] wordsStresses =
-			SegUtil.slicesFromAllBoundaries(stresses, boundaries);
-
-		// Each element of the outer array represents units/stresses for a single word
-		double[] wordsScores = new double[wordsUnits.length];
-		for (int i = 0; i < wordsUnits.length; i++) {
-			Word w = getWord((String[]) wordsUnits[i], ((Boolean[]) wordsStresses[i]));
-			// If the word is missing, give the initial score
-			if (w == null) {
-				wordsScores[i] = getNewWordScore();
-			}
-			else {
-				// If it's there, smooth up to the minimum if needed
-				wordsScores[i] = getScore(w, counter);
+		int nWords = 1;
+		for (Boolean boundary : boundaries) {
+			if (boundary) nWords++;
+		}
+
+		// Score each word in place, as in incUtteranceWords
+		double[] wordsScores = new double[nWords];
+		int start = 0;
+		int word = 0;
+		for (int i = 0; i <= boundaries.length; i++) {
+			if (i == boundaries.length || boundaries[i]) {
+				int id = store.find(units, stresses, start, i + 1);
+				// If the word is missing, give the initial score
+				if (id == -1) {
+					wordsScores[word] = getNewWordScore();
+				}
+				else {
+					// If it's there, smooth up to the minimum if needed
+					wordsScores[word] = getScore(id, counter);
+				}
+				start = i + 1;
+				word++;
 			}
 		}
 		return wordsScores;
@@ -331,6 +465,8 @@ public class Lexicon {
 	 * @return an ArrayList of Words that are prefixes, in order of increasing length
 	 */
 	public ArrayList<Word> getPrefixWords(Utterance utt, int index) {
+		PrefixLookupEvent event = new PrefixLookupEvent();
+		event.begin();
 		String[] units = utt.getUnits();
 		Boolean[] stresses = utt.getStresses();
 		ArrayList<Word> prefixWords = new ArrayList<Word>();
@@ -339,16 +475,40 @@ public class Lexicon {
 		if (index >= units.length || index < 0)
 			throw new RuntimeException("Starting index out of range.");
 
-		// Take progressively larger slices of the utterance. Since the
-		// slice end index is exclusive, i can go up to units.length
-		for (int i = index + 1; i <= units.length; i++) {
-			String[] prefixUnits = Arrays.copyOfRange(units, index, i);
-			Boolean[] prefixStresses = Arrays.copyOfRange(stresses, index, i);
+		// Encode the rest of the utterance. Encoding stops at the first unit that
+		// is in no word, as no longer prefix can be a word.
+		int[] keys = new int[units.length - index];
+		int nKeys = store.encode(units, stresses, index, units.length, keys);
+
+		// Take progressively larger prefixes of the utterance, extending
+		// the hash of the previous prefix by one unit each time
+		int hash = WordStore.hashKeys(keys, 0, 0);
+		int hits = 0;
+		for (int i = 0; i < nKeys; i++) {
+			hash = WordStore.extendHash(hash, keys[i]);
 
 			// Add to the list if the current prefix is a word with a positive
 			// score
-			Word w = getWord(prefixUnits, prefixStresses);
-			if (w != null && recallWord(w)) prefixWords.add(w);
+			int id = store.find(keys, 0, i + 1, hash);
+			if (id == -1) continue;
+			hits++;
+			if (recallWord(id)) prefixWords.add(new Word(store, id));
+		}
+
+		// Record once per position rather than once per prefix
+		if (metrics != null) {
+			metrics.lexiconLookups.add(nKeys);
+			metrics.lexiconHits.add(hits);
+			metrics.lexiconMisses.add(nKeys - hits);
+			metrics.recallFailures.add(hits - prefixWords.size());
+			metrics.prefixesPerPosition.record(prefixWords.size());
+		}
+		if (event.shouldCommit()) {
+			event.utteranceLength = units.length;
+			event.position = index;
+			event.prefixCandidates = nKeys;
+			event.prefixWords = prefixWords.size();
+			event.commit();
 		}
 
 		return prefixWords;
@@ -415,23 +575,107 @@ public class Lexicon {
 	 */
 	public void tick() {
 		time++;
+		epoch++;
 	}
 
 
 	/**
 	 * Return the score of a word. Wraps the word function and provides the time
-	 * to it.
+	 * to it. The smoothed and normalized score is cached in the word until the
+	 * lexicon changes, and the subsequence count is cached until the counter
+	 * changes, so repeated calls for the same word are cheap.
 	 * @param w the word to get the score of
+	 * @param counter the subsequence counter to discount scores by, null if not needed
 	 * @return the word's score at the current time
 	 */
 	public double getScore(Word w, SubSeqCounter counter) {
-		// Smooth sub-minimal scores
-		double score = Math.max(w.getScore(time), getSmoothingMin());
+		return getScore(w.id, counter);
+	}
+
+
+	private double getScore(int id, SubSeqCounter counter) {
+		if (store.getCachedScoreEpoch(id) != epoch) {
+			// Smooth sub-minimal scores
+			double score = Math.max(Word.getScore(store, id, time, decayAmt), getSmoothingMin());
+			// Account for normalization
+			store.setCachedScore(id, NORMALIZATION ? score / numTokens : score, epoch);
+		}
+
+		// Then account for sequence frequency
+		if (counter == null) {
+			return store.getCachedScore(id);
+		}
+		else if (counter != this.counter) {
+			// Only the lexicon's own counter is cached
+			return store.getCachedScore(id) / counter.get(store.getUnits(id));
+		}
+		else {
+			if (store.getCachedSubSeqVersion(id) != counter.getVersion()) {
+				store.setCachedSubSeqCount(id, counter.get(store.getUnits(id)),
+						counter.getVersion());
+			}
+			return store.getCachedScore(id) / store.getCachedSubSeqCount(id);
+		}
+	}
+
+
+	/**
+	 * Write the learned state of the lexicon to a binary snapshot: every word with its score,
+	 * timestamp, and stress counts, the current time and token count, and the subsequence
+	 * counts if the lexicon has a counter. Settings such as decay or probabilistic memory are
+	 * not saved and are taken from the lexicon the snapshot is read into.
+	 * @param path the path to write the snapshot to
+	 * @throws IOException if the snapshot cannot be written
+	 */
+	public void writeSnapshot(String path) throws IOException {
+		BinaryOutput out = new BinaryOutput(path);
+		try {
+			out.writeInt(SNAPSHOT_MAGIC);
+			out.writeInt(SNAPSHOT_VERSION);
+			out.writeBoolean(stressSensitive);
+			out.writeLong(time);
+			out.writeLong(numTokens);
+			store.write(out);
+			out.writeBoolean(counter != null);
+			if (counter != null) {
+				counter.write(out);
+			}
+		}
+		finally {
+			out.close();
+		}
+	}
+
 
-		// Account for normalization, and then sequence frequency
-		score = NORMALIZATION ? score / numTokens : score;
-		score = counter != null ? score / counter.get(w.units) : score;
-		return score;
+	/**
+	 * Load a snapshot written by writeSnapshot into this lexicon, which must be empty.
+	 * Throws a RuntimeException if the snapshot is not valid or was written by a lexicon with
+	 * different stress sensitivity. Subsequence counts are only loaded if this lexicon has a
+	 * counter.
+	 * @param path the path to read the snapshot from
+	 * @throws IOException if the snapshot cannot be read
+	 */
+	public void readSnapshot(String path) throws IOException {
+		BinaryInput in = new BinaryInput(path);
+		try {
+			if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+				throw new RuntimeException("Not a valid lexicon snapshot: " + path);
+			}
+			if (in.readBoolean() != stressSensitive) {
+				throw new RuntimeException("Snapshot stress sensitivity does not match lexicon.");
+			}
+			time = in.readLong();
+			numTokens = in.readLong();
+			store.read(in);
+			if (in.readBoolean() && counter != null) {
+				counter.read(in);
+			}
+		}
+		finally {
+			in.close();
+		}
+		// Nothing cached before loading is valid now
+		epoch++;
 	}
 
 
@@ -446,7 +690,7 @@ public class Lexicon {
 		 */
 		@Override
 		public int compare(Word o1, Word o2) {
-			return (int) Math.signum(o1.getScore(time) - o2.getScore(time));
+			return (int) Math.signum(o1.getScore(time, decayAmt) - o2.getScore(time, decayAmt));
 		}
 	}
 
@@ -457,6 +701,6 @@ public class Lexicon {
 	 * @return a formatted string representation
 	 */
 	public String dumpWord(Word w) {
-		return w.toOutputString(time);
+		return w.toOutputString(time, decayAmt);
 	}
 }
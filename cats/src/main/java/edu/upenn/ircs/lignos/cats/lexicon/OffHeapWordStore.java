@@ -0,0 +1,218 @@
+/*
+ Copyright (C) 2013 Constantine Lignos
+
+ This file is a part of CATS.
+
+ CATS is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CATS is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CATS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.upenn.ircs.lignos.cats.lexicon;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * A WordStore that keeps its columns, arena and lookup table in direct buffers outside of the
+ * Java heap. Lexicons with tens of millions of entries then cost the garbage collector only a
+ * handful of buffer objects. Direct memory is limited by -XX:MaxDirectMemorySize, which
+ * defaults to the maximum heap size. Buffers are used rather than MemorySegment, as the
+ * foreign memory API is not final until Java 22.
+ */
+class OffHeapWordStore extends WordStore {
+	// Unit arena and the stress counts for each unit in it
+	private IntBuffer arena;
+	private IntBuffer stressCounts;
+
+	// Per-word columns
+	private IntBuffer offsets;
+	private IntBuffer hashes;
+	private DoubleBuffer scores;
+	private LongBuffer timestamps;
+	private IntBuffer observedStressCounts;
+	private DoubleBuffer cachedScores;
+	private LongBuffer cachedScoreEpochs;
+	private IntBuffer cachedSubSeqCounts;
+	private LongBuffer cachedSubSeqVersions;
+	private int wordCapacity;
+
+	private IntBuffer table;
+
+
+	OffHeapWordStore(boolean stressSensitive) {
+		super(stressSensitive);
+		arena = allocate(INITIAL_WORDS * 2, 4).asIntBuffer();
+		stressCounts = allocate(arena.capacity(), 4).asIntBuffer();
+
+		wordCapacity = 0;
+		growWords(INITIAL_WORDS);
+
+		clearTable(INITIAL_WORDS * 2);
+	}
+
+
+	@Override
+	double getScore(int id) {return scores.get(id);}
+
+	@Override
+	void setScore(int id, double score) {scores.put(id, score);}
+
+	@Override
+	long getTimestamp(int id) {return timestamps.get(id);}
+
+	@Override
+	void setTimestamp(int id, long timestamp) {timestamps.put(id, timestamp);}
+
+	@Override
+	int getObservedStressCount(int id) {return observedStressCounts.get(id);}
+
+	@Override
+	protected void setObservedStressCount(int id, int count) {observedStressCounts.put(id, count);}
+
+	@Override
+	double getCachedScore(int id) {return cachedScores.get(id);}
+
+	@Override
+	long getCachedScoreEpoch(int id) {return cachedScoreEpochs.get(id);}
+
+	@Override
+	void setCachedScore(int id, double score, long epoch) {
+		cachedScores.put(id, score);
+		cachedScoreEpochs.put(id, epoch);
+	}
+
+	@Override
+	int getCachedSubSeqCount(int id) {return cachedSubSeqCounts.get(id);}
+
+	@Override
+	long getCachedSubSeqVersion(int id) {return cachedSubSeqVersions.get(id);}
+
+	@Override
+	void setCachedSubSeqCount(int id, int count, long version) {
+		cachedSubSeqCounts.put(id, count);
+		cachedSubSeqVersions.put(id, version);
+	}
+
+	@Override
+	protected int getOffset(int id) {return offsets.get(id);}
+
+	@Override
+	protected void setOffset(int id, int offset) {offsets.put(id, offset);}
+
+	@Override
+	protected int getHash(int id) {return hashes.get(id);}
+
+	@Override
+	protected void setHash(int id, int hash) {hashes.put(id, hash);}
+
+	@Override
+	protected int wordCapacity() {return wordCapacity;}
+
+	@Override
+	protected void growWords(int capacity) {
+		offsets = copy(offsets, allocate(capacity + 1, 4).asIntBuffer());
+		hashes = copy(hashes, allocate(capacity, 4).asIntBuffer());
+		scores = copy(scores, allocate(capacity, 8).asDoubleBuffer());
+		timestamps = copy(timestamps, allocate(capacity, 8).asLongBuffer());
+		observedStressCounts = copy(observedStressCounts, allocate(capacity, 4).asIntBuffer());
+		cachedScores = copy(cachedScores, allocate(capacity, 8).asDoubleBuffer());
+		cachedScoreEpochs = copy(cachedScoreEpochs, allocate(capacity, 8).asLongBuffer());
+		cachedSubSeqCounts = copy(cachedSubSeqCounts, allocate(capacity, 4).asIntBuffer());
+		cachedSubSeqVersions = copy(cachedSubSeqVersions, allocate(capacity, 8).asLongBuffer());
+		wordCapacity = capacity;
+	}
+
+	@Override
+	protected int getArena(int pos) {return arena.get(pos);}
+
+	@Override
+	protected void setArena(int pos, int unit) {arena.put(pos, unit);}
+
+	@Override
+	protected int getStressCount(int pos) {return stressCounts.get(pos);}
+
+	@Override
+	protected void setStressCount(int pos, int count) {stressCounts.put(pos, count);}
+
+	@Override
+	protected int arenaCapacity() {return arena.capacity();}
+
+	@Override
+	protected void growArena(int capacity) {
+		arena = copy(arena, allocate(capacity, 4).asIntBuffer());
+		stressCounts = copy(stressCounts, allocate(capacity, 4).asIntBuffer());
+	}
+
+	@Override
+	protected int getSlot(int slot) {return table.get(slot);}
+
+	@Override
+	protected void setSlot(int slot, int id) {table.put(slot, id);}
+
+	@Override
+	protected void allocateTable(int length) {
+		table = allocate(length, 4).asIntBuffer();
+		for (int i = 0; i < length; i++) {
+			table.put(i, EMPTY);
+		}
+	}
+
+
+	/**
+	 * Allocate a direct buffer for count items of the given size in bytes.
+	 */
+	private static ByteBuffer allocate(int count, int itemBytes) {
+		long bytes = (long) count * itemBytes;
+		if (bytes > Integer.MAX_VALUE) {
+			throw new RuntimeException("Lexicon is too large for off-heap storage.");
+		}
+		return ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder());
+	}
+
+
+	/**
+	 * Copy the contents of an old buffer, if any, into the start of a new one.
+	 */
+	private static IntBuffer copy(IntBuffer from, IntBuffer to) {
+		if (from != null) {
+			IntBuffer src = from.duplicate();
+			src.clear();
+			to.put(src);
+			to.clear();
+		}
+		return to;
+	}
+
+	private static LongBuffer copy(LongBuffer from, LongBuffer to) {
+		if (from != null) {
+			LongBuffer src = from.duplicate();
+			src.clear();
+			to.put(src);
+			to.clear();
+		}
+		return to;
+	}
+
+	private static DoubleBuffer copy(DoubleBuffer from, DoubleBuffer to) {
+		if (from != null) {
+			DoubleBuffer src = from.duplicate();
+			src.clear();
+			to.put(src);
+			to.clear();
+		}
+		return to;
+	}
+}
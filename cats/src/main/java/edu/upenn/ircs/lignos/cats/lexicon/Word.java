@@ -24,69 +24,31 @@ import java.util.Arrays;
 import edu.upenn.ircs.lignos.cats.Utils;
 
 /**
- * Representation of a word
+ * Representation of a word. A Word is a lightweight view of an entry in the
+ * columnar storage of a lexicon, so two Words can refer to the same entry.
  */
 public class Word {
-	// Set by the lexicon to determine the decay computed
-	private static boolean decay;
-	private static double decayAmt;
-
-	public final String[] units;
-	public final Boolean[] stresses;
-	private String prettyString;
-	private double score;
+	private final WordStore store;
+	final int id;
 	public final int length;
-	public long timestamp;
-	private int[] observedStresses;
-	private int observedStressCount;
 
 
 	/**
-	 * Create a new word with score zero with the given units and stresses.
-	 * @param units the units that make up the word
-	 * @param stresses the stress on each unit
-	 */
-	public Word(String[] units, Boolean[] stresses) {
-		this.units = units;
-		this.stresses = stresses;
-		this.score = 0.0;
-		this.length = units.length;
-		this.timestamp = 0;
-		this.observedStresses = new int[stresses.length];
-		Arrays.fill(this.observedStresses, 0);
-		this.observedStressCount = 0;
-	}
-
-
-	/**
-	 * Create a new word with the given initial score and units and stresses.
-	 * @param units the units that make up the word
-	 * @param stresses the stress on each unit
-	 * @param initialScore the score to start with
-	 */
-	public Word(String[] units, Boolean[] stresses, double initialScore, long
-			timestamp) {
-		this.units = units;
-		this.stresses = stresses;
-		this.score = initialScore;
-		this.length = units.length;
-		this.timestamp = timestamp;
-		this.observedStresses = new int[stresses.length];
-		Arrays.fill(this.observedStresses, 0);
-		this.observedStressCount = 0;
+	 * Create a view of the word with the given id in a store.
+	 * @param store the store holding the word
+	 * @param id the id of the word in the store
+	 */
+	Word(WordStore store, int id) {
+		this.store = store;
+		this.id = id;
+		this.length = store.length(id);
 	}
 
 
 	/**
-	 * Set whether or not decay is being used and the constant to use when
-	 * calculating decay.
-	 * @param decay
-	 * @param decayAmt
+	 * @return the id of the word in its lexicon
 	 */
-	public static void setDecay(boolean decay, double decayAmt) {
-		Word.decay = decay;
-		Word.decayAmt = decayAmt;
-	}
+	public int getId() {return id;}
 
 
 	/**
@@ -95,8 +57,8 @@ public class Word {
 	 * lexicon methods instead.
 	 */
 	protected void increment(long timestamp) {
-		score++;
-		this.timestamp = timestamp;
+		store.setScore(id, store.getScore(id) + 1);
+		store.setTimestamp(id, timestamp);
 	}
 
 
@@ -107,8 +69,8 @@ public class Word {
 	 * @param amount amount to increment the count
 	 */
 	protected void increment(double amount, long timestamp) {
-		score += amount;
-		this.timestamp = timestamp;
+		store.setScore(id, store.getScore(id) + amount);
+		store.setTimestamp(id, timestamp);
 	}
 
 
@@ -118,17 +80,34 @@ public class Word {
 	 * lexicon methods instead.
 	 * @param amount amount to decrement the count
 	 */
-	protected void decrement(double amount) {score -= amount;}
+	protected void decrement(double amount) {store.setScore(id, store.getScore(id) - amount);}
 
 
 	/**
 	 * Return the score of the word. If decay is in use, this is relative to the
 	 * current time.
 	 * @param timestamp the current time
+	 * @param decayAmt the decay constant of the lexicon, 0.0 if decay is not in use
 	 * @return the count given the current time
 	 */
-	protected double getScore(long timestamp) {
-		return decay ? decayScore(timestamp - this.timestamp, score) : score;
+	protected double getScore(long timestamp, double decayAmt) {
+		return getScore(store, id, timestamp, decayAmt);
+	}
+
+
+	/**
+	 * Return the score of the word with the given id. If decay is in use, this is
+	 * relative to the current time.
+	 * @param store the store holding the word
+	 * @param id the id of the word
+	 * @param timestamp the current time
+	 * @param decayAmt the decay constant of the lexicon, 0.0 if decay is not in use
+	 * @return the count given the current time
+	 */
+	static double getScore(WordStore store, int id, long timestamp, double decayAmt) {
+		double score = store.getScore(id);
+		return decayAmt != 0.0 ?
+				decayScore(timestamp - store.getTimestamp(id), score, decayAmt) : score;
 	}
 
 
@@ -136,9 +115,10 @@ public class Word {
 	 * Compute the decay function for the given elapsed time and raw score.
 	 * @param elapsedTime the time elapsed
 	 * @param rawScore the raw score
+	 * @param decayAmt the decay constant
 	 * @return the decayed score
 	 */
-	private static double decayScore(long elapsedTime, double rawScore) {
+	private static double decayScore(long elapsedTime, double rawScore, double decayAmt) {
 		return rawScore * Math.exp(-elapsedTime * decayAmt);
 	}
 
@@ -146,22 +126,35 @@ public class Word {
 	/**
 	 * @return the Word's raw score, not adjusted for the current time
 	 */
-	protected double getRawScore() {return score;}
+	protected double getRawScore() {return store.getScore(id);}
 
 
 	/**
 	 * @return the timestamp
 	 */
-	public long getTimestamp() {return timestamp;}
+	public long getTimestamp() {return store.getTimestamp(id);}
+
+
+	/**
+	 * @return the units that make up the word
+	 */
+	public String[] getUnits() {return store.getUnits(id);}
+
+
+	/**
+	 * @return the stress on each unit
+	 */
+	public Boolean[] getStresses() {return store.getStresses(id);}
 
 
 	/**
 	 * Formats the word for a lexicon dump.
 	 * @param timestamp the current time
+	 * @param decayAmt the decay constant of the lexicon, 0.0 if decay is not in use
 	 * @return a string representation of the word
 	 */
-	public String toOutputString(long timestamp){
-		return getScore(timestamp) + " " + toString();
+	public String toOutputString(long timestamp, double decayAmt){
+		return getScore(timestamp, decayAmt) + " " + toString();
 	}
 
 
@@ -170,10 +163,7 @@ public class Word {
 	 */
 	@Override
 	public String toString(){
-		if (prettyString == null) {
-			prettyString = Utils.formatUnits(units, stresses);
-		}
-		return prettyString;
+		return Utils.formatUnits(getUnits(), getStresses());
 	}
 
 
@@ -186,8 +176,12 @@ public class Word {
 			return false;
 		else {
 			Word otherWord = (Word) other;
-			return Arrays.equals(stresses, otherWord.stresses) &&
-				Arrays.equals(units, otherWord.units);
+			// Within a store, every entry is a different word
+			if (store == otherWord.store) {
+				return id == otherWord.id;
+			}
+			return Arrays.equals(getStresses(), otherWord.getStresses()) &&
+				Arrays.equals(getUnits(), otherWord.getUnits());
 		}
 	}
 
@@ -206,11 +200,7 @@ public class Word {
 	 * @param stresses stress the word appeared with
 	 */
 	public void countStress(Boolean[] stresses) {
-		// Add to observed stresses
-		for(int i = 0; i < stresses.length; i++) {
-			observedStresses[i] += stresses[i] ? 1 : 0;
-		}
-		observedStressCount++;
+		store.countStress(id, stresses, 0);
 	}
 
 
@@ -220,13 +210,16 @@ public class Word {
 	 * @return whether the word appears to be stress-initial
 	 */
 	public boolean isStressInitial() {
-		// Get the normalized stress rate for the word
-		double[] normStresses = new double[stresses.length];
-		for(int i = 0; i < stresses.length; i++) {
-			normStresses[i] = observedStresses[i] / (float) observedStressCount;
-		}
-		// Check whether the initial is above .5
-		return normStresses[0] > .5;
+		return isStressInitial(store, id);
+	}
+
+
+	/**
+	 * @return whether the word with the given id is usually stressed on its first unit
+	 */
+	static boolean isStressInitial(WordStore store, int id) {
+		// Check whether the normalized stress rate of the initial is above .5
+		return store.getObservedStress(id, 0) / (float) store.getObservedStressCount(id) > .5;
 	}
 
 
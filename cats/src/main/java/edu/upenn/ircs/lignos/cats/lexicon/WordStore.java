@@ -0,0 +1,511 @@
+/*
+ Copyright (C) 2013 Constantine Lignos
+
+ This file is a part of CATS.
+
+ CATS is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CATS is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CATS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.upenn.ircs.lignos.cats.lexicon;
+
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.upenn.ircs.lignos.cats.BinaryInput;
+import edu.upenn.ircs.lignos.cats.BinaryOutput;
+
+/**
+ * Columnar storage for the words of a lexicon. Each word is given a dense id when it is added,
+ * and all of its information is kept in columns indexed by that id. The units of all
+ * words are interned and stored back to back in a single int arena, with the primary stress of
+ * each unit packed into the low bit. Words are looked up through an open addressing table over
+ * the arena, so no key strings are ever built.
+ *
+ * This class holds the lookup logic; subclasses decide where the columns, arena and table
+ * live.
+ */
+abstract class WordStore {
+	protected static final int INITIAL_WORDS = 1024;
+	// Marks an empty slot in the lookup table
+	protected static final int EMPTY = -1;
+	private static final int NO_UNIT = -1;
+
+	// Mask applied to arena entries before comparing keys; drops stress if we ignore it
+	private final int keyMask;
+
+	// Unit interning. The number of distinct units is small, so this always stays on the heap.
+	private final TObjectIntHashMap<String> unitIds;
+	private final List<String> unitNames;
+
+	private int arenaSize;
+	private int size;
+	private int tableMask;
+
+
+	/**
+	 * Create an empty store.
+	 * @param stressSensitive whether words that differ only in stress are different words
+	 */
+	protected WordStore(boolean stressSensitive) {
+		keyMask = stressSensitive ? ~0 : ~1;
+		unitIds = new TObjectIntHashMap<String>(INITIAL_WORDS, 0.5f, NO_UNIT);
+		unitNames = new ArrayList<String>();
+		arenaSize = 0;
+		size = 0;
+	}
+
+
+	/**
+	 * Create an empty store of the requested kind.
+	 * @param stressSensitive whether words that differ only in stress are different words
+	 * @param offHeap whether to keep words outside of the Java heap
+	 * @return a new store
+	 */
+	static WordStore create(boolean stressSensitive, boolean offHeap) {
+		return offHeap ? new OffHeapWordStore(stressSensitive) : new HeapWordStore(stressSensitive);
+	}
+
+
+	/**
+	 * @return the number of words stored
+	 */
+	int size() {return size;}
+
+
+	/**
+	 * Fill keys with the key of each unit in units[start, end). Returns the number of units
+	 * encoded, which is less than end - start if a unit has never been stored, in which case no
+	 * word containing it can be in the store.
+	 * @param units the units to encode
+	 * @param stresses the matching stresses
+	 * @param start index of the first unit
+	 * @param end index after the last unit
+	 * @param keys output array, which must hold at least end - start items
+	 * @return the number of units successfully encoded
+	 */
+	int encode(String[] units, Boolean[] stresses, int start, int end, int[] keys) {
+		for (int i = start; i < end; i++) {
+			int unitId = unitIds.get(units[i]);
+			if (unitId == NO_UNIT) {
+				return i - start;
+			}
+			keys[i - start] = packUnit(unitId, stresses[i]) & keyMask;
+		}
+		return end - start;
+	}
+
+
+	/**
+	 * Return the id of the word made up of units[start, end), or -1 if it is not stored.
+	 */
+	int find(String[] units, Boolean[] stresses, int start, int end) {
+		int[] keys = new int[end - start];
+		if (encode(units, stresses, start, end, keys) != keys.length) {
+			return -1;
+		}
+		return find(keys, 0, keys.length, hashKeys(keys, 0, keys.length));
+	}
+
+
+	/**
+	 * Return the id of the word whose keys are keys[from, to), or -1 if it is not stored.
+	 * @param keys encoded keys, as produced by encode
+	 * @param from the first key
+	 * @param to the index after the last key
+	 * @param hash the hash of the keys, as produced by hashKeys or extendHash
+	 * @return the id of the word or -1
+	 */
+	int find(int[] keys, int from, int to, int hash) {
+		for (int slot = mix(hash) & tableMask; ; slot = (slot + 1) & tableMask) {
+			int id = getSlot(slot);
+			if (id == EMPTY) {
+				return -1;
+			}
+			if (getHash(id) == hash && keysEqual(id, keys, from, to)) {
+				return id;
+			}
+		}
+	}
+
+
+	/**
+	 * Return the id of the word in this store with the same units as a word in another store,
+	 * or -1 if it is not stored. Units are matched by name, so the stores do not need to share
+	 * unit ids, and nothing is allocated.
+	 * @param source the store holding the word
+	 * @param sourceId the id of the word in source
+	 * @return the id of the word in this store or -1
+	 */
+	int find(WordStore source, int sourceId) {
+		int from = source.getOffset(sourceId);
+		int to = source.getOffset(sourceId + 1);
+		int hash = 1;
+		for (int pos = from; pos < to; pos++) {
+			int key = translate(source, source.getArena(pos));
+			if (key == NO_UNIT) {
+				return -1;
+			}
+			hash = extendHash(hash, key);
+		}
+
+		for (int slot = mix(hash) & tableMask; ; slot = (slot + 1) & tableMask) {
+			int id = getSlot(slot);
+			if (id == EMPTY) {
+				return -1;
+			}
+			if (getHash(id) == hash && keysEqual(id, source, from, to)) {
+				return id;
+			}
+		}
+	}
+
+
+	/**
+	 * Add the word made up of units[start, end), which must not already be stored.
+	 * @return the id of the new word
+	 */
+	int add(String[] units, Boolean[] stresses, int start, int end, double score, long timestamp) {
+		ensureCapacity(end - start);
+
+		// Intern the units into the arena
+		int hash = 1;
+		for (int i = start; i < end; i++) {
+			int unitId = unitIds.get(units[i]);
+			if (unitId == NO_UNIT) {
+				unitId = unitNames.size();
+				unitIds.put(units[i], unitId);
+				unitNames.add(units[i]);
+			}
+			int unit = packUnit(unitId, stresses[i]);
+			setArena(arenaSize, unit);
+			setStressCount(arenaSize, 0);
+			hash = extendHash(hash, unit & keyMask);
+			arenaSize++;
+		}
+
+		return commit(hash, score, timestamp);
+	}
+
+
+	/**
+	 * Write all words to a snapshot. Unit ids are only meaningful within a store, so the unit
+	 * names are written first.
+	 * @param out the snapshot to write to
+	 * @throws IOException if writing fails
+	 */
+	void write(BinaryOutput out) throws IOException {
+		out.writeInt(unitNames.size());
+		for (String unit : unitNames) {
+			out.writeString(unit);
+		}
+
+		out.writeInt(size);
+		for (int id = 0; id < size; id++) {
+			out.writeInt(length(id));
+			for (int pos = getOffset(id); pos < getOffset(id + 1); pos++) {
+				out.writeInt(getArena(pos));
+				out.writeInt(getStressCount(pos));
+			}
+			out.writeDouble(getScore(id));
+			out.writeLong(getTimestamp(id));
+			out.writeInt(getObservedStressCount(id));
+		}
+	}
+
+
+	/**
+	 * Read words written by write into this store, which must be empty. Words keep the ids they
+	 * had when they were written.
+	 * @param in the snapshot to read from
+	 * @throws IOException if reading fails
+	 */
+	void read(BinaryInput in) throws IOException {
+		if (size != 0) {
+			throw new IllegalStateException("Cannot read words into a non-empty store.");
+		}
+
+		int nUnits = in.readInt();
+		for (int unitId = 0; unitId < nUnits; unitId++) {
+			String unit = in.readString();
+			unitIds.put(unit, unitId);
+			unitNames.add(unit);
+		}
+
+		int nWords = in.readInt();
+		for (int i = 0; i < nWords; i++) {
+			int length = in.readInt();
+			ensureCapacity(length);
+			int hash = 1;
+			for (int j = 0; j < length; j++) {
+				int unit = in.readInt();
+				setArena(arenaSize, unit);
+				setStressCount(arenaSize, in.readInt());
+				hash = extendHash(hash, unit & keyMask);
+				arenaSize++;
+			}
+			int id = commit(hash, in.readDouble(), in.readLong());
+			setObservedStressCount(id, in.readInt());
+		}
+	}
+
+
+	/**
+	 * Make room for one more word of the given length.
+	 */
+	private void ensureCapacity(int length) {
+		if (size + 1 > wordCapacity()) {
+			growWords(Math.max(size + 1, wordCapacity() * 2));
+		}
+		if (arenaSize + length > arenaCapacity()) {
+			growArena(Math.max(arenaSize + length, arenaCapacity() * 2));
+		}
+	}
+
+
+	/**
+	 * Give an id to the word whose units were just added to the end of the arena, initialize
+	 * its columns, and add it to the lookup table.
+	 * @return the id of the new word
+	 */
+	private int commit(int hash, double score, long timestamp) {
+		int id = size++;
+		setOffset(size, arenaSize);
+		setHash(id, hash);
+		setScore(id, score);
+		setTimestamp(id, timestamp);
+		setObservedStressCount(id, 0);
+		setCachedScore(id, 0.0, -1);
+		setCachedSubSeqCount(id, 0, -1);
+
+		// Grow the table before it gets more than half full
+		if (size * 2 > tableMask + 1) {
+			clearTable((tableMask + 1) * 2);
+			for (int i = 0; i < size - 1; i++) {
+				insert(i);
+			}
+		}
+		insert(id);
+
+		return id;
+	}
+
+
+	/**
+	 * @return the hash of keys[from, to)
+	 */
+	static int hashKeys(int[] keys, int from, int to) {
+		int hash = 1;
+		for (int i = from; i < to; i++) {
+			hash = extendHash(hash, keys[i]);
+		}
+		return hash;
+	}
+
+
+	/**
+	 * Extend a hash by one more key, allowing the hashes of all prefixes of a sequence of
+	 * keys to be computed in one pass.
+	 */
+	static int extendHash(int hash, int key) {
+		return 31 * hash + key;
+	}
+
+
+	int length(int id) {return getOffset(id + 1) - getOffset(id);}
+
+
+	/**
+	 * @return the units of a word
+	 */
+	String[] getUnits(int id) {
+		String[] units = new String[length(id)];
+		for (int i = 0, pos = getOffset(id); i < units.length; i++, pos++) {
+			units[i] = unitNames.get(getArena(pos) >>> 1);
+		}
+		return units;
+	}
+
+
+	/**
+	 * @return the stresses a word was stored with
+	 */
+	Boolean[] getStresses(int id) {
+		Boolean[] stresses = new Boolean[length(id)];
+		for (int i = 0, pos = getOffset(id); i < stresses.length; i++, pos++) {
+			stresses[i] = (getArena(pos) & 1) == 1;
+		}
+		return stresses;
+	}
+
+
+	/**
+	 * Note the stress that a word appeared with.
+	 * @param id the word
+	 * @param stresses stresses of the utterance the word appeared in
+	 * @param start index in stresses of the first unit of the word
+	 */
+	void countStress(int id, Boolean[] stresses, int start) {
+		for (int i = start, pos = getOffset(id); pos < getOffset(id + 1); i++, pos++) {
+			if (stresses[i]) setStressCount(pos, getStressCount(pos) + 1);
+		}
+		setObservedStressCount(id, getObservedStressCount(id) + 1);
+	}
+
+
+	/**
+	 * @return how many times the given unit of a word was observed with primary stress
+	 */
+	int getObservedStress(int id, int unit) {return getStressCount(getOffset(id) + unit);}
+
+
+	/**
+	 * Reset the lookup table to the given power of two length with all slots empty.
+	 */
+	protected final void clearTable(int length) {
+		allocateTable(length);
+		tableMask = length - 1;
+	}
+
+
+	// Per-word columns
+	abstract double getScore(int id);
+
+	abstract void setScore(int id, double score);
+
+	abstract long getTimestamp(int id);
+
+	abstract void setTimestamp(int id, long timestamp);
+
+	abstract int getObservedStressCount(int id);
+
+	abstract double getCachedScore(int id);
+
+	abstract long getCachedScoreEpoch(int id);
+
+	abstract void setCachedScore(int id, double score, long epoch);
+
+	abstract int getCachedSubSeqCount(int id);
+
+	abstract long getCachedSubSeqVersion(int id);
+
+	abstract void setCachedSubSeqCount(int id, int count, long version);
+
+	protected abstract void setObservedStressCount(int id, int count);
+
+	protected abstract int getOffset(int id);
+
+	protected abstract void setOffset(int id, int offset);
+
+	protected abstract int getHash(int id);
+
+	protected abstract void setHash(int id, int hash);
+
+	protected abstract int wordCapacity();
+
+	protected abstract void growWords(int capacity);
+
+	// Arena of packed units and matching observed stress counts
+	protected abstract int getArena(int pos);
+
+	protected abstract void setArena(int pos, int unit);
+
+	protected abstract int getStressCount(int pos);
+
+	protected abstract void setStressCount(int pos, int count);
+
+	protected abstract int arenaCapacity();
+
+	protected abstract void growArena(int capacity);
+
+	// Lookup table
+	protected abstract int getSlot(int slot);
+
+	protected abstract void setSlot(int slot, int id);
+
+	/**
+	 * Replace the lookup table with one of the given length with all slots set to EMPTY.
+	 */
+	protected abstract void allocateTable(int length);
+
+
+	private static int packUnit(int unitId, boolean stress) {
+		return unitId << 1 | (stress ? 1 : 0);
+	}
+
+
+	private boolean keysEqual(int id, int[] keys, int from, int to) {
+		int start = getOffset(id);
+		if (getOffset(id + 1) - start != to - from) {
+			return false;
+		}
+		for (int i = from, pos = start; i < to; i++, pos++) {
+			if ((getArena(pos) & keyMask) != keys[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	/**
+	 * Version of keysEqual for a word in another store whose packed units are in
+	 * source's arena at [from, to).
+	 */
+	private boolean keysEqual(int id, WordStore source, int from, int to) {
+		int start = getOffset(id);
+		if (getOffset(id + 1) - start != to - from) {
+			return false;
+		}
+		for (int i = from, pos = start; i < to; i++, pos++) {
+			if ((getArena(pos) & keyMask) != translate(source, source.getArena(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	/**
+	 * Convert a packed unit from another store into a key for this one, or NO_UNIT if the
+	 * unit has never been stored here.
+	 */
+	private int translate(WordStore source, int unit) {
+		int unitId = source == this ? unit >>> 1 : unitIds.get(source.unitNames.get(unit >>> 1));
+		if (unitId == NO_UNIT) {
+			return NO_UNIT;
+		}
+		return packUnit(unitId, (unit & 1) == 1) & keyMask;
+	}
+
+
+	/**
+	 * Spread the bits of a hash so that linear probing works well on sequential unit ids.
+	 */
+	private static int mix(int hash) {
+		hash *= 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+
+
+	private void insert(int id) {
+		int slot = mix(getHash(id)) & tableMask;
+		while (getSlot(slot) != EMPTY) {
+			slot = (slot + 1) & tableMask;
+		}
+		setSlot(slot, id);
+	}
+}
@@ -0,0 +1,147 @@
+/*
+ Copyright (C) 2013 Constantine Lignos
+
+ This file is a part of CATS.
+
+ CATS is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CATS is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CATS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.upenn.ircs.lignos.cats.metrics;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.RecursiveAction;
+
+import edu.upenn.ircs.lignos.cats.PhaseTimer;
+
+/**
+ * Bootstrap confidence intervals over utterances. Each resample draws as many utterances as
+ * were evaluated, with replacement, and sums their counts. Resamples are drawn in parallel in
+ * fixed blocks, each with its own seeded random number generator, so results are the same
+ * regardless of how many threads are used.
+ */
+public class Bootstrap {
+	// Confidence level of the intervals
+	public static final double LEVEL = 0.95;
+	// Number of resamples drawn by a single task
+	private static final int BLOCK_SIZE = 64;
+	// Increment of the SplitMix64 sequence
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+
+	/**
+	 * Compute a percentile bootstrap confidence interval for the f-score.
+	 * @param counts the per-utterance counts
+	 * @param nSamples the number of resamples to draw
+	 * @param seed the seed for drawing resamples
+	 * @return the lower and upper bounds of the interval
+	 */
+	public static double[] fScoreInterval(UtteranceCounts counts, int nSamples, long seed) {
+		return fScoreInterval(counts, nSamples, seed, null);
+	}
+
+
+	/**
+	 * Compute a percentile bootstrap confidence interval for the f-score, adding the CPU time
+	 * and allocation of each block of resamples to work.
+	 * @param counts the per-utterance counts
+	 * @param nSamples the number of resamples to draw
+	 * @param seed the seed for drawing resamples
+	 * @param work the totals to add to, null if not needed
+	 * @return the lower and upper bounds of the interval
+	 */
+	public static double[] fScoreInterval(UtteranceCounts counts, int nSamples, long seed,
+			PhaseTimer.PoolWork work) {
+		if (counts.size() == 0 || nSamples <= 0) {
+			return new double[] {Double.NaN, Double.NaN};
+		}
+
+		double[] samples = new double[nSamples];
+		Evaluation.getPool().invoke(new ResampleTask(counts, samples, seed, work, 0,
+				(nSamples + BLOCK_SIZE - 1) / BLOCK_SIZE));
+		Arrays.sort(samples);
+
+		int low = (int) Math.floor((1 - LEVEL) / 2 * nSamples);
+		int high = (int) Math.ceil((1 + LEVEL) / 2 * nSamples) - 1;
+		return new double[] {samples[Math.max(low, 0)], samples[Math.min(high, nSamples - 1)]};
+	}
+
+
+	/**
+	 * Return the seed for a block's generator. Seeds that differ only by the block index give
+	 * correlated streams, so the index is mixed in with the SplitMix64 finalizer.
+	 */
+	static long blockSeed(long seed, int block) {
+		long z = seed + (block + 1) * GOLDEN_GAMMA;
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+
+	/**
+	 * Draws the resamples in a range of blocks, splitting it in half until only one block is
+	 * left. Only single blocks are measured, as a task that splits may run others while it
+	 * waits.
+	 */
+	private static class ResampleTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final UtteranceCounts counts;
+		private final double[] samples;
+		private final long seed;
+		private final PhaseTimer.PoolWork work;
+		private final int fromBlock;
+		private final int toBlock;
+
+		ResampleTask(UtteranceCounts counts, double[] samples, long seed,
+				PhaseTimer.PoolWork work, int fromBlock, int toBlock) {
+			this.counts = counts;
+			this.samples = samples;
+			this.seed = seed;
+			this.work = work;
+			this.fromBlock = fromBlock;
+			this.toBlock = toBlock;
+		}
+
+		@Override
+		protected void compute() {
+			if (toBlock - fromBlock > 1) {
+				int mid = (fromBlock + toBlock) >>> 1;
+				invokeAll(new ResampleTask(counts, samples, seed, work, fromBlock, mid),
+						new ResampleTask(counts, samples, seed, work, mid, toBlock));
+				return;
+			}
+
+			long[] start = work != null ? work.begin() : null;
+			SplittableRandom rand = new SplittableRandom(blockSeed(seed, fromBlock));
+			int nUtts = counts.size();
+			int end = Math.min((fromBlock + 1) * BLOCK_SIZE, samples.length);
+			for (int sample = fromBlock * BLOCK_SIZE; sample < end; sample++) {
+				int truePositives = 0;
+				int falsePositives = 0;
+				int falseNegatives = 0;
+				for (int i = 0; i < nUtts; i++) {
+					int utt = rand.nextInt(nUtts);
+					truePositives += counts.getTruePositives(utt);
+					falsePositives += counts.getFalsePositives(utt);
+					falseNegatives += counts.getFalseNegatives(utt);
+				}
+				samples[sample] = Result.calcResult(truePositives, falsePositives,
+						falseNegatives, 0).fScore;
+			}
+			if (work != null) work.end(start);
+		}
+	}
+}
@@ -20,16 +20,35 @@
 package edu.upenn.ircs.lignos.cats.metrics;
 
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
+import edu.upenn.ircs.lignos.cats.AsyncLogSink;
 import edu.upenn.ircs.lignos.cats.Utils;
 import edu.upenn.ircs.lignos.cats.Utterance;
 import edu.upenn.ircs.lignos.cats.lexicon.Lexicon;
-import edu.upenn.ircs.lignos.cats.lexicon.Word;
 
 public class Evaluation {
-	private final static int INTERVAL_SIZE = 500;
+	// Indices of the confusion counts in count arrays
+	private final static int TP = 0;
+	private final static int FP = 1;
+	private final static int FN = 2;
+	private final static int TN = 3;
+	final static int N_COUNTS = 4;
+
+	private final static String EVAL_LOG_HEADER = "Gold,Seg,TP,FP,FN,Prec,Recall,Fscore";
+	private final static String WORD_LOG_HEADER = "Utt,Error,Type";
+
+	// Number of utterances evaluated together in parallel evaluation
+	private final static int CHUNK_SIZE = 4096;
+	// Shared pool for parallel evaluation, created on first use
+	private static ForkJoinPool pool;
 
 	public enum EvalMethod {
 		BOUNDARIES, WORDS
@@ -50,186 +69,521 @@ public class Evaluation {
 	public static Result evalUtterances(List<Utterance> goldUtterances,
 			List<Utterance> segUtterances, PrintStream evalLog, PrintStream log,
 			EvalMethod method) {
-		// Corpus counters
-		int truePositives = 0;
-		int falsePositives = 0;
-		int trueNegatives = 0;
-		int falseNegatives = 0;
+		// Corpus and interval counts, logged as a learning curve for boundaries
+		LearningCurve curve = new LearningCurve(method == EvalMethod.BOUNDARIES ? log : null,
+				false);
+		int[] uttCounts = new int[N_COUNTS];
+
+		// Write word error header
+		if (log != null && method == EvalMethod.WORDS) {
+			log.println(WORD_LOG_HEADER);
+		}
 
-		// Interval counters
-		int intTruePositives = 0;
-		int intFalsePositives = 0;
-		int intTrueNegatives = 0;
-		int intFalseNegatives = 0;
+		// Write log header
+		if (evalLog != null) {
+			evalLog.println(EVAL_LOG_HEADER);
+		}
+
+		// Set up iteration over utterances
+		Iterator<Utterance> goldIter = goldUtterances.iterator();
+		Iterator<Utterance> segIter = segUtterances.iterator();
+		while (goldIter.hasNext()) {
+			// Get utterances
+			Utterance gold = goldIter.next();
+			Utterance seg = segIter.next();
+
+			// Skip everything if this is a totally unambiguous utterance
+			if (gold.length < 2)
+				continue;
 
-		// Write interval header
-		if (log != null) {
 			switch (method) {
-			case BOUNDARIES: {
-				log.println("Interval,Precision,Recall,F1,HR,FAR,APrime,BDoublePrime");
+			case BOUNDARIES:
+				countBoundaries(gold, seg, uttCounts);
+				break;
+			case WORDS:
+				countWords(gold, seg, uttCounts, log, curve.size() + 1);
 				break;
 			}
-			case WORDS: {
-				log.println("Utt,Error,Type"); break;
+			curve.add(uttCounts);
+
+			// Log the evaluation if needed
+			if (evalLog != null) {
+				evalLog.println(new EvalLine(gold, seg, uttCounts));
 			}
+		}
+
+		return curve.finish();
+	}
+
+
+	/**
+	 * Evaluate boundaries, word tokens, and word types in a single pass over the utterances.
+	 * The results and logs are the same as calling evalUtterances with BOUNDARIES and then
+	 * WORDS using the same evalLog, and then evalLexicons on lexicons built from the gold and
+	 * segmented utterances.
+	 * @param goldUtterances the gold standard segmented utterances
+	 * @param segUtterances the segmented utterances being tested
+	 * @param goldLexicon the lexicon built from goldUtterances
+	 * @param evalLog log for per-utterance results, null if not needed
+	 * @param boundaryLog log for interval boundary results, null if not needed
+	 * @param wordLog log for word errors, null if not needed
+	 * @return the boundary, word token, and word type results
+	 */
+	public static Result[] evalAll(List<Utterance> goldUtterances, List<Utterance> segUtterances,
+			Lexicon goldLexicon, PrintStream evalLog, PrintStream boundaryLog,
+			PrintStream wordLog) {
+		return evalAll(goldUtterances, segUtterances, goldLexicon, evalLog, boundaryLog, wordLog,
+				null, null);
+	}
+
+
+	/**
+	 * Compute the same results as evalAll, splitting the utterances into chunks whose boundaries
+	 * and word tokens are counted in parallel while this thread builds the segmented lexicon.
+	 * The counts and interval counts of each chunk are merged, so the interval lines written to
+	 * boundaryLog are the same as evalAll would write. Per-utterance output must be written in
+	 * order, so if evalLog or wordLog is given this simply calls evalAll.
+	 * @param goldUtterances the gold standard segmented utterances
+	 * @param segUtterances the segmented utterances being tested
+	 * @param goldLexicon the lexicon built from goldUtterances
+	 * @param evalLog log for per-utterance results, null if not needed
+	 * @param boundaryLog log for interval boundary results, null if not needed
+	 * @param wordLog log for word errors, null if not needed
+	 * @param uttBoundaryResults where to add boundary counts, null if not needed
+	 * @param uttWordResults where to add word token counts, null if not needed
+	 * @return the boundary, word token, and word type results
+	 */
+	public static Result[] evalAllParallel(List<Utterance> goldUtterances,
+			List<Utterance> segUtterances, Lexicon goldLexicon, PrintStream evalLog,
+			PrintStream boundaryLog, PrintStream wordLog, UtteranceCounts uttBoundaryResults,
+			UtteranceCounts uttWordResults) {
+		if (evalLog != null || wordLog != null) {
+			return evalAll(goldUtterances, segUtterances, goldLexicon, evalLog, boundaryLog,
+					wordLog, uttBoundaryResults, uttWordResults);
+		}
+
+		// Chunks need random access
+		if (!(goldUtterances instanceof RandomAccess)) {
+			goldUtterances = new ArrayList<Utterance>(goldUtterances);
+		}
+		if (!(segUtterances instanceof RandomAccess)) {
+			segUtterances = new ArrayList<Utterance>(segUtterances);
+		}
+
+		// Find how many scored utterances come before each chunk so that each chunk knows
+		// which intervals its utterances fall in and where its per-utterance counts go
+		int nChunks = (goldUtterances.size() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		int[] chunkOffsets = new int[nChunks + 1];
+		for (int chunk = 0; chunk < nChunks; chunk++) {
+			int nScored = 0;
+			int end = Math.min((chunk + 1) * CHUNK_SIZE, goldUtterances.size());
+			for (int i = chunk * CHUNK_SIZE; i < end; i++) {
+				if (goldUtterances.get(i).length >= 2) nScored++;
 			}
+			chunkOffsets[chunk + 1] = chunkOffsets[chunk] + nScored;
+		}
+		int nUtts = chunkOffsets[nChunks];
+		int uttBoundaryBase = uttBoundaryResults != null ? uttBoundaryResults.extend(nUtts) : 0;
+		int uttWordBase = uttWordResults != null ? uttWordResults.extend(nUtts) : 0;
+
+		ForkJoinTask<EvalCounts> counting = nChunks == 0 ? null : getPool().submit(
+				new EvalTask(goldUtterances, segUtterances, chunkOffsets, 0, nChunks,
+						uttBoundaryResults, uttBoundaryBase, uttWordResults, uttWordBase));
+
+		// Every utterance contributes word types
+		Lexicon segLexicon = new Lexicon(goldLexicon.stressSensitive, false, false, false, false,
+				0.0, 0.0, null);
+		for (Utterance seg : segUtterances) {
+			segLexicon.incUtteranceWords(seg.getUnits(), seg.getStresses(),
+					seg.getBoundariesCopy(), null);
 		}
 
-		// Write log header
-		if (evalLog != null) {
-			evalLog.println("Gold,Seg,TP,FP,FN,Prec,Recall,Fscore");
+		EvalCounts counts = counting == null ? new EvalCounts(0, 0) : counting.join();
+		LearningCurve boundaryCurve = new LearningCurve(boundaryLog, false);
+		for (int interval = 0; interval * LearningCurve.INTERVAL_SIZE < nUtts; interval++) {
+			boundaryCurve.add(counts.getInterval(interval),
+					Math.min(LearningCurve.INTERVAL_SIZE,
+							nUtts - interval * LearningCurve.INTERVAL_SIZE));
 		}
 
-		// Set up iteration over utterances
+		return new Result[] {boundaryCurve.finish(), calcResult(counts.wordTotals),
+				evalLexicons(goldLexicon, segLexicon, null, false)};
+	}
+
+
+	/**
+	 * Evaluate as in evalAll, also recording the boundary and word token counts of each
+	 * scored utterance.
+	 * @param uttBoundaryResults where to add boundary counts, null if not needed
+	 * @param uttWordResults where to add word token counts, null if not needed
+	 * @return the boundary, word token, and word type results
+	 */
+	public static Result[] evalAll(List<Utterance> goldUtterances, List<Utterance> segUtterances,
+			Lexicon goldLexicon, PrintStream evalLog, PrintStream boundaryLog,
+			PrintStream wordLog, UtteranceCounts uttBoundaryResults,
+			UtteranceCounts uttWordResults) {
+		int[] uttBoundaryCounts = new int[N_COUNTS];
+		int[] wordCounts = new int[N_COUNTS];
+		int[] uttWordCounts = new int[N_COUNTS];
+		Lexicon segLexicon = new Lexicon(goldLexicon.stressSensitive, false, false, false, false,
+				0.0, 0.0, null);
+
+		LearningCurve boundaryCurve = new LearningCurve(boundaryLog, false);
+		if (wordLog != null) wordLog.println(WORD_LOG_HEADER);
+		if (evalLog != null) evalLog.println(EVAL_LOG_HEADER);
+
 		Iterator<Utterance> goldIter = goldUtterances.iterator();
 		Iterator<Utterance> segIter = segUtterances.iterator();
-		int nIntervalUtts = 0;
-		int nUtts = 0;
 		while (goldIter.hasNext()) {
-			// Get utterances and boundaries
 			Utterance gold = goldIter.next();
 			Utterance seg = segIter.next();
-			Boolean[] goldBound = gold.getBoundariesCopy();
-			Boolean[] segBound = seg.getBoundariesCopy();
 
-			// Per-utterance counters
-			int uttTruePositives = 0;
-			int uttFalsePositives = 0;
-			int uttTrueNegatives = 0;
-			int uttFalseNegatives = 0;
+			// Every utterance contributes word types
+			segLexicon.incUtteranceWords(seg.getUnits(), seg.getStresses(),
+					seg.getBoundariesCopy(), null);
 
-			// Skip everything if this is a totally unambiguous utterance
-			if (goldBound.length == 0)
+			// Skip scoring if this is a totally unambiguous utterance
+			if (gold.length < 2)
 				continue;
 
-			// Increment counters now so they don't count if the utterance is skipped
-			nIntervalUtts++;
-			nUtts++;
+			countBoundaries(gold, seg, uttBoundaryCounts);
+			countWords(gold, seg, uttWordCounts, wordLog, boundaryCurve.size() + 1);
+			boundaryCurve.add(uttBoundaryCounts);
+			add(wordCounts, uttWordCounts);
+			if (uttBoundaryResults != null) {
+				uttBoundaryResults.add(uttBoundaryCounts[TP], uttBoundaryCounts[FP],
+						uttBoundaryCounts[FN]);
+			}
+			if (uttWordResults != null) {
+				uttWordResults.add(uttWordCounts[TP], uttWordCounts[FP], uttWordCounts[FN]);
+			}
 
-			// Tracking variables for error analysis
-			String errorWord;
-			ErrorType errorType;
+			if (evalLog != null) {
+				evalLog.println(new EvalLine(gold, seg, uttBoundaryCounts));
+			}
+		}
 
-			switch (method) {
-			case BOUNDARIES:
-				// Compare boundaries directly between gold and segmented
-				for (int i = 0; i < goldBound.length; i++) {
-					if (goldBound[i] && segBound[i]) {
-						truePositives++;
-						uttTruePositives++;
-						intTruePositives++;
-					}
-					else if (goldBound[i]) {
-						falseNegatives++;
-						uttFalseNegatives++;
-						intFalseNegatives++;
-					}
-					else if (segBound[i]) {
-						falsePositives++;
-						uttFalsePositives++;
-						intFalsePositives++;
-					}
-					else {
-						trueNegatives++;
-						uttTrueNegatives++;
-						intTrueNegatives++;
-					}
+		Result boundaryResult = boundaryCurve.finish();
+		if (evalLog != null) logWordEvals(goldUtterances, segUtterances, evalLog);
+
+		return new Result[] {boundaryResult, calcResult(wordCounts),
+				evalLexicons(goldLexicon, segLexicon, null, false)};
+	}
+
+
+	/**
+	 * Write the word token results of each scored utterance to evalLog. Word results follow
+	 * all boundary results in the log, so rather than holding them until the end of the
+	 * first pass, they are counted again in a second pass and written as they are produced.
+	 */
+	private static void logWordEvals(List<Utterance> goldUtterances,
+			List<Utterance> segUtterances, PrintStream evalLog) {
+		int[] uttCounts = new int[N_COUNTS];
+		evalLog.println(EVAL_LOG_HEADER);
+		Iterator<Utterance> goldIter = goldUtterances.iterator();
+		Iterator<Utterance> segIter = segUtterances.iterator();
+		while (goldIter.hasNext()) {
+			Utterance gold = goldIter.next();
+			Utterance seg = segIter.next();
+			if (gold.length < 2)
+				continue;
+			countWords(gold, seg, uttCounts, null, 0);
+			evalLog.println(new EvalLine(gold, seg, uttCounts));
+		}
+	}
+
+
+	/**
+	 * Count boundary decisions in an utterance.
+	 * @param gold the gold utterance
+	 * @param seg the segmented utterance
+	 * @param counts array to store TP, FP, FN, and TN counts in
+	 */
+	static void countBoundaries(Utterance gold, Utterance seg, int[] counts) {
+		Arrays.fill(counts, 0);
+		// Compare boundaries directly between gold and segmented
+		for (int i = 0; i < gold.length - 1; i++) {
+			boolean goldBound = gold.isBoundary(i);
+			boolean segBound = seg.isBoundary(i);
+			if (goldBound && segBound) {
+				counts[TP]++;
+			}
+			else if (goldBound) {
+				counts[FN]++;
+			}
+			else if (segBound) {
+				counts[FP]++;
+			}
+			else {
+				counts[TN]++;
+			}
+		}
+	}
+
+
+	/**
+	 * Count predicted words in an utterance. This gives the same counts as comparing the
+	 * output of wordsPredicted for each utterance, but works directly on the boundaries: the
+	 * words starting at a position match if the next boundary after it is in the same place in
+	 * both utterances.
+	 * @param gold the gold utterance
+	 * @param seg the segmented utterance
+	 * @param counts array to store TP, FP, FN, and TN counts in
+	 * @param log log for word errors, null if not needed
+	 * @param uttNum the number of the utterance to log errors with
+	 */
+	private static void countWords(Utterance gold, Utterance seg, int[] counts, PrintStream log,
+			int uttNum) {
+		Arrays.fill(counts, 0);
+		// Check each position a word could start at. The first unit always starts a word, and
+		// each other unit starts a word if there is a boundary before it.
+		int lastBound = gold.length - 1;
+		for (int start = 0; start < gold.length; start++) {
+			boolean goldStart = start == 0 || gold.isBoundary(start - 1);
+			boolean segStart = start == 0 || seg.isBoundary(start - 1);
+
+			// True negative: no word starts here in either
+			if (!goldStart && !segStart) {
+				counts[TN]++;
+				continue;
+			}
+
+			// True positive: there is actually a word here, and we predicted the right one,
+			// which is the case if the first boundary after the start is in both
+			if (goldStart && segStart) {
+				int end = start;
+				while (end < lastBound && !gold.isBoundary(end) && !seg.isBoundary(end)) {
+					end++;
 				}
-				break;
-			case WORDS:
-				// Compare predicted words at each location. The words always
-				// have the same length (although varying numbers of nulls),
-				// so iteration over either is fine
-				String[] goldWords = wordsPredicted(gold);
-				String[] segWords = wordsPredicted(seg);
-				for (int i = 0; i < goldWords.length; i++) {
-					// True positive: there is actually a word here, and we predicted the right one
-					if (goldWords[i] != null && goldWords[i].equals(segWords[i])) {
-						truePositives++;
-						uttTruePositives++;
-						intTruePositives++;
-					}
-					// True negative: both are null
-					else if (goldWords[i] == null && segWords[i] == null){
-						trueNegatives++;
-						uttTrueNegatives++;
-						intTrueNegatives++;
-					}
-					else {
-						// This block records the two error conditions, so the assumption in both
-						// if statements is that we already know we are incorrect.
-						// You'll note that the word metric is peculiar, as the cases
-						// are not mutually exclusive in the fashion you'd expect.
-						// This is because the iteration is over boundaries, so each boundary
-						// can contribute to both a false positive and a false negative in the
-						// case that there is a gold word there that we did not get correct
-						// (false negative) and we predicted that there is a word there (false
-						// positive). This is the standard definition of this peculiar
-						// infinite-class classification that is going on here. Think about this
-						// very hard before you consider changing this logic.
-
-						// False positive: we wrongly predicted any word here.
-						if (segWords[i] != null) {
-							falsePositives++;
-							uttFalsePositives++;
-							intFalsePositives++;
-						}
-
-						// False negative: there is a word here, and we didn't correctly predict it
-						if (goldWords[i] != null) {
-							falseNegatives++;
-							uttFalseNegatives++;
-							intFalseNegatives++;
-						}
-
-						// Track predicted word errors and log them
-						if (log != null && segWords[i] != null && goldWords[i] != null) {
-							errorWord = segWords[i];
-							errorType = errorWord.length() < goldWords[i].length() ?
-									ErrorType.OVERSEG : ErrorType.UNDERSEG;
-							log.println(nUtts + "," + errorWord + "," + errorType);
-						}
-					}
+				if (end == lastBound || (gold.isBoundary(end) && seg.isBoundary(end))) {
+					counts[TP]++;
+					continue;
 				}
+			}
 
-				break;
+			// This block records the two error conditions, so the assumption in both
+			// if statements is that we already know we are incorrect.
+			// You'll note that the word metric is peculiar, as the cases
+			// are not mutually exclusive in the fashion you'd expect.
+			// This is because the iteration is over boundaries, so each boundary
+			// can contribute to both a false positive and a false negative in the
+			// case that there is a gold word there that we did not get correct
+			// (false negative) and we predicted that there is a word there (false
+			// positive). This is the standard definition of this peculiar
+			// infinite-class classification that is going on here. Think about this
+			// very hard before you consider changing this logic.
+
+			// False positive: we wrongly predicted any word here.
+			if (segStart) {
+				counts[FP]++;
 			}
 
-			// Log the evaluation if needed
-			if (evalLog != null) {
-				Result r = Result.calcResult(uttTruePositives, uttFalsePositives,
-						uttFalseNegatives, uttTrueNegatives);
+			// False negative: there is a word here, and we didn't correctly predict it
+			if (goldStart) {
+				counts[FN]++;
+			}
 
-				evalLog.println(gold.getSegText() + "," + seg.getSegText() + "," +
-						uttTruePositives + "," + uttFalsePositives + "," +
-						uttFalseNegatives + "," + r.toCSVString());
+			// Track predicted word errors and log them. A predicted word shorter than the
+			// gold word, as written out, is an oversegmentation.
+			if (log != null && segStart && goldStart) {
+				int segEnd = wordEnd(seg, start);
+				int segLength = wordTextLength(seg, start, segEnd);
+				int goldLength = wordTextLength(gold, start, wordEnd(gold, start));
+				ErrorType errorType = segLength < goldLength ?
+						ErrorType.OVERSEG : ErrorType.UNDERSEG;
+				log.println(uttNum + "," + Utils.join(
+						Arrays.copyOfRange(seg.getUnits(), start, segEnd), "|") + "," + errorType);
 			}
+		}
+	}
+
+
+	/**
+	 * @return the index after the last unit of the word starting at start
+	 */
+	private static int wordEnd(Utterance utt, int start) {
+		int end = start;
+		while (end < utt.length - 1 && !utt.isBoundary(end)) {
+			end++;
+		}
+		return end + 1;
+	}
+
+
+	/**
+	 * @return the length of the units [start, end) joined with a single character delimiter
+	 */
+	private static int wordTextLength(Utterance utt, int start, int end) {
+		String[] units = utt.getUnits();
+		int length = end - start - 1;
+		for (int i = start; i < end; i++) {
+			length += units[i].length();
+		}
+		return length;
+	}
+
+
+	static synchronized ForkJoinPool getPool() {
+		if (pool == null) {
+			pool = new ForkJoinPool();
+		}
+		return pool;
+	}
 
-			// Print interval results and reset interval, if needed
-			if (log != null) {
-				if (method == EvalMethod.BOUNDARIES && nIntervalUtts % INTERVAL_SIZE == 0) {
-					Result r = Result.calcResult(intTruePositives, intFalsePositives,
-							intFalseNegatives, intTrueNegatives);
-					log.println(nUtts + "," + r.toCSVString());
-					intTruePositives = intFalseNegatives = intFalsePositives = intTrueNegatives = 0;
-					nIntervalUtts = 0;
+
+	/**
+	 * Word token confusion counts for a run of utterances, and the boundary counts for each
+	 * interval the utterances fall in. Counts for adjacent runs can be merged.
+	 */
+	private static class EvalCounts {
+		final int[] wordTotals;
+		// The index of the first interval, and the boundary counts for it and those after it
+		final int firstInterval;
+		final int[][] intervals;
+
+		EvalCounts(int firstInterval, int nIntervals) {
+			wordTotals = new int[N_COUNTS];
+			this.firstInterval = firstInterval;
+			intervals = new int[nIntervals][N_COUNTS];
+		}
+
+		int[] getInterval(int interval) {
+			return intervals[interval - firstInterval];
+		}
+
+		/**
+		 * Merge the counts of two adjacent runs, this one coming first.
+		 */
+		EvalCounts merge(EvalCounts next) {
+			int lastInterval = Math.max(firstInterval + intervals.length,
+					next.firstInterval + next.intervals.length);
+			EvalCounts merged = new EvalCounts(firstInterval, lastInterval - firstInterval);
+			for (EvalCounts counts : new EvalCounts[] {this, next}) {
+				add(merged.wordTotals, counts.wordTotals);
+				for (int i = 0; i < counts.intervals.length; i++) {
+					add(merged.getInterval(counts.firstInterval + i), counts.intervals[i]);
 				}
 			}
+			return merged;
 		}
+	}
 
-		Result finalResult = Result.calcResult(truePositives, falsePositives,
-				falseNegatives, trueNegatives);
-		if(log != null) {
-			switch (method) {
-			case BOUNDARIES:
-				log.println("Final," + finalResult.toCSVString());
-				break;
-			default:
-				break;
+
+	/**
+	 * Counts a range of chunks, splitting it in half until only one chunk is left.
+	 * Per-utterance counts are set at the scored utterance's position after the given base, so
+	 * chunks fill in disjoint parts of them.
+	 */
+	private static class EvalTask extends RecursiveTask<EvalCounts> {
+		private static final long serialVersionUID = 1L;
+
+		private final List<Utterance> goldUtterances;
+		private final List<Utterance> segUtterances;
+		// Number of scored utterances before each chunk
+		private final int[] chunkOffsets;
+		private final int fromChunk;
+		private final int toChunk;
+		private final UtteranceCounts uttBoundaryResults;
+		private final int uttBoundaryBase;
+		private final UtteranceCounts uttWordResults;
+		private final int uttWordBase;
+
+		EvalTask(List<Utterance> goldUtterances, List<Utterance> segUtterances,
+				int[] chunkOffsets, int fromChunk, int toChunk,
+				UtteranceCounts uttBoundaryResults, int uttBoundaryBase,
+				UtteranceCounts uttWordResults, int uttWordBase) {
+			this.goldUtterances = goldUtterances;
+			this.segUtterances = segUtterances;
+			this.chunkOffsets = chunkOffsets;
+			this.fromChunk = fromChunk;
+			this.toChunk = toChunk;
+			this.uttBoundaryResults = uttBoundaryResults;
+			this.uttBoundaryBase = uttBoundaryBase;
+			this.uttWordResults = uttWordResults;
+			this.uttWordBase = uttWordBase;
+		}
+
+		private EvalTask subtask(int fromChunk, int toChunk) {
+			return new EvalTask(goldUtterances, segUtterances, chunkOffsets, fromChunk, toChunk,
+					uttBoundaryResults, uttBoundaryBase, uttWordResults, uttWordBase);
+		}
+
+		@Override
+		protected EvalCounts compute() {
+			if (toChunk - fromChunk > 1) {
+				int mid = (fromChunk + toChunk) >>> 1;
+				EvalTask second = subtask(mid, toChunk);
+				second.fork();
+				EvalCounts firstCounts = subtask(fromChunk, mid).compute();
+				return firstCounts.merge(second.join());
 			}
+
+			// Count the utterances in one chunk
+			int nScored = chunkOffsets[fromChunk];
+			int firstInterval = nScored / LearningCurve.INTERVAL_SIZE;
+			int lastInterval =
+					Math.max(chunkOffsets[toChunk] - 1, nScored) / LearningCurve.INTERVAL_SIZE;
+			EvalCounts counts = new EvalCounts(firstInterval, lastInterval - firstInterval + 1);
+			int[] uttBoundaryCounts = new int[N_COUNTS];
+			int[] uttWordCounts = new int[N_COUNTS];
+			int end = Math.min(toChunk * CHUNK_SIZE, goldUtterances.size());
+			for (int i = fromChunk * CHUNK_SIZE; i < end; i++) {
+				Utterance gold = goldUtterances.get(i);
+				Utterance seg = segUtterances.get(i);
+				if (gold.length < 2)
+					continue;
+
+				countBoundaries(gold, seg, uttBoundaryCounts);
+				countWords(gold, seg, uttWordCounts, null, 0);
+				add(counts.getInterval(nScored / LearningCurve.INTERVAL_SIZE), uttBoundaryCounts);
+				add(counts.wordTotals, uttWordCounts);
+				if (uttBoundaryResults != null) {
+					uttBoundaryResults.set(uttBoundaryBase + nScored, uttBoundaryCounts[TP],
+							uttBoundaryCounts[FP], uttBoundaryCounts[FN]);
+				}
+				if (uttWordResults != null) {
+					uttWordResults.set(uttWordBase + nScored, uttWordCounts[TP],
+							uttWordCounts[FP], uttWordCounts[FN]);
+				}
+				nScored++;
+			}
+			return counts;
+		}
+	}
+
+
+	/**
+	 * The evaluation of one utterance in the per-utterance log. Its text is only made when it is
+	 * written, which an asynchronous log does on its writer thread.
+	 */
+	private static final class EvalLine implements AsyncLogSink.Deferred {
+		private final Utterance gold;
+		private final Utterance seg;
+		private final int[] counts;
+
+		EvalLine(Utterance gold, Utterance seg, int[] counts) {
+			this.gold = gold;
+			this.seg = seg;
+			this.counts = counts.clone();
+		}
+
+		@Override
+		public String toString() {
+			return gold.getSegText() + "," + seg.getSegText() + "," + counts[TP] + "," +
+					counts[FP] + "," + counts[FN] + "," + calcResult(counts).toCSVString();
 		}
+	}
+
+
+	static void add(int[] to, int[] from) {
+		for (int i = 0; i < N_COUNTS; i++) {
+			to[i] += from[i];
+		}
+	}
 
-		return finalResult;
+
+	static Result calcResult(int[] counts) {
+		return Result.calcResult(counts[TP], counts[FP], counts[FN], counts[TN]);
 	}
 
 
@@ -250,29 +604,26 @@ public class Evaluation {
 		int numStressWords = 0;
 		int initialStressWords = 0;
 
-		// First check precision. The iterator returns all items in the lexicon,
-		// some of which are not considered real words
-		Iterator<Word> segIter = segLex.getWords().iterator();
-		while (segIter.hasNext()) {
-			Word seg = segIter.next();
-
+		// First check precision. Ids cover all items in the lexicon, some of which
+		// are not considered real words
+		for (int seg = 0; seg < segLex.size(); seg++) {
 			// Skip words if they are not really "in" the lexicon
 			if (!segLex.isEvalWord(seg)) {
 				continue;
 			}
 
 			// Check if this word appears in the gold lexicon
-			if (goldLex.getWord(seg.units, seg.stresses) != null) {
+			if (goldLex.findWord(segLex, seg) != -1) {
 				truePositives++;
 			}
 			else {
-				if (log != null) log.println("FP: " + Utils.formatUnits(seg.units, seg.stresses));
+				if (log != null) log.println("FP: " + segLex.getWord(seg));
 				falsePositives++;
 			}
 
 			// Note the stress of the word if it's more than one syllable
-			if (seg.length > 1) {
-				if (seg.isStressInitial()) {
+			if (segLex.wordLength(seg) > 1) {
+				if (segLex.isStressInitial(seg)) {
 					initialStressWords++;
 				}
 				numStressWords++;
@@ -288,21 +639,19 @@ public class Evaluation {
 		numStressWords = 0;
 		initialStressWords = 0;
 
- 		// Then check recall
-		Iterator<Word> goldIter = goldLex.getWords().iterator();
-
-		while (goldIter.hasNext()) {
-			Word gold = goldIter.next();
-
+		// Then check recall. Words missing from the seg lexicon are found without
+		// consulting its memory, so no random draws are used on them.
+		for (int gold = 0; gold < goldLex.size(); gold++) {
 			// Check if this word was missed in the seg lexicon
-			if (!segLex.isEvalWord(gold.units, gold.stresses)) {
-				if (log != null) log.println("Miss: " + Utils.formatUnits(gold.units, gold.stresses));
+			int seg = segLex.findWord(goldLex, gold);
+			if (seg == -1 || !segLex.isEvalWord(seg)) {
+				if (log != null) log.println("Miss: " + goldLex.getWord(gold));
 				falseNegatives++;
 			}
 
 			// Note the stress of the word if it's more than one syllable
-			if (gold.length > 1) {
-				if (gold.isStressInitial()) {
+			if (goldLex.wordLength(gold) > 1) {
+				if (goldLex.isStressInitial(gold)) {
 					initialStressWords++;
 				}
 				numStressWords++;
@@ -327,30 +676,24 @@ public class Evaluation {
 	 */
 	public static String[] wordsPredicted(Utterance utt) {
 		String[] units = utt.getUnits();
-		Boolean[] boundaries = utt.getBoundariesCopy();
-		// The output of words is one longer than that boundaries as the first syllable doesn't
-		// get a leading boundary
-		String[] words = new String[boundaries.length + 1];
-
-		// Seed words with the first unit
-		int currWord = 0;
-		words[currWord] = units[0];
-
-		// Now build up the remaining words. Note that since units are one ahead
-		// of boundaries, indices are offset by one
-		for (int i = 0; i < boundaries.length; i++) {
-			if (boundaries[i]) {
-				// Move the current word to one ahead of the boundaries and
-				// start a new word
-				currWord = i + 1;
-				words[currWord] = units[i + 1];
+		// Words are indexed by the unit they start at, so there is one slot per unit
+		String[] words = new String[units.length];
+
+		// Build up each word until the boundary after it, then start the next
+		int start = 0;
+		StringBuilder word = new StringBuilder(units[0]);
+		for (int i = 1; i < units.length; i++) {
+			if (utt.isBoundary(i - 1)) {
+				words[start] = word.toString();
+				start = i;
+				word.setLength(0);
+				word.append(units[i]);
 			}
 			else {
-				// Add the current unit to the current word. Since units are one ahead
-				// of boundaries, offset by one
-				words[currWord] += "|" + units[i + 1];
+				word.append('|').append(units[i]);
 			}
 		}
+		words[start] = word.toString();
 
 		return words;
 	}
@@ -0,0 +1,149 @@
+/*
+ Copyright (C) 2013 Constantine Lignos
+
+ This file is a part of CATS.
+
+ CATS is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CATS is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CATS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.upenn.ircs.lignos.cats.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of non-negative values with bounded relative error, in the style of
+ * HdrHistogram. Values below 2^SUB_BITS get their own bucket, and each larger power of two is
+ * split into 2^SUB_BITS equal buckets, so a value is reported within about 3% of its true value
+ * whatever its size. Recording is a few atomic adds and, once the count and sum have set up
+ * their cells for the threads recording, never allocates.
+ */
+public class Histogram {
+	private static final int SUB_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	// Enough buckets for any non-negative long
+	private static final int N_BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray buckets;
+	private final LongAdder count;
+	private final LongAdder sum;
+	private final AtomicLong max;
+
+
+	public Histogram() {
+		buckets = new AtomicLongArray(N_BUCKETS);
+		count = new LongAdder();
+		sum = new LongAdder();
+		max = new AtomicLong(0);
+	}
+
+
+	/**
+	 * Return the bucket of a value.
+	 */
+	static int bucket(long value) {
+		if (value < SUB_BUCKETS) return (int) value;
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+		// The top SUB_BITS + 1 bits of the value, from SUB_BUCKETS to 2 * SUB_BUCKETS - 1
+		int mantissa = (int) (value >>> shift);
+		return (shift + 1) * SUB_BUCKETS + mantissa - SUB_BUCKETS;
+	}
+
+
+	/**
+	 * Return the largest value that falls in a bucket.
+	 */
+	static long bucketMax(int bucket) {
+		if (bucket < SUB_BUCKETS) return bucket;
+		int shift = bucket / SUB_BUCKETS - 1;
+		long mantissa = bucket % SUB_BUCKETS + SUB_BUCKETS;
+		return ((mantissa + 1) << shift) - 1;
+	}
+
+
+	/**
+	 * Record a value. Negative values are recorded as zero.
+	 * @param value the value
+	 */
+	public void record(long value) {
+		if (value < 0) value = 0;
+		buckets.getAndIncrement(bucket(value));
+		count.increment();
+		sum.add(value);
+		long currentMax;
+		while (value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value)) {
+			// Retry until this value is recorded or a larger one is
+		}
+	}
+
+
+	/**
+	 * @return the number of values recorded
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+
+	/**
+	 * @return the sum of the values recorded
+	 */
+	public long getSum() {
+		return sum.sum();
+	}
+
+
+	/**
+	 * @return the largest value recorded, 0 if there are none
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+
+	/**
+	 * @return the mean of the values recorded, 0 if there are none
+	 */
+	public double getMean() {
+		long n = getCount();
+		return n == 0 ? 0.0 : getSum() / (double) n;
+	}
+
+
+	/**
+	 * Return a value that the given fraction of recorded values are at or below. The value is
+	 * the top of the bucket the quantile falls in, so it errs high by at most the width of a
+	 * bucket, and is never more than the largest value recorded.
+	 * @param quantile the fraction, from 0 to 1
+	 * @return the value, 0 if there are none
+	 */
+	public long getQuantile(double quantile) {
+		long[] counts = new long[N_BUCKETS];
+		long total = 0;
+		for (int i = 0; i < N_BUCKETS; i++) {
+			counts[i] = buckets.get(i);
+			total += counts[i];
+		}
+		if (total == 0) return 0;
+
+		long rank = Math.max(1, (long) Math.ceil(quantile * total));
+		long seen = 0;
+		for (int i = 0; i < N_BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank) return Math.min(bucketMax(i), getMax());
+		}
+		return getMax();
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ Copyright (C) 2013 Constantine Lignos
+
+ This file is a part of CATS.
+
+ CATS is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CATS is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CATS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.upenn.ircs.lignos.cats.metrics;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * Confusion counts over scored utterances, in total and for the current interval, writing the
+ * results of each complete interval and then the final results to a perf log. Every evaluator
+ * that writes a learning curve goes through this, so their logs stay the same.
+ */
+final class LearningCurve {
+	static final int INTERVAL_SIZE = 500;
+	static final String HEADER = "Interval,Precision,Recall,F1,HR,FAR,APrime,BDoublePrime";
+
+	private final PrintStream log;
+	private final boolean flushIntervals;
+	private final int[] counts;
+	private final int[] intCounts;
+	private int nIntervalUtts;
+	private int nUtts;
+
+	/**
+	 * Start a new curve, writing the log header.
+	 * @param log log for interval results, null if not needed
+	 * @param flushIntervals whether to flush the log after each interval
+	 */
+	LearningCurve(PrintStream log, boolean flushIntervals) {
+		this.log = log;
+		this.flushIntervals = flushIntervals;
+		counts = new int[Evaluation.N_COUNTS];
+		intCounts = new int[Evaluation.N_COUNTS];
+		nIntervalUtts = 0;
+		nUtts = 0;
+		if (log != null) log.println(HEADER);
+	}
+
+	/**
+	 * Add the counts of one scored utterance.
+	 */
+	void add(int[] uttCounts) {
+		add(uttCounts, 1);
+	}
+
+	/**
+	 * Add the summed counts of some scored utterances, writing the results for the current
+	 * interval if it is complete. The utterances must not run past the end of the interval.
+	 * @param uttCounts the counts of the utterances
+	 * @param n the number of utterances
+	 */
+	void add(int[] uttCounts, int n) {
+		Evaluation.add(counts, uttCounts);
+		Evaluation.add(intCounts, uttCounts);
+		nIntervalUtts += n;
+		nUtts += n;
+
+		if (nIntervalUtts >= INTERVAL_SIZE) {
+			if (log != null) {
+				log.println(nUtts + "," + Evaluation.calcResult(intCounts).toCSVString());
+				if (flushIntervals) log.flush();
+			}
+			Arrays.fill(intCounts, 0);
+			nIntervalUtts = 0;
+		}
+	}
+
+	/**
+	 * @return the number of utterances added
+	 */
+	int size() {
+		return nUtts;
+	}
+
+	/**
+	 * Finish the curve, writing the final results.
+	 * @return the results over all utterances added
+	 */
+	Result finish() {
+		Result finalResult = Evaluation.calcResult(counts);
+		if (log != null) log.println("Final," + finalResult.toCSVString());
+		return finalResult;
+	}
+}
@@ -0,0 +1,268 @@
+/*
+ Copyright (C) 2013 Constantine Lignos
+
+ This file is a part of CATS.
+
+ CATS is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CATS is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CATS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.upenn.ircs.lignos.cats.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A set of named counters and histograms that can be written out as a snapshot, either as JSON
+ * or in the Prometheus text format. A metric may have a single label, such as the phase of a
+ * run, in which case each value of the label is a separate metric sharing a name. Metrics are
+ * written in the order they were registered.
+ */
+public class MetricsRegistry {
+	public static final String JSON = "json";
+	public static final String PROMETHEUS = "prometheus";
+
+	private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+	// Metrics grouped by name, in the order the names were first registered
+	private final Map<String, List<Metric>> metrics;
+
+
+	public MetricsRegistry() {
+		metrics = new LinkedHashMap<String, List<Metric>>();
+	}
+
+
+	private static class Metric {
+		final String name;
+		final String help;
+		final String label;
+		final String labelValue;
+		final LongAdder counter;
+		final Histogram histogram;
+
+		Metric(String name, String help, String label, String labelValue, LongAdder counter,
+				Histogram histogram) {
+			this.name = name;
+			this.help = help;
+			this.label = label;
+			this.labelValue = labelValue;
+			this.counter = counter;
+			this.histogram = histogram;
+		}
+
+		boolean hasLabel(String label, String labelValue) {
+			return label == null ? this.label == null :
+				label.equals(this.label) && labelValue.equals(this.labelValue);
+		}
+	}
+
+
+	/**
+	 * Return the counter with a name, creating it if needed.
+	 * @param name the name, which should be a valid Prometheus metric name
+	 * @param help a description of what is counted
+	 * @return the counter
+	 */
+	public LongAdder counter(String name, String help) {
+		return counter(name, help, null, null);
+	}
+
+
+	/**
+	 * Return the counter with a name and label value, creating it if needed.
+	 * @param name the name, which should be a valid Prometheus metric name
+	 * @param help a description of what is counted
+	 * @param label the name of the label, or null for none
+	 * @param labelValue the value of the label
+	 * @return the counter
+	 */
+	public synchronized LongAdder counter(String name, String help, String label,
+			String labelValue) {
+		Metric metric = find(name, label, labelValue);
+		if (metric == null) {
+			metric = register(new Metric(name, help, label, labelValue, new LongAdder(), null));
+		}
+		if (metric.counter == null) {
+			throw new IllegalArgumentException(name + " is not a counter");
+		}
+		return metric.counter;
+	}
+
+
+	/**
+	 * Return the histogram with a name, creating it if needed.
+	 * @param name the name, which should be a valid Prometheus metric name
+	 * @param help a description of what is recorded
+	 * @return the histogram
+	 */
+	public synchronized Histogram histogram(String name, String help) {
+		Metric metric = find(name, null, null);
+		if (metric == null) {
+			metric = register(new Metric(name, help, null, null, null, new Histogram()));
+		}
+		if (metric.histogram == null) {
+			throw new IllegalArgumentException(name + " is not a histogram");
+		}
+		return metric.histogram;
+	}
+
+
+	private Metric find(String name, String label, String labelValue) {
+		List<Metric> named = metrics.get(name);
+		if (named == null) return null;
+		for (Metric metric : named) {
+			if (metric.hasLabel(label, labelValue)) return metric;
+		}
+		return null;
+	}
+
+
+	private Metric register(Metric metric) {
+		List<Metric> named = metrics.get(metric.name);
+		if (named == null) {
+			named = new ArrayList<Metric>();
+			metrics.put(metric.name, named);
+		}
+		else if ((named.get(0).counter == null) != (metric.counter == null)) {
+			throw new IllegalArgumentException(metric.name + " is registered with another type");
+		}
+		named.add(metric);
+		return metric;
+	}
+
+
+	/**
+	 * Write a snapshot in the given format.
+	 * @param out the destination, which is not closed
+	 * @param format JSON or PROMETHEUS
+	 * @throws IOException if the snapshot cannot be written
+	 */
+	public void write(Writer out, String format) throws IOException {
+		if (JSON.equals(format)) {
+			writeJson(out);
+		}
+		else if (PROMETHEUS.equals(format)) {
+			writePrometheus(out);
+		}
+		else {
+			throw new IllegalArgumentException("Unknown metrics format: " + format);
+		}
+	}
+
+
+	/**
+	 * Write a snapshot as a JSON object with a list of metrics. Counters have a value, and
+	 * histograms a count, sum, mean, max, and quantiles.
+	 * @param out the destination, which is not closed
+	 * @throws IOException if the snapshot cannot be written
+	 */
+	public synchronized void writeJson(Writer out) throws IOException {
+		out.write("{\"metrics\": [");
+		boolean first = true;
+		for (List<Metric> named : metrics.values()) {
+			for (Metric metric : named) {
+				out.write(first ? "\n" : ",\n");
+				first = false;
+				out.write("  {\"name\": " + quote(metric.name) + ", \"help\": " +
+						quote(metric.help));
+				if (metric.label != null) {
+					out.write(", \"labels\": {" + quote(metric.label) + ": " +
+							quote(metric.labelValue) + "}");
+				}
+				if (metric.counter != null) {
+					out.write(", \"type\": \"counter\", \"value\": " + metric.counter.sum());
+				}
+				else {
+					Histogram hist = metric.histogram;
+					out.write(", \"type\": \"histogram\", \"count\": " + hist.getCount() +
+							", \"sum\": " + hist.getSum() + ", \"mean\": " + hist.getMean() +
+							", \"max\": " + hist.getMax() + ", \"quantiles\": {");
+					for (int i = 0; i < QUANTILES.length; i++) {
+						if (i > 0) out.write(", ");
+						out.write("\"" + QUANTILES[i] + "\": " + hist.getQuantile(QUANTILES[i]));
+					}
+					out.write("}");
+				}
+				out.write("}");
+			}
+		}
+		out.write("\n]}\n");
+	}
+
+
+	/**
+	 * Write a snapshot in the Prometheus text exposition format. Histograms are written as
+	 * summaries, since their buckets are too fine to be useful as Prometheus buckets.
+	 * @param out the destination, which is not closed
+	 * @throws IOException if the snapshot cannot be written
+	 */
+	public synchronized void writePrometheus(Writer out) throws IOException {
+		for (List<Metric> named : metrics.values()) {
+			Metric first = named.get(0);
+			out.write("# HELP " + first.name + " " + first.help.replace("\\", "\\\\")
+					.replace("\n", "\\n") + "\n");
+			out.write("# TYPE " + first.name + " " +
+					(first.counter != null ? "counter" : "summary") + "\n");
+			for (Metric metric : named) {
+				if (metric.counter != null) {
+					out.write(metric.name + labels(metric, null) + " " + metric.counter.sum() +
+							"\n");
+				}
+				else {
+					Histogram hist = metric.histogram;
+					for (double quantile : QUANTILES) {
+						out.write(metric.name + labels(metric, quantile) + " " +
+								hist.getQuantile(quantile) + "\n");
+					}
+					out.write(metric.name + "_sum" + labels(metric, null) + " " + hist.getSum() +
+							"\n");
+					out.write(metric.name + "_count" + labels(metric, null) + " " +
+							hist.getCount() + "\n");
+				}
+			}
+		}
+	}
+
+
+	private static String labels(Metric metric, Double quantile) {
+		List<String> pairs = new ArrayList<String>();
+		if (metric.label != null) {
+			pairs.add(metric.label + "=" + quote(metric.labelValue));
+		}
+		if (quantile != null) {
+			pairs.add("quantile=\"" + quantile + "\"");
+		}
+		if (pairs.isEmpty()) return "";
+		StringBuilder out = new StringBuilder("{");
+		for (int i = 0; i < pairs.size(); i++) {
+			if (i > 0) out.append(',');
+			out.append(pairs.get(i));
+		}
+		return out.append('}').toString();
+	}
+
+
+	/**
+	 * Quote a string for JSON or a Prometheus label value, which escape the same characters.
+	 */
+	private static String quote(String value) {
+		return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") +
+				"\"";
+	}
+}
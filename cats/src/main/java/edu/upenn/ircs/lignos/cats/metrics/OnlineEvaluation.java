@@ -0,0 +1,67 @@
+/*
+ Copyright (C) 2013 Constantine Lignos
+
+ This file is a part of CATS.
+
+ CATS is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CATS is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CATS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.upenn.ircs.lignos.cats.metrics;
+
+import java.io.PrintStream;
+
+import edu.upenn.ircs.lignos.cats.Utterance;
+
+/**
+ * Evaluates boundaries one utterance at a time as they are segmented, writing a learning curve
+ * as it goes. The log is the same as the one Evaluation.evalUtterances writes for BOUNDARIES,
+ * but segmented utterances do not need to be kept until the end.
+ */
+public class OnlineEvaluation {
+	private final LearningCurve curve;
+	private final int[] uttCounts;
+
+	/**
+	 * Start a new evaluation, writing the log header.
+	 * @param log log for interval results, null if not needed
+	 */
+	public OnlineEvaluation(PrintStream log) {
+		// Flush each interval to make progress visible while training continues
+		curve = new LearningCurve(log, true);
+		uttCounts = new int[Evaluation.N_COUNTS];
+	}
+
+	/**
+	 * Evaluate a newly segmented utterance, writing the results for the current interval if it
+	 * is complete.
+	 * @param gold the gold utterance
+	 * @param seg the segmented utterance
+	 */
+	public void evalUtterance(Utterance gold, Utterance seg) {
+		// Skip totally unambiguous utterances
+		if (gold.length < 2)
+			return;
+
+		Evaluation.countBoundaries(gold, seg, uttCounts);
+		curve.add(uttCounts);
+	}
+
+	/**
+	 * Finish the evaluation, writing the final results.
+	 * @return the results over all utterances evaluated
+	 */
+	public Result finish() {
+		return curve.finish();
+	}
+}
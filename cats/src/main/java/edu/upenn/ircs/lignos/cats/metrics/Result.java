@@ -19,6 +19,8 @@
 
 package edu.upenn.ircs.lignos.cats.metrics;
 
+import java.util.List;
+
 public class Result {
 	public final double precision;
 	public final double recall;
@@ -27,9 +29,21 @@ public class Result {
 	public final double faRate;
 	public final double aPrime;
 	public final double bDoublePrime;
+	// Bounds of a confidence interval for the f-score, NaN if not computed
+	public final double fScoreLow;
+	public final double fScoreHigh;
 
 	private Result(double precision, double recall, double fScore, double hitRate,
 			double faRate, double aPrime, double bDoublePrime) {
+		this(precision, recall, fScore, hitRate, faRate, aPrime, bDoublePrime, Double.NaN,
+				Double.NaN);
+	}
+
+	private Result(double precision, double recall, double fScore, double hitRate,
+			double faRate, double aPrime, double bDoublePrime, double fScoreLow,
+			double fScoreHigh) {
+		this.fScoreLow = fScoreLow;
+		this.fScoreHigh = fScoreHigh;
 		this.precision = precision;
 		this.recall = recall;
 		this.fScore = fScore;
@@ -62,6 +76,81 @@ public class Result {
 		return r;
 	}
 
+	/**
+	 * Return a copy of this result with a confidence interval for the f-score.
+	 * @param interval the lower and upper bounds of the interval
+	 * @return the new result
+	 */
+	public Result withFScoreInterval(double[] interval) {
+		return new Result(precision, recall, fScore, hitRate, faRate, aPrime, bDoublePrime,
+				interval[0], interval[1]);
+	}
+
+	/**
+	 * Return the mean of each measure over a set of results, such as the folds of a
+	 * cross-validation. Confidence intervals are not carried over.
+	 * @param results the results, at least one
+	 * @return a result holding the means
+	 */
+	public static Result mean(List<Result> results) {
+		double[] sums = new double[N_MEASURES];
+		for (Result r : results) {
+			double[] values = r.measures();
+			for (int i = 0; i < N_MEASURES; i++) {
+				sums[i] += values[i];
+			}
+		}
+		for (int i = 0; i < N_MEASURES; i++) {
+			sums[i] /= results.size();
+		}
+		return fromMeasures(sums);
+	}
+
+	/**
+	 * Return the sample standard deviation of each measure over a set of results. With a
+	 * single result every deviation is zero.
+	 * @param results the results, at least one
+	 * @return a result holding the standard deviations
+	 */
+	public static Result stdDev(List<Result> results) {
+		double[] means = mean(results).measures();
+		double[] squares = new double[N_MEASURES];
+		for (Result r : results) {
+			double[] values = r.measures();
+			for (int i = 0; i < N_MEASURES; i++) {
+				double diff = values[i] - means[i];
+				squares[i] += diff * diff;
+			}
+		}
+		for (int i = 0; i < N_MEASURES; i++) {
+			squares[i] = results.size() > 1 ? Math.sqrt(squares[i] / (results.size() - 1)) : 0.0;
+		}
+		return fromMeasures(squares);
+	}
+
+	// Number of measures, in the order of the constructor
+	private static final int N_MEASURES = 7;
+
+	private double[] measures() {
+		return new double[] {precision, recall, fScore, hitRate, faRate, aPrime, bDoublePrime};
+	}
+
+	private static Result fromMeasures(double[] m) {
+		return new Result(m[0], m[1], m[2], m[3], m[4], m[5], m[6]);
+	}
+
+	/**
+	 * @return whether a confidence interval for the f-score has been computed
+	 */
+	public boolean hasFScoreInterval() {
+		return !Double.isNaN(fScoreLow);
+	}
+
+	public String toStringFScoreInterval() {
+		return String.format("F-Score %.0f%% CI: [%.4f, %.4f]", Bootstrap.LEVEL * 100,
+				fScoreLow, fScoreHigh);
+	}
+
 	public String toString() {
 		return String.format("Precision: %.4f, Recall: %.4f, F-Score: %.4f\nHit Rate: %.4f, " +
 				"FA Rate: %.4f, A': %.4f, B'': %.4f",
@@ -0,0 +1,84 @@
+/*
+ Copyright (C) 2013 Constantine Lignos
+
+ This file is a part of CATS.
+
+ CATS is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CATS is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CATS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.upenn.ircs.lignos.cats.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import edu.upenn.ircs.lignos.cats.PhaseTimer;
+
+/**
+ * The metrics recorded by the lexicon, segmenters, and segmentation loop of a run. The fields
+ * are looked up once here so that the hot paths record to them directly.
+ */
+public class SegmentationMetrics {
+	public final MetricsRegistry registry;
+
+	// Lexicon
+	public final LongAdder lexiconLookups;
+	public final LongAdder lexiconHits;
+	public final LongAdder lexiconMisses;
+	public final LongAdder recallFailures;
+	public final Histogram prefixesPerPosition;
+
+	// Segmentation
+	public final Histogram beamWidth;
+	public final Histogram utteranceNanos;
+
+
+	public SegmentationMetrics(MetricsRegistry registry) {
+		this.registry = registry;
+		lexiconLookups = registry.counter("cats_lexicon_lookups_total",
+				"Prefixes looked up in the lexicon.");
+		lexiconHits = registry.counter("cats_lexicon_hits_total",
+				"Prefix lookups that found a word.");
+		lexiconMisses = registry.counter("cats_lexicon_misses_total",
+				"Prefix lookups that found no word.");
+		recallFailures = registry.counter("cats_lexicon_recall_failures_total",
+				"Prefix lookups that found a word that could not be recalled.");
+		prefixesPerPosition = registry.histogram("cats_lexicon_prefix_words",
+				"Words recalled as prefixes of the utterance at each position looked up.");
+		beamWidth = registry.histogram("cats_beam_width",
+				"Hypotheses in the beam at each step of the beam search.");
+		utteranceNanos = registry.histogram("cats_utterance_latency_nanoseconds",
+				"Time taken to segment each utterance.");
+	}
+
+
+	/**
+	 * Record the time, CPU time, and allocation of each finished phase of a run.
+	 * @param phases the timer of the run
+	 */
+	public void recordPhases(PhaseTimer phases) {
+		for (PhaseTimer.Phase phase : phases.getPhases()) {
+			registry.counter("cats_phase_wall_nanoseconds_total", "Wall-clock time in each phase.",
+					"phase", phase.name).add(phase.wallNanos);
+			if (phase.cpuNanos != PhaseTimer.UNKNOWN) {
+				registry.counter("cats_phase_cpu_nanoseconds_total",
+						"CPU time of the thread running each phase.", "phase", phase.name)
+						.add(phase.cpuNanos);
+			}
+			if (phase.allocatedBytes != PhaseTimer.UNKNOWN) {
+				registry.counter("cats_phase_allocated_bytes_total",
+						"Bytes allocated by the thread running each phase.", "phase", phase.name)
+						.add(phase.allocatedBytes);
+			}
+		}
+	}
+}
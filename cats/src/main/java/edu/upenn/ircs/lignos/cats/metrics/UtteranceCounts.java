@@ -0,0 +1,94 @@
+/*
+ Copyright (C) 2013 Constantine Lignos
+
+ This file is a part of CATS.
+
+ CATS is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CATS is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CATS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.upenn.ircs.lignos.cats.metrics;
+
+import java.util.Arrays;
+
+/**
+ * The true positive, false positive, and false negative counts of each utterance in an
+ * evaluation, kept in a single primitive array.
+ */
+public class UtteranceCounts {
+	private static final int STRIDE = 3;
+
+	private int[] counts;
+	private int size;
+
+	public UtteranceCounts() {
+		counts = new int[1024 * STRIDE];
+		size = 0;
+	}
+
+	/**
+	 * Add the counts for the next utterance.
+	 */
+	public void add(int truePositives, int falsePositives, int falseNegatives) {
+		if ((size + 1) * STRIDE > counts.length) {
+			counts = Arrays.copyOf(counts, counts.length * 2);
+		}
+		int pos = size * STRIDE;
+		counts[pos] = truePositives;
+		counts[pos + 1] = falsePositives;
+		counts[pos + 2] = falseNegatives;
+		size++;
+	}
+
+	/**
+	 * Make room for the counts of the next n utterances, which are then filled in with set.
+	 * @return the index of the first of them
+	 */
+	int extend(int n) {
+		if ((size + n) * STRIDE > counts.length) {
+			counts = Arrays.copyOf(counts, Math.max(counts.length * 2, (size + n) * STRIDE));
+		}
+		int first = size;
+		size += n;
+		return first;
+	}
+
+	/**
+	 * Set the counts for an utterance made room for by extend.
+	 */
+	void set(int utt, int truePositives, int falsePositives, int falseNegatives) {
+		int pos = utt * STRIDE;
+		counts[pos] = truePositives;
+		counts[pos + 1] = falsePositives;
+		counts[pos + 2] = falseNegatives;
+	}
+
+	/**
+	 * @return the number of utterances counted
+	 */
+	public int size() {
+		return size;
+	}
+
+	public int getTruePositives(int utt) {
+		return counts[utt * STRIDE];
+	}
+
+	public int getFalsePositives(int utt) {
+		return counts[utt * STRIDE + 1];
+	}
+
+	public int getFalseNegatives(int utt) {
+		return counts[utt * STRIDE + 2];
+	}
+}
@@ -22,11 +22,14 @@ package edu.upenn.ircs.lignos.cats.segmenters;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
+import java.util.Random;
 
 import edu.upenn.ircs.lignos.cats.Utterance;
 import edu.upenn.ircs.lignos.cats.counters.SubSeqCounter;
+import edu.upenn.ircs.lignos.cats.events.BeamStepEvent;
 import edu.upenn.ircs.lignos.cats.lexicon.Lexicon;
 import edu.upenn.ircs.lignos.cats.lexicon.Word;
+import edu.upenn.ircs.lignos.cats.metrics.SegmentationMetrics;
 
 /**
  * A segmenter that uses a beam search to apply the USC left-to-right and
@@ -50,15 +53,19 @@ public class BeamSubtractiveSegmenter implements Segmenter {
 	private int subtractionSegs = 0;
 	private Lexicon lexicon;
 	private SubSeqCounter counter;
+	private Random rand;
+	// Where beam widths are recorded, null if they are not
+	private SegmentationMetrics metrics;
 
 
 	public BeamSubtractiveSegmenter(boolean longest, boolean useUSC, int beamSize, Lexicon lexicon,
-			SubSeqCounter counter, boolean randomize) {
+			SubSeqCounter counter, boolean randomize, Random rand) {
 		this.beamSize = beamSize;
 		this.useUSC = useUSC;
 		this.lexicon = lexicon;
 		this.counter = counter;
 		this.randomize = randomize;
+		this.rand = rand;
 
 		// Create the beams. These are reused each time for efficiency
 		beam = new ArrayList<SegResult>(beamSize);
@@ -66,6 +73,15 @@ public class BeamSubtractiveSegmenter implements Segmenter {
 	}
 
 
+	/**
+	 * Record the width of the beam at each step in the given metrics.
+	 * @param metrics the metrics, or null to stop recording
+	 */
+	public void setMetrics(SegmentationMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+
 	/*
 	 * Segment by subtracting known words from the utterance and using the
 	 * Unique Stress Constraint to limit the amount of stress per word
@@ -93,7 +109,11 @@ public class BeamSubtractiveSegmenter implements Segmenter {
 		// candidates in the beam where one comes from doing no work, and the other comes
 		// from subtracting a single word that's the length of the whole utterance.
 		// Keep segmenting until we're done
-		while (true) {
+		for (int step = 0; ; step++) {
+			if (metrics != null) metrics.beamWidth.record(beam.size());
+			BeamStepEvent event = new BeamStepEvent();
+			event.begin();
+			int startBeamSize = beam.size();
 			// Loop over the beam, keeping complete segmentations and moving others
 			// Keep track of whether everything in the beam is done
 			boolean allDone = true;
@@ -121,6 +141,14 @@ public class BeamSubtractiveSegmenter implements Segmenter {
 						candidates.add(result);
 				}
 			}
+			if (event.shouldCommit()) {
+				event.utteranceLength = utterance.length;
+				event.step = step;
+				event.beamSize = startBeamSize;
+				event.candidates = candidates.size();
+				event.commit();
+			}
+
 			// Clear the beam and copy the candidates to it
 			beam.clear();
 			if (candidates.size() <= beamSize) {
@@ -192,7 +220,7 @@ public class BeamSubtractiveSegmenter implements Segmenter {
 
 		if (randomize) {
 			// Rather than choosing the best score, sample among the best scores
-			maxScoreIdx = SegUtil.sampleScores(beamScores);
+			maxScoreIdx = SegUtil.sampleScores(beamScores, rand);
 		}
 
 		if (trace) System.out.println("Chose " + maxScoreIdx);
@@ -268,7 +296,7 @@ public class BeamSubtractiveSegmenter implements Segmenter {
 					if (beamLock && first) {
 						if (randomize) {
 							w = longest ? prefixes.get(prefixes.size() - 1):
-								SegUtil.chooseSampledBestScoreWord(prefixes, lexicon, counter);
+								SegUtil.chooseSampledBestScoreWord(prefixes, lexicon, counter, rand);
 						}
 						else {
 							w = longest ? prefixes.get(prefixes.size() - 1):
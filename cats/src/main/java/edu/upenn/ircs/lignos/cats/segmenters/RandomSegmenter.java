@@ -19,6 +19,8 @@
 
 package edu.upenn.ircs.lignos.cats.segmenters;
 
+import java.util.Random;
+
 import edu.upenn.ircs.lignos.cats.Utterance;
 import edu.upenn.ircs.lignos.cats.lexicon.Lexicon;
 
@@ -29,14 +31,18 @@ public class RandomSegmenter implements Segmenter {
 	private double threshold = .5;
 	private int segs = 0;
 	private Lexicon lexicon;
+	private Random rand;
 
 	/**
-	 * Create a
-	 * @param threshold
+	 * Create a random segmenter.
+	 * @param threshold the probability of placing a boundary at each position
+	 * @param lexicon the lexicon to add the segmented words to
+	 * @param rand the source of randomness
 	 */
-	public RandomSegmenter(double threshold, Lexicon lexicon) {
+	public RandomSegmenter(double threshold, Lexicon lexicon, Random rand) {
 		this.threshold = threshold;
 		this.lexicon = lexicon;
+		this.rand = rand;
 	}
 
 	/*
@@ -49,7 +55,7 @@ public class RandomSegmenter implements Segmenter {
 
 		// Randomly insert boundaries
 		for (int i=0; i<boundaries.length; i++) {
-			if (Math.random() < threshold) {
+			if (rand.nextDouble() < threshold) {
 				boundaries[i] = true;
 				segs++;
 			}
@@ -23,6 +23,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Random;
 
 import edu.upenn.ircs.lignos.cats.counters.SubSeqCounter;
 import edu.upenn.ircs.lignos.cats.lexicon.Lexicon;
@@ -141,10 +142,11 @@ public class SegUtil {
 	/**
 	 * Randomly choose the best word, preferring words of higher score.
 	 * @param words the words to choose from
+	 * @param rand the source of randomness
 	 * @return the selected  word
 	 */
 	public static Word chooseSampledBestScoreWord(ArrayList<Word> words, Lexicon lex,
-			SubSeqCounter counter) {
+			SubSeqCounter counter, Random rand) {
 		// First get the normalization denominator
 		double scoreSum = 0;
 		for (Word w : words) {
@@ -168,7 +170,7 @@ public class SegUtil {
 		}
 
 		// Draw a random number and find the winner using Shannon/Miller/Selfridge
-		double draw = Math.random();
+		double draw = rand.nextDouble();
 		double sum = 0;
 		int winningIdx;
 		for (winningIdx = 0; winningIdx < normScores.length; winningIdx++) {
@@ -312,9 +314,10 @@ public class SegUtil {
 	/**
 	 * Return the winning beam index by sampling among scores based on their relative size.
 	 * @param beamScores scores of each hypothesis in the beam
+	 * @param rand the source of randomness
 	 * @return index of the winning hypothesis
 	 */
-	public static int sampleScores(double[] beamScores) {
+	public static int sampleScores(double[] beamScores, Random rand) {
 		// First get the normalization denominator
 		double sum = 0;
 		for (int i = 0; i < beamScores.length; i++) {
@@ -337,7 +340,7 @@ public class SegUtil {
 		}
 
 		// Draw a random number and find the winner using Shannon/Miller/Selfridge
-		double draw = Math.random();
+		double draw = rand.nextDouble();
 		sum = 0;
 		int winningIdx;
 		for (winningIdx = 0; winningIdx < beamScores.length; winningIdx++) {
@@ -0,0 +1,151 @@
+/*
+ Copyright (C) 2013 Constantine Lignos
+
+ This file is a part of CATS.
+
+ CATS is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CATS is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CATS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.upenn.ircs.lignos.cats.test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.util.zip.GZIPInputStream;
+
+import edu.upenn.ircs.lignos.cats.AsyncLogSink;
+import junit.framework.TestCase;
+
+public class AsyncLogSinkTest extends TestCase {
+	// Enough lines to fill many blocks
+	private static final int N_LINES = 100000;
+
+	public void testPlain() throws IOException {
+		checkRoundTrip(false);
+	}
+
+	public void testGzip() throws IOException {
+		checkRoundTrip(true);
+	}
+
+	/**
+	 * Test that after the writer fails, writes report it and close still stops the writer
+	 */
+	public void testWriteError() throws IOException {
+		// Writes to /dev/full always fail, where it exists
+		File full = new File("/dev/full");
+		if (!full.canWrite()) return;
+
+		AsyncLogSink sink = new AsyncLogSink(full.getPath(), false);
+		// Much more than the queue holds, so this would block if the writer stopped taking
+		byte[] bytes = new byte[1 << 20];
+		try {
+			for (int i = 0; i < 64; i++) {
+				sink.write(bytes);
+			}
+			fail("Writing to a full device succeeded");
+		} catch (IOException e) {
+			// Expected
+		}
+		try {
+			sink.close();
+			fail("Closing after a failed write succeeded");
+		} catch (IOException e) {
+			// Expected
+		}
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			assertFalse(thread.getName().equals("Log writer for " + full.getPath()));
+		}
+	}
+
+	/**
+	 * Test that a failed write through the PrintStream is reported when it is closed
+	 */
+	public void testPrintStreamCloseError() throws IOException {
+		File full = new File("/dev/full");
+		if (!full.canWrite()) return;
+
+		PrintStream out = AsyncLogSink.open(full.getPath(), false);
+		out.println("line");
+		try {
+			out.close();
+			fail("Closing after a failed write succeeded");
+		} catch (UncheckedIOException e) {
+			// Expected
+		}
+	}
+
+	/**
+	 * Test that deferred lines are written in order with plain ones, formatted by the writer
+	 */
+	public void testDeferred() throws IOException {
+		File file = File.createTempFile("log", ".csv");
+		file.deleteOnExit();
+		final Thread caller = Thread.currentThread();
+		PrintStream out = AsyncLogSink.open(file.getPath(), false);
+		for (int i = 0; i < N_LINES; i++) {
+			if (i % 3 == 0) {
+				out.println(i + ",line");
+			}
+			else {
+				final int n = i;
+				out.println(new AsyncLogSink.Deferred() {
+					@Override
+					public String toString() {
+						assertNotSame(caller, Thread.currentThread());
+						return n + ",line";
+					}
+				});
+			}
+		}
+		out.close();
+		assertFalse(out.checkError());
+		checkLines(file);
+	}
+
+	private void checkRoundTrip(boolean gzip) throws IOException {
+		File file = File.createTempFile("log", ".csv");
+		file.deleteOnExit();
+		PrintStream out = AsyncLogSink.open(file.getPath(), gzip);
+		for (int i = 0; i < N_LINES; i++) {
+			out.println(i + ",line");
+		}
+		out.close();
+		assertFalse(out.checkError());
+
+		File written = gzip ? new File(file.getPath() + AsyncLogSink.GZIP_SUFFIX) : file;
+		written.deleteOnExit();
+		checkLines(written);
+	}
+
+	private void checkLines(File written) throws IOException {
+		InputStream in = new FileInputStream(written);
+		if (written.getName().endsWith(AsyncLogSink.GZIP_SUFFIX)) in = new GZIPInputStream(in);
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+		try {
+			for (int i = 0; i < N_LINES; i++) {
+				assertEquals(i + ",line", reader.readLine());
+			}
+			assertNull(reader.readLine());
+		}
+		finally {
+			reader.close();
+		}
+	}
+}
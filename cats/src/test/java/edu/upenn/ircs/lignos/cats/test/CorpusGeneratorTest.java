@@ -0,0 +1,98 @@
+/*
+ Copyright (C) 2013 Constantine Lignos
+
+ This file is a part of CATS.
+
+ CATS is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CATS is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CATS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.upenn.ircs.lignos.cats.test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import edu.upenn.ircs.lignos.cats.CorpusGenerator;
+import edu.upenn.ircs.lignos.cats.Utterance;
+import junit.framework.TestCase;
+
+public class CorpusGeneratorTest extends TestCase {
+	private static final double[] WEIGHTS = {0.5, 0.3, 0.2};
+
+	private static String generate(long seed, long nSyllables) throws IOException {
+		CorpusGenerator generator = new CorpusGenerator(500, 1.0, WEIGHTS, 0.8, 0.6, 3.0, seed);
+		StringWriter out = new StringWriter();
+		generator.write(out, nSyllables);
+		return out.toString();
+	}
+
+	/**
+	 * Test that the same seed gives the same corpus and another seed a different one
+	 */
+	public void testReproducible() throws IOException {
+		assertEquals(generate(1, 2000), generate(1, 2000));
+		assertFalse(generate(1, 2000).equals(generate(2, 2000)));
+	}
+
+	/**
+	 * Test that the output parses and has the requested number of syllables
+	 */
+	public void testParses() throws IOException {
+		String[] lines = generate(3, 5000).split("\n");
+		int nSyllables = 0;
+		for (String line : lines) {
+			Utterance utt = new Utterance(line, true, false);
+			int nBoundaries = 0;
+			for (Boolean boundary : utt.getBoundariesCopy()) {
+				if (boundary) nBoundaries++;
+			}
+			assertEquals(line.split(" ").length, nBoundaries + 1);
+			nSyllables += utt.length;
+		}
+		assertTrue(nSyllables >= 5000);
+		// The last utterance is what takes it past the target
+		assertTrue(nSyllables - new Utterance(lines[lines.length - 1], true, false).length < 5000);
+	}
+
+	/**
+	 * Test that word types are distinct, shortest first, and drawn by rank
+	 */
+	public void testLexicon() throws IOException {
+		CorpusGenerator generator = new CorpusGenerator(500, 1.0, WEIGHTS, 0.8, 0.6, 3.0, 4);
+		List<String> words = generator.getWords();
+		assertEquals(500, new HashSet<String>(words).size());
+		int lastLength = 0;
+		for (String word : words) {
+			int length = word.split("\\|").length;
+			assertTrue(length >= lastLength);
+			lastLength = length;
+			// Words have at most one stressed syllable
+			assertTrue(word.indexOf('1') == word.lastIndexOf('1'));
+		}
+
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		StringWriter out = new StringWriter();
+		generator.write(out, 20000);
+		for (String word : out.toString().split("\\s+")) {
+			Integer count = counts.get(word);
+			counts.put(word, count == null ? 1 : count + 1);
+		}
+		int first = counts.get(words.get(0));
+		Integer tenth = counts.get(words.get(9));
+		assertTrue(tenth != null && first > 3 * tenth);
+	}
+}
@@ -19,10 +19,21 @@
 
 package edu.upenn.ircs.lignos.cats.test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
 import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 
 import edu.upenn.ircs.lignos.cats.Utterance;
+import edu.upenn.ircs.lignos.cats.lexicon.Lexicon;
+import edu.upenn.ircs.lignos.cats.metrics.Bootstrap;
 import edu.upenn.ircs.lignos.cats.metrics.Evaluation;
+import edu.upenn.ircs.lignos.cats.metrics.Evaluation.EvalMethod;
+import edu.upenn.ircs.lignos.cats.metrics.OnlineEvaluation;
+import edu.upenn.ircs.lignos.cats.metrics.Result;
+import edu.upenn.ircs.lignos.cats.metrics.UtteranceCounts;
 import junit.framework.TestCase;
 
 public class EvaluationTest extends TestCase{
@@ -44,4 +55,219 @@ public class EvaluationTest extends TestCase{
 		Utterance doggie2Utt = new Utterance(doggieSent2, null, doggieBound2);
 		assertTrue(Arrays.equals(Evaluation.wordsPredicted(doggie2Utt), doggie2Words));
 	}
+
+	/*
+	 * Test that the single pass evaluation matches separate evaluations
+	 */
+	public void testEvalAllMatchesSeparate() {
+		List<Utterance> gold = Arrays.asList(
+				new Utterance("DH.AH0 D.AO1.G|IY0 R.AE1.N", true, false),
+				new Utterance("B.AY1", true, false),
+				new Utterance("B.AY1 B.AY1|B.AY1", true, false));
+		List<Utterance> seg = Arrays.asList(
+				new Utterance(gold.get(0).getUnits(), gold.get(0).getStresses(),
+						new Boolean[] {true, true, false}),
+				new Utterance(gold.get(1).getUnits(), gold.get(1).getStresses(), new Boolean[] {}),
+				new Utterance(gold.get(2).getUnits(), gold.get(2).getStresses(),
+						new Boolean[] {false, true}));
+		Lexicon goldLex = Lexicon.lexiconFromUtterances(gold, false);
+
+		ByteArrayOutputStream evalLog = new ByteArrayOutputStream();
+		ByteArrayOutputStream boundaryLog = new ByteArrayOutputStream();
+		ByteArrayOutputStream wordLog = new ByteArrayOutputStream();
+		Result boundaries = Evaluation.evalUtterances(gold, seg, new PrintStream(evalLog),
+				new PrintStream(boundaryLog), EvalMethod.BOUNDARIES);
+		Result words = Evaluation.evalUtterances(gold, seg, new PrintStream(evalLog),
+				new PrintStream(wordLog), EvalMethod.WORDS);
+		Result types = Evaluation.evalLexicons(goldLex, Lexicon.lexiconFromUtterances(seg, false),
+				null, false);
+
+		ByteArrayOutputStream allEvalLog = new ByteArrayOutputStream();
+		ByteArrayOutputStream allBoundaryLog = new ByteArrayOutputStream();
+		ByteArrayOutputStream allWordLog = new ByteArrayOutputStream();
+		Result[] all = Evaluation.evalAll(gold, seg, goldLex, new PrintStream(allEvalLog),
+				new PrintStream(allBoundaryLog), new PrintStream(allWordLog));
+
+		assertEquals(boundaries.toCSVString(), all[0].toCSVString());
+		assertEquals(words.toCSVString(), all[1].toCSVString());
+		assertEquals(types.toCSVString(), all[2].toCSVString());
+		assertEquals(evalLog.toString(), allEvalLog.toString());
+		assertEquals(boundaryLog.toString(), allBoundaryLog.toString());
+		assertEquals(wordLog.toString(), allWordLog.toString());
+	}
+
+	/*
+	 * Test that token evaluation matches comparing the words predicted at each position
+	 */
+	public void testWordsMatchWordsPredicted() {
+		Random rand = new Random(0);
+		List<Utterance> gold = new ArrayList<Utterance>();
+		List<Utterance> seg = new ArrayList<Utterance>();
+		int tp = 0, fp = 0, fn = 0, tn = 0;
+		for (int n = 0; n < 200; n++) {
+			int length = 2 + rand.nextInt(8);
+			String[] units = new String[length];
+			Boolean[] stresses = new Boolean[length];
+			for (int i = 0; i < length; i++) {
+				units[i] = rand.nextBoolean() ? "ba" : "b";
+				stresses[i] = false;
+			}
+			Boolean[] goldBound = new Boolean[length - 1];
+			Boolean[] segBound = new Boolean[length - 1];
+			for (int i = 0; i < length - 1; i++) {
+				goldBound[i] = rand.nextBoolean();
+				segBound[i] = rand.nextBoolean();
+			}
+			Utterance goldUtt = new Utterance(units, stresses, goldBound);
+			Utterance segUtt = new Utterance(units, stresses, segBound);
+			gold.add(goldUtt);
+			seg.add(segUtt);
+
+			String[] goldWords = Evaluation.wordsPredicted(goldUtt);
+			String[] segWords = Evaluation.wordsPredicted(segUtt);
+			for (int i = 0; i < goldWords.length; i++) {
+				if (goldWords[i] != null && goldWords[i].equals(segWords[i])) tp++;
+				else if (goldWords[i] == null && segWords[i] == null) tn++;
+				else {
+					if (segWords[i] != null) fp++;
+					if (goldWords[i] != null) fn++;
+				}
+			}
+		}
+
+		assertEquals(Result.calcResult(tp, fp, fn, tn).toCSVString(),
+				Evaluation.evalUtterances(gold, seg, null, null, EvalMethod.WORDS).toCSVString());
+	}
+
+	/*
+	 * Test that parallel evaluation gives the same results, per-utterance counts, and perf log
+	 * as sequential
+	 */
+	public void testParallelMatchesSequential() {
+		Random rand = new Random(0);
+		List<Utterance> gold = new ArrayList<Utterance>();
+		List<Utterance> seg = new ArrayList<Utterance>();
+		// Enough utterances for many chunks and intervals, including unscored ones
+		for (int n = 0; n < 20000; n++) {
+			int length = 1 + rand.nextInt(6);
+			String[] units = new String[length];
+			Boolean[] stresses = new Boolean[length];
+			for (int i = 0; i < length; i++) {
+				units[i] = rand.nextBoolean() ? "ba" : "bi";
+			}
+			Arrays.fill(stresses, false);
+			Boolean[] goldBound = new Boolean[length - 1];
+			Boolean[] segBound = new Boolean[length - 1];
+			for (int i = 0; i < length - 1; i++) {
+				goldBound[i] = rand.nextBoolean();
+				segBound[i] = rand.nextBoolean();
+			}
+			gold.add(new Utterance(units, stresses, goldBound));
+			seg.add(new Utterance(units, stresses, segBound));
+		}
+
+		Lexicon goldLexicon = Lexicon.lexiconFromUtterances(gold, false);
+
+		ByteArrayOutputStream log = new ByteArrayOutputStream();
+		ByteArrayOutputStream parallelLog = new ByteArrayOutputStream();
+		UtteranceCounts boundaryCounts = new UtteranceCounts();
+		UtteranceCounts parallelBoundaryCounts = new UtteranceCounts();
+		UtteranceCounts wordCounts = new UtteranceCounts();
+		UtteranceCounts parallelWordCounts = new UtteranceCounts();
+		Result[] results = Evaluation.evalAll(gold, seg, goldLexicon, null, new PrintStream(log),
+				null, boundaryCounts, wordCounts);
+		Result[] parallelResults = Evaluation.evalAllParallel(gold, seg, goldLexicon, null,
+				new PrintStream(parallelLog), null, parallelBoundaryCounts, parallelWordCounts);
+		for (int i = 0; i < results.length; i++) {
+			assertEquals(results[i].toCSVString(), parallelResults[i].toCSVString());
+		}
+		// The perf log must be byte for byte the same
+		assertTrue(Arrays.equals(log.toByteArray(), parallelLog.toByteArray()));
+		assertSameCounts(boundaryCounts, parallelBoundaryCounts);
+		assertSameCounts(wordCounts, parallelWordCounts);
+	}
+
+	private static void assertSameCounts(UtteranceCounts expected, UtteranceCounts actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.getTruePositives(i), actual.getTruePositives(i));
+			assertEquals(expected.getFalsePositives(i), actual.getFalsePositives(i));
+			assertEquals(expected.getFalseNegatives(i), actual.getFalseNegatives(i));
+		}
+	}
+
+	/*
+	 * Test that evaluating utterances as they come matches evaluating them afterwards
+	 */
+	public void testOnlineMatchesEvalUtterances() {
+		Random rand = new Random(1);
+		List<Utterance> gold = new ArrayList<Utterance>();
+		List<Utterance> seg = new ArrayList<Utterance>();
+		ByteArrayOutputStream onlineLog = new ByteArrayOutputStream();
+		OnlineEvaluation online = new OnlineEvaluation(new PrintStream(onlineLog));
+		for (int n = 0; n < 1800; n++) {
+			int length = 1 + rand.nextInt(5);
+			String[] units = new String[length];
+			Boolean[] stresses = new Boolean[length];
+			Arrays.fill(units, "ba");
+			Arrays.fill(stresses, false);
+			Boolean[] goldBound = new Boolean[length - 1];
+			Boolean[] segBound = new Boolean[length - 1];
+			for (int i = 0; i < length - 1; i++) {
+				goldBound[i] = rand.nextBoolean();
+				segBound[i] = rand.nextBoolean();
+			}
+			gold.add(new Utterance(units, stresses, goldBound));
+			seg.add(new Utterance(units, stresses, segBound));
+			online.evalUtterance(gold.get(n), seg.get(n));
+		}
+		Result onlineResult = online.finish();
+
+		ByteArrayOutputStream log = new ByteArrayOutputStream();
+		Result result = Evaluation.evalUtterances(gold, seg, null, new PrintStream(log),
+				EvalMethod.BOUNDARIES);
+		assertEquals(result.toCSVString(), onlineResult.toCSVString());
+		assertEquals(log.toString(), onlineLog.toString());
+	}
+
+	/*
+	 * Test that bootstrap intervals are repeatable and contain the point estimate
+	 */
+	public void testBootstrapInterval() {
+		Random rand = new Random(2);
+		UtteranceCounts counts = new UtteranceCounts();
+		int tp = 0, fp = 0, fn = 0;
+		for (int i = 0; i < 3000; i++) {
+			int uttTp = rand.nextInt(5), uttFp = rand.nextInt(2), uttFn = rand.nextInt(2);
+			counts.add(uttTp, uttFp, uttFn);
+			tp += uttTp;
+			fp += uttFp;
+			fn += uttFn;
+		}
+		double fScore = Result.calcResult(tp, fp, fn, 0).fScore;
+
+		double[] interval = Bootstrap.fScoreInterval(counts, 500, 0);
+		assertTrue(interval[0] <= fScore && fScore <= interval[1]);
+		assertTrue(interval[0] < interval[1]);
+		assertTrue(Arrays.equals(interval, Bootstrap.fScoreInterval(counts, 500, 0)));
+
+		// No utterances gives no interval
+		assertTrue(Double.isNaN(Bootstrap.fScoreInterval(new UtteranceCounts(), 500, 0)[0]));
+	}
+
+	/**
+	 * Test the mean and standard deviation of results over runs
+	 */
+	public void testMeanStdDev() {
+		List<Result> results = Arrays.asList(Result.calcResult(1, 1, 0, 2),
+				Result.calcResult(1, 0, 0, 2));
+		Result mean = Result.mean(results);
+		assertEquals(0.75, mean.precision, 1e-6);
+		assertEquals(1.0, mean.recall, 1e-6);
+		Result stdDev = Result.stdDev(results);
+		assertEquals(Math.sqrt(0.125), stdDev.precision, 1e-6);
+		assertEquals(0.0, stdDev.recall, 1e-6);
+		assertFalse(mean.hasFScoreInterval());
+		assertEquals(0.0, Result.stdDev(results.subList(0, 1)).fScore, 1e-6);
+	}
 }
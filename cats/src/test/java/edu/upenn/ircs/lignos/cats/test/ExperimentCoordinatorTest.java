@@ -0,0 +1,205 @@
+/*
+ Copyright (C) 2013 Constantine Lignos
+
+ This file is a part of CATS.
+
+ CATS is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CATS is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CATS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.upenn.ircs.lignos.cats.test;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import edu.upenn.ircs.lignos.cats.ExperimentCoordinator;
+import edu.upenn.ircs.lignos.cats.ExperimentCoordinator.Task;
+import edu.upenn.ircs.lignos.cats.ResultsFile;
+import junit.framework.TestCase;
+
+public class ExperimentCoordinatorTest extends TestCase {
+	private static final String HEADER = "Condition,Value";
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final long WORKER_WAIT_MILLIS = 60000;
+	private static final long SERVE_TIMEOUT_MILLIS = 10000;
+
+	private File file;
+	private ResultsFile results;
+	private ServerSocket server;
+	private ExperimentCoordinator coordinator;
+	private Thread serving;
+
+
+	@Override
+	protected void setUp() throws IOException {
+		file = File.createTempFile("results", ".csv");
+		file.deleteOnExit();
+		results = new ResultsFile(file.getPath(), HEADER, false);
+		server = new ServerSocket(0, 0, InetAddress.getLoopbackAddress());
+	}
+
+
+	@Override
+	protected void tearDown() throws IOException {
+		server.close();
+		results.close();
+	}
+
+
+	/**
+	 * Start serving the named conditions on another thread.
+	 */
+	private void serve(long workerWaitMillis, String... names) {
+		List<Task> tasks = new ArrayList<Task>();
+		for (String name : names) {
+			tasks.add(new Task(name, name, new Properties()));
+		}
+		coordinator = new ExperimentCoordinator("train", "none", tasks, results,
+				workerWaitMillis);
+		serving = new Thread() {
+			@Override
+			public void run() {
+				try {
+					coordinator.serve(server);
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		serving.start();
+	}
+
+
+	/**
+	 * Wait for the coordinator to finish and return the rows it wrote.
+	 */
+	private List<String> finishServing() throws InterruptedException, IOException {
+		serving.join(SERVE_TIMEOUT_MILLIS);
+		assertFalse("Coordinator still serving", serving.isAlive());
+		assertFalse(coordinator.hasUnfinished());
+		assertTrue(server.isClosed());
+		List<String> lines = Files.readAllLines(file.toPath(), UTF8);
+		assertEquals(HEADER, lines.get(0));
+		List<String> rows = new ArrayList<String>(lines.subList(1, lines.size()));
+		Collections.sort(rows);
+		return rows;
+	}
+
+
+	/**
+	 * Connect as a worker and run conditions, answering each with a row of its name. A worker
+	 * that dies disconnects without answering once it is given a condition.
+	 * @return the names of the conditions answered
+	 */
+	private List<String> work(boolean dies) throws IOException {
+		List<String> ran = new ArrayList<String>();
+		Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+		try {
+			DataInputStream in = new DataInputStream(
+					new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(socket.getOutputStream()));
+			assertEquals(ExperimentCoordinator.PROTOCOL, in.readUTF());
+			assertEquals("train", in.readUTF());
+			assertEquals("none", in.readUTF());
+
+			int msg;
+			while ((msg = in.readInt()) == ExperimentCoordinator.MSG_TASK) {
+				String name = in.readUTF();
+				assertEquals(name, in.readUTF());
+				in.readUTF();
+				if (dies) {
+					return ran;
+				}
+				// Heartbeats may come before the result
+				out.writeInt(ExperimentCoordinator.MSG_HEARTBEAT);
+				out.writeInt(ExperimentCoordinator.MSG_RESULT);
+				out.writeUTF(name + ",1");
+				out.flush();
+				ran.add(name);
+			}
+			assertEquals(ExperimentCoordinator.MSG_DONE, msg);
+		}
+		finally {
+			socket.close();
+		}
+		return ran;
+	}
+
+
+	/**
+	 * Test that each condition is sent to a worker and its row written
+	 */
+	public void testRoundTrip() throws IOException, InterruptedException {
+		serve(WORKER_WAIT_MILLIS, "a", "b", "c");
+		List<String> ran = work(false);
+		Collections.sort(ran);
+		assertEquals(Arrays.asList("a", "b", "c"), ran);
+		assertEquals(Arrays.asList("a,1", "b,1", "c,1"), finishServing());
+	}
+
+
+	/**
+	 * Test that a condition lost with its worker is given to the next worker
+	 */
+	public void testRequeueOnLostWorker() throws IOException, InterruptedException {
+		serve(WORKER_WAIT_MILLIS, "a");
+		assertEquals(0, work(true).size());
+		assertEquals(Arrays.asList("a"), work(false));
+		assertEquals(Arrays.asList("a,1"), finishServing());
+	}
+
+
+	/**
+	 * Test that a condition is given up on once it has been lost too many times
+	 */
+	public void testGiveUpAfterMaxAttempts() throws IOException, InterruptedException {
+		serve(WORKER_WAIT_MILLIS, "a");
+		for (int i = 0; i < ExperimentCoordinator.MAX_ATTEMPTS; i++) {
+			work(true);
+		}
+		assertEquals(0, finishServing().size());
+	}
+
+
+	/**
+	 * Test that the coordinator stops at once when there is nothing to run
+	 */
+	public void testShutdownWithNoWork() throws IOException, InterruptedException {
+		serve(WORKER_WAIT_MILLIS);
+		assertEquals(0, finishServing().size());
+	}
+
+
+	/**
+	 * Test that waiting conditions are given up on when no worker comes to run them
+	 */
+	public void testGiveUpWithoutWorkers() throws IOException, InterruptedException {
+		serve(100, "a", "b");
+		assertEquals(0, finishServing().size());
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ Copyright (C) 2013 Constantine Lignos
+
+ This file is a part of CATS.
+
+ CATS is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CATS is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CATS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.upenn.ircs.lignos.cats.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import edu.upenn.ircs.lignos.cats.ExperimentData;
+import edu.upenn.ircs.lignos.cats.Utterance;
+import junit.framework.TestCase;
+
+public class ExperimentDataTest extends TestCase {
+	List<Utterance> gold = new ArrayList<Utterance>(Arrays.asList(
+			new Utterance("DH.AH0 D.AO1.G|IY0 R.AE1.N", true, false),
+			new Utterance("B.AY1|B.AY1", true, false)));
+
+	@Override
+	protected void tearDown() {
+		ExperimentData.clear();
+	}
+
+	/**
+	 * Test that data is only built once for the same corpus and settings until cleared
+	 */
+	public void testCaching() {
+		ExperimentData data = ExperimentData.get(gold, null, false, true);
+		assertSame(data, ExperimentData.get(gold, null, false, true));
+		assertNotSame(data, ExperimentData.get(gold, null, false, false));
+		assertNotSame(data, ExperimentData.get(gold, null, true, true));
+		assertSame(data.train, data.evalCorpus());
+		assertSame(data.goldTrainLexicon, data.goldEvalLexicon);
+		assertEquals(2, data.train.size());
+		assertEquals(6, data.train.nUnits());
+
+		ExperimentData.clear();
+		assertNotSame(data, ExperimentData.get(gold, null, false, true));
+	}
+
+	/**
+	 * Test that segmenter input shares units but has fresh boundaries and reduced stress
+	 */
+	public void testSegUtterances() {
+		ExperimentData.GoldCorpus corpus = ExperimentData.get(gold, null, false, true).train;
+		List<Utterance> seg = corpus.segUtterances();
+		assertEquals(2, seg.size());
+		assertSame(gold.get(0).getUnits(), seg.get(0).getUnits());
+		assertTrue(Arrays.equals(new Boolean[] {false, false, false}, seg.get(0).getBoundariesCopy()));
+		// Adjacent stresses are reduced without touching the gold stresses
+		assertTrue(Arrays.equals(new Boolean[] {false, true}, seg.get(1).getStresses()));
+		assertTrue(Arrays.equals(new Boolean[] {true, true}, gold.get(1).getStresses()));
+		// Each call gives new boundaries
+		assertNotSame(seg.get(0), corpus.segUtterances().get(0));
+	}
+
+	/**
+	 * Test that views made as they are reached match the segmenter input made all at once
+	 */
+	public void testSegUtteranceViews() {
+		ExperimentData.GoldCorpus corpus = ExperimentData.get(gold, null, false, true).train;
+		List<Utterance> seg = corpus.segUtterances();
+		Iterator<Utterance> views = corpus.segUtteranceViews().iterator();
+		for (Utterance utt : seg) {
+			Utterance view = views.next();
+			assertSame(utt.getUnits(), view.getUnits());
+			assertTrue(Arrays.equals(utt.getStresses(), view.getStresses()));
+			assertTrue(Arrays.equals(utt.getBoundariesCopy(), view.getBoundariesCopy()));
+		}
+		assertFalse(views.hasNext());
+	}
+
+	/**
+	 * Test that folds split the corpus into contiguous blocks sharing the gold structures
+	 */
+	public void testFolds() {
+		List<Utterance> corpus = new ArrayList<Utterance>(gold);
+		corpus.add(new Utterance("K.AE1.T", true, false));
+		ExperimentData whole = ExperimentData.get(corpus, null, false, false);
+
+		ExperimentData fold = whole.fold(1, 3);
+		assertEquals(2, fold.train.size());
+		assertEquals(1, fold.test.size());
+		assertSame(corpus.get(1), fold.test.utterances.get(0));
+		assertSame(corpus.get(0), fold.train.utterances.get(0));
+		assertSame(corpus.get(2), fold.train.utterances.get(1));
+		assertSame(whole.train.segUtterances().get(2).getUnits(),
+				fold.train.segUtterances().get(1).getUnits());
+		assertEquals(5, fold.train.nUnits());
+		assertSame(fold.test, fold.evalCorpus());
+		assertEquals(1, fold.goldEvalLexicon.size());
+
+		try {
+			whole.fold(0, 4);
+			fail("Made more folds than utterances");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+	}
+}
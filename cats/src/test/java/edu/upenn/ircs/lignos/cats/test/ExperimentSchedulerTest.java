@@ -0,0 +1,102 @@
+/*
+ Copyright (C) 2013 Constantine Lignos
+
+ This file is a part of CATS.
+
+ CATS is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CATS is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CATS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.upenn.ircs.lignos.cats.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.upenn.ircs.lignos.cats.ExperimentScheduler;
+import junit.framework.TestCase;
+
+public class ExperimentSchedulerTest extends TestCase {
+	private static final long BUDGET = 10;
+
+	/**
+	 * A fake experiment that tracks the heap claimed by all experiments running with it.
+	 */
+	private static class FakeExperiment implements Runnable {
+		final long heap;
+		final AtomicLong inUse;
+		final AtomicLong maxInUse;
+		final List<Long> started;
+
+		FakeExperiment(long heap, AtomicLong inUse, AtomicLong maxInUse, List<Long> started) {
+			this.heap = heap;
+			this.inUse = inUse;
+			this.maxInUse = maxInUse;
+			this.started = started;
+		}
+
+		@Override
+		public void run() {
+			started.add(heap);
+			long now = inUse.addAndGet(heap);
+			synchronized (maxInUse) {
+				maxInUse.set(Math.max(maxInUse.get(), now));
+			}
+			try {
+				Thread.sleep(20);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			inUse.addAndGet(-heap);
+		}
+	}
+
+	public void testStaysWithinBudget() throws InterruptedException {
+		AtomicLong inUse = new AtomicLong();
+		AtomicLong maxInUse = new AtomicLong();
+		List<Long> started = Collections.synchronizedList(new ArrayList<Long>());
+
+		ExperimentScheduler scheduler = new ExperimentScheduler(4, BUDGET);
+		long[] heaps = {6, 6, 6, 2, 2, 2, 2};
+		for (int i = 0; i < heaps.length; i++) {
+			// Cost follows heap so the heavy experiments are tried first
+			scheduler.add(new FakeExperiment(heaps[i], inUse, maxInUse, started), heaps[i],
+					heaps[i]);
+		}
+		scheduler.run();
+
+		assertEquals(heaps.length, started.size());
+		// Light experiments fill in next to the heavy ones, but never past the budget
+		assertTrue(maxInUse.get() <= BUDGET);
+		assertTrue(maxInUse.get() > 6);
+	}
+
+	public void testOversizeRunsAlone() throws InterruptedException {
+		AtomicLong inUse = new AtomicLong();
+		AtomicLong maxInUse = new AtomicLong();
+		List<Long> started = Collections.synchronizedList(new ArrayList<Long>());
+
+		ExperimentScheduler scheduler = new ExperimentScheduler(4, BUDGET);
+		scheduler.add(new FakeExperiment(2, inUse, maxInUse, started), 1, 2);
+		scheduler.add(new FakeExperiment(12, inUse, maxInUse, started), 2, 12);
+		scheduler.run();
+
+		assertEquals(Long.valueOf(12), started.get(0));
+		assertEquals(12, maxInUse.get());
+	}
+
+	public void testEmpty() throws InterruptedException {
+		new ExperimentScheduler(2, BUDGET).run();
+	}
+}
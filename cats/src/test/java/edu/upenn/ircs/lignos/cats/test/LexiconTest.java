@@ -19,10 +19,14 @@
 
 package edu.upenn.ircs.lignos.cats.test;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 
 import edu.upenn.ircs.lignos.cats.Utterance;
+import edu.upenn.ircs.lignos.cats.counters.SubSeqCounter;
 import edu.upenn.ircs.lignos.cats.lexicon.Lexicon;
 import edu.upenn.ircs.lignos.cats.lexicon.Word;
 
@@ -133,6 +137,149 @@ public class LexiconTest extends TestCase{
 	}
 
 
+	/**
+	 * Test that stress-insensitive lookup ignores stress but keeps the stress a word was
+	 * added with
+	 */
+	public void testStressInsensitiveLookup() {
+		Lexicon lex = new Lexicon(false, false, false, false, false, 0.0, 0.0, null);
+		lex.rewardWord(likePie, likePieStress);
+		lex.rewardWord(likePie, new Boolean[] {false, false});
+		lex.rewardWord(like, likeStress);
+
+		Word w = lex.getWord(likePie, new Boolean[] {true, false});
+		assertNotNull(w);
+		assertEquals(lex.getWord(likePie, likePieStress), w);
+		assertTrue(Arrays.equals(likePie, w.getUnits()));
+		assertTrue(Arrays.equals(likePieStress, w.getStresses()));
+		assertEquals(2, lex.getWords().size());
+		assertNull(lex.getWord(pie, pieStress));
+	}
+
+
+	/**
+	 * Test finding words by id across lexicons that interned their units in different orders
+	 */
+	public void testFindWordAcrossLexicons() {
+		Lexicon lex = new Lexicon(true, false, false, false, false, 0.0, 0.0, null);
+		lex.rewardWord(like, likeStress);
+		lex.rewardWord(likePie, likePieStress);
+		lex.rewardWord(i, iStress);
+
+		Lexicon other = new Lexicon(true, false, false, false, false, 0.0, 0.0, null);
+		other.rewardWord(pie, pieStress);
+		other.rewardWord(likePie, likePieStress);
+		other.rewardWord(like, new Boolean[] {false});
+
+		assertEquals(3, lex.size());
+		assertEquals(1, other.findWord(lex, lex.getWord(likePie, likePieStress).getId()));
+		// Differs in stress
+		assertEquals(-1, other.findWord(lex, lex.getWord(like, likeStress).getId()));
+		// Has a unit other never saw
+		assertEquals(-1, other.findWord(lex, lex.getWord(i, iStress).getId()));
+		assertEquals(0, lex.findWord(lex, 0));
+
+		// Stress is ignored when the lexicon searched is stress-insensitive
+		Lexicon insensitive = new Lexicon(false, false, false, false, false, 0.0, 0.0, null);
+		insensitive.rewardWord(like, new Boolean[] {false});
+		assertEquals(0, insensitive.findWord(lex, lex.getWord(like, likeStress).getId()));
+	}
+
+
+	/**
+	 * Test that probabilistic recall depends only on the seed
+	 */
+	public void testSeededRecall() {
+		boolean[][] recalls = new boolean[3][200];
+		long[] seeds = {7, 7, 8};
+		for (int i = 0; i < seeds.length; i++) {
+			Lexicon lex = new Lexicon(true, false, false, true, false, 0.5, 0.0, null);
+			lex.setSeed(seeds[i]);
+			lex.rewardWord(like, likeStress);
+			Word w = lex.getWord(like, likeStress);
+			for (int j = 0; j < recalls[i].length; j++) {
+				recalls[i][j] = lex.recallWord(w);
+			}
+		}
+		assertTrue(Arrays.equals(recalls[0], recalls[1]));
+		assertFalse(Arrays.equals(recalls[0], recalls[2]));
+	}
+
+
+	/**
+	 * Test that heap and off-heap lexicons agree as they grow
+	 */
+	public void testOffHeapMatchesHeap() {
+		Lexicon heapLex = new Lexicon(true, false, false, false, false, 0.0, 0.0, null, false);
+		Lexicon offHeapLex = new Lexicon(true, false, false, false, false, 0.0, 0.0, null, true);
+		// Add enough words to force the storage to grow several times
+		for (int n = 0; n < 5000; n++) {
+			String[] units = {"u" + n, "u" + (n % 7)};
+			Boolean[] stresses = {n % 2 == 0, false};
+			for (int rep = 0; rep <= n % 3; rep++) {
+				heapLex.rewardWord(units, stresses);
+				offHeapLex.rewardWord(units, stresses);
+			}
+		}
+
+		assertEquals(heapLex.getWords().size(), offHeapLex.getWords().size());
+		for (int n = 0; n < 5000; n++) {
+			String[] units = {"u" + n, "u" + (n % 7)};
+			Boolean[] stresses = {n % 2 == 0, false};
+			Word heapWord = heapLex.getWord(units, stresses);
+			Word offHeapWord = offHeapLex.getWord(units, stresses);
+			assertEquals(heapWord, offHeapWord);
+			assertEquals(heapLex.getScore(heapWord, null), offHeapLex.getScore(offHeapWord, null));
+			// The stress-flipped word was never added
+			assertNull(offHeapLex.getWord(units, new Boolean[] {n % 2 != 0, false}));
+		}
+	}
+
+
+	/**
+	 * Test that a lexicon read from a snapshot matches the one that wrote it
+	 */
+	public void testSnapshotRoundTrip() throws IOException {
+		SubSeqCounter counter = new SubSeqCounter();
+		Lexicon lex = new Lexicon(true, false, false, false, false, 0.0, 0.0, counter);
+		counter.incAllSubSeqs(iLikePie);
+		lex.rewardWord(likePie, likePieStress);
+		lex.tick();
+		lex.rewardWord(likePie, likePieStress);
+		lex.rewardWord(i, iStress);
+		lex.penalizeWord(lex.getWord(i, iStress));
+
+		File snapshot = File.createTempFile("lexicon", ".bin");
+		snapshot.deleteOnExit();
+		lex.writeSnapshot(snapshot.getPath());
+
+		SubSeqCounter loadedCounter = new SubSeqCounter();
+		Lexicon loaded = new Lexicon(true, false, false, false, false, 0.0, 0.0, loadedCounter,
+				true);
+		loaded.readSnapshot(snapshot.getPath());
+
+		assertEquals(lex.getWords().size(), loaded.getWords().size());
+		for (Word w : lex.getWords()) {
+			Word loadedWord = loaded.getWord(w.getUnits(), w.getStresses());
+			assertEquals(lex.dumpWord(w), loaded.dumpWord(loadedWord));
+			assertEquals(lex.getScore(w, counter), loaded.getScore(loadedWord, loadedCounter));
+		}
+		assertEquals(counter.get(likePie), loadedCounter.get(likePie));
+
+		// Loaded words keep learning
+		loaded.rewardWord(pie, pieStress);
+		assertNotNull(loaded.getWord(pie, pieStress));
+
+		// Stress sensitivity must match
+		try {
+			new Lexicon(false, false, false, false, false, 0.0, 0.0, null).readSnapshot(
+					snapshot.getPath());
+			fail("Should not load a snapshot with different stress sensitivity.");
+		}
+		catch (RuntimeException e) {}
+	}
+
+
 	/**
 	 * Test basic decay functionality
 	 */
@@ -156,4 +303,58 @@ public class LexiconTest extends TestCase{
 		assertTrue(score2 < score1);
 	}
 
+
+	/**
+	 * Test that decay in one lexicon does not affect another used alongside it
+	 */
+	public void testDecayPerLexicon() {
+		Lexicon decaying = new Lexicon(true, false, false, false, false, 0.0, 0.1, null);
+		Lexicon steady = new Lexicon(true, false, false, false, false, 0.0, 0.0, null);
+		for (Lexicon lex : new Lexicon[] {decaying, steady}) {
+			lex.incUtteranceWords(i, iStress, new Boolean[] {}, null);
+			lex.incUtteranceWords(i, iStress, new Boolean[] {}, null);
+		}
+		double decayingScore = decaying.getScore(decaying.getWord(i, iStress), null);
+		double steadyScore = steady.getScore(steady.getWord(i, iStress), null);
+		assertEquals(decayingScore, steadyScore);
+
+		decaying.tick();
+		steady.tick();
+
+		// Only the lexicon with decay loses score
+		assertTrue(decaying.getScore(decaying.getWord(i, iStress), null) < decayingScore);
+		assertEquals(steadyScore, steady.getScore(steady.getWord(i, iStress), null));
+	}
+
+
+	/**
+	 * Test that cached scores are updated when the lexicon changes
+	 */
+	public void testScoreCacheInvalidation() {
+		SubSeqCounter counter = new SubSeqCounter();
+		Lexicon lex = new Lexicon(true, false, false, false, false, 0.0, 0.0, counter);
+		counter.incAllSubSeqs(like);
+		lex.rewardWord(like, likeStress);
+		lex.rewardWord(like, likeStress);
+		Word w = lex.getWord(like, likeStress);
+
+		// Repeated reads give the same score
+		double score1 = lex.getScore(w, null);
+		assertEquals(score1, lex.getScore(w, null));
+		assertEquals(score1, lex.getScore(w, counter));
+
+		// Rewarding raises the score
+		lex.rewardWord(like, likeStress);
+		double score2 = lex.getScore(w, null);
+		assertTrue(score2 > score1);
+
+		// Penalizing lowers it again
+		lex.penalizeWord(w);
+		assertEquals(score1, lex.getScore(w, null));
+
+		// Counting the subsequence again halves the discounted score
+		counter.incAllSubSeqs(like);
+		assertEquals(score1 / 2, lex.getScore(w, counter));
+	}
+
 }
@@ -0,0 +1,123 @@
+/*
+ Copyright (C) 2013 Constantine Lignos
+
+ This file is a part of CATS.
+
+ CATS is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CATS is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CATS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.upenn.ircs.lignos.cats.test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.atomic.LongAdder;
+
+import edu.upenn.ircs.lignos.cats.metrics.Histogram;
+import edu.upenn.ircs.lignos.cats.metrics.MetricsRegistry;
+import junit.framework.TestCase;
+
+public class MetricsRegistryTest extends TestCase {
+
+	/**
+	 * Test that a registered counter shared by threads doesn't lose additions
+	 */
+	public void testCounter() throws InterruptedException {
+		final LongAdder counter = new MetricsRegistry().counter("lookups_total", "Lookups.");
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 10000; j++) {
+						counter.increment();
+					}
+					counter.add(5);
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(4 * 10005, counter.sum());
+	}
+
+	/**
+	 * Test that histogram quantiles are within a bucket of the true value
+	 */
+	public void testHistogram() {
+		Histogram hist = new Histogram();
+		assertEquals(0, hist.getQuantile(0.5));
+		for (long i = 1; i <= 1000; i++) {
+			hist.record(i);
+		}
+		assertEquals(1000, hist.getCount());
+		assertEquals(500500, hist.getSum());
+		assertEquals(1000, hist.getMax());
+		assertEquals(500.5, hist.getMean(), 1e-9);
+		// Small values are exact
+		assertEquals(10, hist.getQuantile(0.01));
+		long median = hist.getQuantile(0.5);
+		assertTrue(median >= 500 && median <= 500 * 33 / 32);
+		assertEquals(1000, hist.getQuantile(1.0));
+
+		// Large values keep their relative precision
+		Histogram big = new Histogram();
+		big.record(123456789012L);
+		long value = big.getQuantile(0.5);
+		assertTrue(value >= 123456789012L / 33 * 32 && value <= 123456789012L);
+		big.record(Long.MAX_VALUE);
+		assertEquals(Long.MAX_VALUE, big.getQuantile(1.0));
+	}
+
+	/**
+	 * Test that both snapshot formats include each metric once under its name
+	 */
+	public void testSnapshots() throws IOException {
+		MetricsRegistry registry = new MetricsRegistry();
+		registry.counter("lookups_total", "Lookups.").add(3);
+		assertSame(registry.counter("lookups_total", "Lookups."),
+				registry.counter("lookups_total", "Lookups."));
+		registry.counter("bytes_total", "Bytes.", "phase", "train").add(10);
+		registry.counter("bytes_total", "Bytes.", "phase", "test").add(20);
+		registry.histogram("width", "Width \"of\" beam.").record(2);
+		try {
+			registry.histogram("lookups_total", "Lookups.");
+			fail("Registered a histogram under a counter's name");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+
+		StringWriter prom = new StringWriter();
+		registry.write(prom, MetricsRegistry.PROMETHEUS);
+		String text = prom.toString();
+		assertTrue(text.contains("# TYPE lookups_total counter\nlookups_total 3\n"));
+		assertEquals(text.indexOf("# HELP bytes_total"), text.lastIndexOf("# HELP bytes_total"));
+		assertTrue(text.contains("bytes_total{phase=\"train\"} 10\n"));
+		assertTrue(text.contains("bytes_total{phase=\"test\"} 20\n"));
+		assertTrue(text.contains("# TYPE width summary\n"));
+		assertTrue(text.contains("width{quantile=\"0.5\"} 2\n"));
+		assertTrue(text.contains("width_count 1\n"));
+
+		StringWriter json = new StringWriter();
+		registry.write(json, MetricsRegistry.JSON);
+		text = json.toString();
+		assertTrue(text.startsWith("{\"metrics\": ["));
+		assertTrue(text.contains("\"name\": \"lookups_total\""));
+		assertTrue(text.contains("\"labels\": {\"phase\": \"test\"}, \"type\": \"counter\", " +
+				"\"value\": 20"));
+		assertTrue(text.contains("\"help\": \"Width \\\"of\\\" beam.\""));
+		assertTrue(text.contains("\"quantiles\": {\"0.5\": 2,"));
+	}
+}
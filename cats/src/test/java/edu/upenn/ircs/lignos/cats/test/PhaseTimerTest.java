@@ -0,0 +1,116 @@
+/*
+ Copyright (C) 2013 Constantine Lignos
+
+ This file is a part of CATS.
+
+ CATS is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CATS is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CATS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.upenn.ircs.lignos.cats.test;
+
+import edu.upenn.ircs.lignos.cats.PhaseTimer;
+import junit.framework.TestCase;
+
+public class PhaseTimerTest extends TestCase {
+
+	/**
+	 * Test that starting a phase ends the last and repeated phases are added up
+	 */
+	public void testPhases() throws InterruptedException {
+		PhaseTimer timer = new PhaseTimer();
+		timer.stop();
+		assertTrue(timer.getPhases().isEmpty());
+
+		timer.start(PhaseTimer.TRAIN);
+		Thread.sleep(5);
+		timer.start(PhaseTimer.TEST);
+		timer.start(PhaseTimer.TRAIN);
+		Thread.sleep(5);
+		timer.stop();
+		timer.stop();
+
+		assertEquals(3, timer.getPhases().size());
+		assertEquals(PhaseTimer.TEST, timer.getPhases().get(1).name);
+		PhaseTimer.Phase train = timer.get(PhaseTimer.TRAIN);
+		assertTrue(train.wallNanos >= 10000000L);
+		assertEquals(train.wallNanos + timer.get(PhaseTimer.TEST).wallNanos,
+				timer.total().wallNanos);
+		assertNull(timer.get(PhaseTimer.EVAL));
+	}
+
+	/**
+	 * Test that a phase's parts are added up with it and CPU and allocation are measured
+	 */
+	public void testGroup() {
+		PhaseTimer timer = new PhaseTimer();
+		timer.start(PhaseTimer.EVAL);
+		timer.start(PhaseTimer.EVAL_LEXICON);
+		// Allocate and use some CPU time
+		long[] work = new long[1 << 20];
+		for (int i = 1; i < work.length; i++) {
+			work[i] = work[i - 1] * 31 + i;
+		}
+		timer.start(PhaseTimer.EVAL + "uation");
+		timer.stop();
+		assertTrue(work[work.length - 1] != 0);
+
+		assertNull(timer.getGroup(PhaseTimer.WRITE));
+		PhaseTimer.Phase eval = timer.getGroup(PhaseTimer.EVAL);
+		PhaseTimer.Phase lexicon = timer.get(PhaseTimer.EVAL_LEXICON);
+		assertEquals(PhaseTimer.EVAL, eval.name);
+		assertEquals(timer.get(PhaseTimer.EVAL).wallNanos + lexicon.wallNanos, eval.wallNanos);
+		if (lexicon.allocatedBytes != PhaseTimer.UNKNOWN) {
+			assertTrue(lexicon.allocatedBytes >= 8L << 20);
+		}
+		if (lexicon.cpuNanos != PhaseTimer.UNKNOWN) {
+			assertTrue(lexicon.cpuNanos > 0);
+		}
+	}
+
+	/**
+	 * Test that CPU and allocation of work done on other threads are what the work adds up
+	 */
+	public void testOffThread() throws Exception {
+		PhaseTimer timer = new PhaseTimer();
+		PhaseTimer.PoolWork work = new PhaseTimer.PoolWork();
+		timer.start(PhaseTimer.EVAL);
+		timer.startOffThread(PhaseTimer.EVAL_BOOTSTRAP, work);
+		final PhaseTimer.PoolWork threadWork = work;
+		final long[][] results = new long[1][];
+		Thread worker = new Thread() {
+			@Override
+			public void run() {
+				long[] start = threadWork.begin();
+				results[0] = new long[1 << 20];
+				threadWork.end(start);
+			}
+		};
+		worker.start();
+		worker.join();
+		timer.start(PhaseTimer.EVAL_LEXICON);
+		timer.stop();
+
+		PhaseTimer.Phase bootstrap = timer.get(PhaseTimer.EVAL_BOOTSTRAP);
+		assertEquals(work.cpuNanos(), bootstrap.cpuNanos);
+		assertEquals(work.allocatedBytes(), bootstrap.allocatedBytes);
+		if (bootstrap.allocatedBytes != PhaseTimer.UNKNOWN) {
+			assertTrue(bootstrap.allocatedBytes >= 8L << 20);
+		}
+		// Only the bootstrap phase was measured from the work
+		PhaseTimer.Phase lexicon = timer.get(PhaseTimer.EVAL_LEXICON);
+		if (lexicon.allocatedBytes != PhaseTimer.UNKNOWN) {
+			assertTrue(lexicon.allocatedBytes < 8L << 20);
+		}
+	}
+}
@@ -0,0 +1,90 @@
+/*
+ Copyright (C) 2013 Constantine Lignos
+
+ This file is a part of CATS.
+
+ CATS is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CATS is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CATS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.upenn.ircs.lignos.cats.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.upenn.ircs.lignos.cats.ResultsFile;
+import junit.framework.TestCase;
+
+public class ResultsFileTest extends TestCase {
+	private static final String HEADER = "Condition,A,B";
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private File tempFile() throws IOException {
+		File file = File.createTempFile("results", ".csv");
+		file.deleteOnExit();
+		return file;
+	}
+
+	public void testRowsWrittenAsAdded() throws IOException {
+		File file = tempFile();
+		ResultsFile results = new ResultsFile(file.getPath(), HEADER, false);
+		results.writeRow("first,1,2");
+		// The row must be on disk before the file is closed
+		assertEquals(Arrays.asList(HEADER, "first,1,2"), Files.readAllLines(file.toPath(), UTF8));
+		results.close();
+	}
+
+	public void testRowsWrittenTogether() throws IOException {
+		File file = tempFile();
+		ResultsFile results = new ResultsFile(file.getPath(), HEADER, false);
+		results.writeRows("first,1,2", "first_sd,0,0");
+		assertEquals(Arrays.asList(HEADER, "first,1,2", "first_sd,0,0"),
+				Files.readAllLines(file.toPath(), UTF8));
+		results.close();
+	}
+
+	public void testResumeSkipsPartialRows() throws IOException {
+		File file = tempFile();
+		FileOutputStream out = new FileOutputStream(file);
+		out.write((HEADER + "\nfirst,1,2\nbad,1\nsecond,3,4\nthird,5,").getBytes(UTF8));
+		out.close();
+
+		ResultsFile results = new ResultsFile(file.getPath(), HEADER, true);
+		assertEquals(2, results.nFinished());
+		assertTrue(results.isFinished("first"));
+		assertTrue(results.isFinished("second"));
+		// Cut off while being written, so it has to be run again
+		assertFalse(results.isFinished("third"));
+		results.writeRow("third,5,6");
+		results.close();
+
+		List<String> lines = Files.readAllLines(file.toPath(), UTF8);
+		assertEquals(Arrays.asList(HEADER, "first,1,2", "second,3,4", "third,5,6"), lines);
+	}
+
+	public void testResumeNeedsMatchingHeader() throws IOException {
+		File file = tempFile();
+		new ResultsFile(file.getPath(), HEADER, false).close();
+		try {
+			new ResultsFile(file.getPath(), HEADER + ",C", true);
+			fail("Resumed with a different header");
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ Copyright (C) 2013 Constantine Lignos
+
+ This file is a part of CATS.
+
+ CATS is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CATS is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CATS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.upenn.ircs.lignos.cats.test;
+
+import java.util.List;
+import java.util.Properties;
+
+import edu.upenn.ircs.lignos.cats.Sweep;
+import junit.framework.TestCase;
+
+public class SweepTest extends TestCase {
+	private Properties base() {
+		Properties base = new Properties();
+		base.setProperty("Beam_size", "2");
+		base.setProperty("Use_trust", "true");
+		base.setProperty("Decay_amount", "0.0");
+		return base;
+	}
+
+	public void testExpand() {
+		Sweep sweep = Sweep.parse("Beam_size=1,2,4 x Use_trust=true,false");
+		assertEquals(6, sweep.size());
+
+		List<Sweep.Condition> conditions = sweep.expand(base());
+		assertEquals(6, conditions.size());
+		assertEquals("Beam_size-1_Use_trust-true", conditions.get(0).name);
+		assertEquals("Beam_size-1_Use_trust-false", conditions.get(1).name);
+		assertEquals("Beam_size-4_Use_trust-false", conditions.get(5).name);
+
+		Properties props = conditions.get(3).props;
+		assertEquals("2", props.getProperty("Beam_size"));
+		assertEquals("false", props.getProperty("Use_trust"));
+		// Properties outside the sweep come from the base
+		assertEquals("0.0", props.getProperty("Decay_amount"));
+	}
+
+	public void testSeparators() {
+		assertEquals(8, Sweep.parse("Beam_size=1,2*Use_trust=true,false × " +
+				"Decay_amount=0,0.001").size());
+	}
+
+	public void testBadSpecs() {
+		String[] bad = {"Beam_size", "Beam_size=", "Beam_size=1,,2",
+				"Beam_size=1 Use_trust=true", "Beam_size=1 x Beam_size=2"};
+		for (String spec : bad) {
+			try {
+				Sweep.parse(spec);
+				fail("Accepted bad sweep " + spec);
+			} catch (IllegalArgumentException e) {
+				// Expected
+			}
+		}
+
+		try {
+			Sweep.parse("Beam_sise=1,2").expand(base());
+			fail("Accepted unknown property");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ Copyright (C) 2013 Constantine Lignos
+
+ This file is a part of CATS.
+
+ CATS is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CATS is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with CATS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.upenn.ircs.lignos.cats.test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import edu.upenn.ircs.lignos.cats.Utterance;
+import junit.framework.TestCase;
+
+public class UtteranceTest extends TestCase {
+	Utterance gold = new Utterance("DH.AH0 D.AO1.G|IY0 R.AE1.N", true, false);
+
+	/**
+	 * Test that boundaries survive packing, including past the first 64
+	 */
+	public void testLongBoundaries() {
+		String[] units = new String[150];
+		Boolean[] stresses = new Boolean[units.length];
+		Boolean[] boundaries = new Boolean[units.length - 1];
+		for (int i = 0; i < units.length; i++) {
+			units[i] = "B.AY";
+			stresses[i] = i % 2 == 0;
+			if (i < boundaries.length) boundaries[i] = i % 3 == 0 || i == 64 || i == 127;
+		}
+
+		Utterance utt = new Utterance(units, stresses, boundaries);
+		assertTrue(Arrays.equals(boundaries, utt.getBoundariesCopy()));
+		for (int i = 0; i < boundaries.length; i++) {
+			assertEquals(boundaries[i].booleanValue(), utt.isBoundary(i));
+		}
+		assertEquals(Utterance.makeSegText(units, stresses, boundaries), utt.getSegText());
+
+		try {
+			utt.isBoundary(boundaries.length);
+			fail("Read past the last boundary");
+		} catch (ArrayIndexOutOfBoundsException e) {
+			// Expected
+		}
+	}
+
+	/**
+	 * Test that segmentation views share units and start without boundaries
+	 */
+	public void testSegView() {
+		Utterance seg = new Utterance(gold, gold.getStresses());
+		assertSame(gold.getUnits(), seg.getUnits());
+		assertTrue(Arrays.equals(new Boolean[] {false, false, false}, seg.getBoundariesCopy()));
+		assertEquals("DH.AH|D.AO.G(1)|IY|R.AE.N(1)", seg.getSegText());
+
+		seg.setBoundaries(new Boolean[] {true, false, true});
+		assertEquals("DH.AH D.AO.G(1)|IY R.AE.N(1)", seg.getSegText());
+		// The gold boundaries are untouched
+		assertTrue(Arrays.equals(new Boolean[] {true, false, true}, gold.getBoundariesCopy()));
+		assertTrue(gold.isBoundary(0));
+		assertFalse(gold.isBoundary(1));
+	}
+
+	/**
+	 * Test that reducing stress in a view copies the stresses first
+	 */
+	public void testReduceStressCopiesShared() {
+		Utterance stressed = new Utterance("B.AY1|B.AY1", true, false);
+		List<Utterance> seg = Utterance.segUtterances(Arrays.asList(stressed), true);
+		assertTrue(Arrays.equals(new Boolean[] {false, true}, seg.get(0).getStresses()));
+		assertTrue(Arrays.equals(new Boolean[] {true, true}, stressed.getStresses()));
+		assertSame(stressed.getUnits(), seg.get(0).getUnits());
+
+		// Without reduction the stresses are shared
+		seg = Utterance.segUtterances(Arrays.asList(stressed), false);
+		assertSame(stressed.getStresses(), seg.get(0).getStresses());
+	}
+
+	/**
+	 * Test that a copy shares stresses until they are reduced
+	 */
+	public void testCopySharesStresses() {
+		Utterance stressed = new Utterance("B.AY1|B.AY1", true, false);
+		Utterance copy = new Utterance(stressed, true);
+		assertSame(stressed.getStresses(), copy.getStresses());
+
+		copy.reduceStresses();
+		assertTrue(Arrays.equals(new Boolean[] {false, true}, copy.getStresses()));
+		assertTrue(Arrays.equals(new Boolean[] {true, true}, stressed.getStresses()));
+	}
+}